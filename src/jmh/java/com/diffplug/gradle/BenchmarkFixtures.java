@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates fixtures of a realistic size for the benchmarks.
+ *
+ * Everything is generated from a fixed seed, so every run
+ * of a benchmark sees exactly the same input.
+ */
+public class BenchmarkFixtures {
+	/** About as many bundles as there are in an Eclipse SDK plus a few large features. */
+	public static final int BUNDLES = 2000;
+	/** About as many artifacts as there are in the `artifacts.xml` of an Eclipse release train. */
+	public static final int ARTIFACTS = 6000;
+
+	private static final long SEED = 0x600_3F;
+	private static final int ENTRIES_PER_BUNDLE = 8;
+	private static final int ENTRY_SIZE = 2 * 1024;
+	/** Every fifth bundle has a source bundle. */
+	private static final int SOURCE_EVERY = 5;
+	/** Every fiftieth bundle is a windows-only fragment. */
+	private static final int PLATFORM_SPECIFIC_EVERY = 50;
+
+	/** Returns a new temporary folder, which the benchmark should delete in its teardown. */
+	public static File tempDir() throws IOException {
+		return Files.createTempDirectory("goomph-jmh").toFile();
+	}
+
+	/** Returns the symbolic name of the given bundle. */
+	public static String name(int bundle) {
+		return "com.example.bundle" + bundle;
+	}
+
+	/** Returns the version of the given bundle. */
+	public static String version(int bundle) {
+		return "1." + (bundle / 100) + "." + (bundle % 100) + ".v20180101-0000";
+	}
+
+	/** Writes `count` OSGi bundles (and the source bundles for some of them) into the given folder, and returns the jars. */
+	public static List<File> writeBundles(File pluginsDir, int count) throws IOException {
+		FileMisc.mkdirs(pluginsDir);
+		Random random = new Random(SEED);
+		List<File> jars = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			Manifest manifest = manifest(name(i) + (i % 10 == 0 ? ";singleton:=true" : ""), version(i));
+			Attributes attr = manifest.getMainAttributes();
+			StringBuilder requireBundle = new StringBuilder();
+			StringBuilder importPackage = new StringBuilder();
+			for (int dep = 1; dep <= 3 && i - dep * 7 >= 0; ++dep) {
+				int required = i - dep * 7;
+				requireBundle.append(requireBundle.length() == 0 ? "" : ",").append(name(required)).append(";bundle-version=\"1.0.0\"");
+				importPackage.append(importPackage.length() == 0 ? "" : ",").append(name(required)).append(".api;version=\"[1.0.0,2.0.0)\"");
+			}
+			if (requireBundle.length() > 0) {
+				attr.putValue("Require-Bundle", requireBundle.toString());
+				attr.putValue("Import-Package", importPackage.toString());
+			}
+			attr.putValue("Export-Package", name(i) + ".api;version=\"1.0.0\"," + name(i) + ".internal;x-internal:=true");
+			if (i % PLATFORM_SPECIFIC_EVERY == PLATFORM_SPECIFIC_EVERY - 1) {
+				attr.putValue("Eclipse-PlatformFilter", "(& (osgi.ws=win32) (osgi.os=win32) (osgi.arch=x86_64))");
+			}
+			jars.add(writeJar(new File(pluginsDir, name(i) + "_" + version(i) + ".jar"), manifest, name(i).replace('.', '/'), ".class", random));
+
+			if (i % SOURCE_EVERY == 0) {
+				Manifest source = manifest(name(i) + ".source", version(i));
+				source.getMainAttributes().putValue("Eclipse-SourceBundle", name(i) + ";version=\"" + version(i) + "\";roots:=\".\"");
+				jars.add(writeJar(new File(pluginsDir, name(i) + ".source_" + version(i) + ".jar"), source, name(i).replace('.', '/'), ".java", random));
+			}
+		}
+		return jars;
+	}
+
+	private static Manifest manifest(String symbolicName, String version) {
+		Manifest manifest = new Manifest();
+		Attributes attr = manifest.getMainAttributes();
+		attr.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attr.putValue("Bundle-ManifestVersion", "2");
+		attr.putValue("Bundle-SymbolicName", symbolicName);
+		attr.putValue("Bundle-Version", version);
+		attr.putValue("Bundle-Vendor", "Example");
+		return manifest;
+	}
+
+	/** Writes a jar whose entries are about as compressible as real class files. */
+	private static File writeJar(File jar, Manifest manifest, String path, String extension, Random random) throws IOException {
+		try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+			for (int i = 0; i < ENTRIES_PER_BUNDLE; ++i) {
+				output.putNextEntry(new ZipEntry(path + "/Class" + i + extension));
+				output.write(content(random, ENTRY_SIZE));
+				output.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	/** Returns content which is half random and half repetitive. */
+	private static byte[] content(Random random, int size) {
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; ++i) {
+			content[i] = i % 2 == 0 ? (byte) random.nextInt(256) : (byte) (i % 64);
+		}
+		return content;
+	}
+
+	/** Writes a zip with `count` entries spread across a few folders, about the shape of an Eclipse distribution. */
+	public static File writeZip(File zip, int count) throws IOException {
+		Random random = new Random(SEED);
+		try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip))) {
+			output.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			output.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+			output.closeEntry();
+			for (int i = 0; i < count; ++i) {
+				output.putNextEntry(new ZipEntry("folder" + (i % 20) + "/entry" + i + ".bin"));
+				output.write(content(random, ENTRY_SIZE));
+				output.closeEntry();
+			}
+		}
+		return zip;
+	}
+
+	/** Returns an `artifacts.xml` with `count` bundles, in the shape that p2 publishes for a release train. */
+	public static String artifactsXml(int count) {
+		Random random = new Random(SEED);
+		StringBuilder builder = new StringBuilder(count * 400);
+		builder.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		builder.append("<?artifactRepository version='1.1.0'?>\n");
+		builder.append("<repository name='Benchmark' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n");
+		builder.append("  <properties size='2'>\n");
+		builder.append("    <property name='p2.timestamp' value='1514764800000'/>\n");
+		builder.append("    <property name='p2.compressed' value='true'/>\n");
+		builder.append("  </properties>\n");
+		builder.append("  <mappings size='3'>\n");
+		builder.append("    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>\n");
+		builder.append("    <rule filter='(&amp; (classifier=binary))' output='${repoUrl}/binary/${id}_${version}'/>\n");
+		builder.append("    <rule filter='(&amp; (classifier=org.eclipse.update.feature))' output='${repoUrl}/features/${id}_${version}.jar'/>\n");
+		builder.append("  </mappings>\n");
+		builder.append("  <artifacts size='").append(count).append("'>\n");
+		for (int i = 0; i < count; ++i) {
+			int size = 10_000 + random.nextInt(2_000_000);
+			builder.append("    <artifact classifier='osgi.bundle' id='").append(name(i)).append("' version='").append(version(i)).append("'>\n");
+			builder.append("      <properties size='3'>\n");
+			builder.append("        <property name='artifact.size' value='").append(size).append("'/>\n");
+			builder.append("        <property name='download.size' value='").append(size).append("'/>\n");
+			builder.append("        <property name='download.md5' value='").append(String.format("%032x", random.nextLong() & Long.MAX_VALUE)).append("'/>\n");
+			builder.append("      </properties>\n");
+			builder.append("    </artifact>\n");
+		}
+		builder.append("  </artifacts>\n");
+		builder.append("</repository>\n");
+		return builder.toString();
+	}
+}
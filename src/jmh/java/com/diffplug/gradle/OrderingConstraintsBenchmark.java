@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Orders a shuffled list where every entry has a handful of
+ * constraints on earlier entries, some of which are absent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class OrderingConstraintsBenchmark {
+	@Param({"100", "1000"})
+	public int size;
+
+	List<Integer> input;
+	Map<Integer, OrderingConstraints<Integer>> constraints;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(0);
+		input = new ArrayList<>(size);
+		constraints = new HashMap<>(size);
+		for (int i = 0; i < size; ++i) {
+			input.add(i);
+			OrderingConstraints<Integer> constraint = new OrderingConstraints<>();
+			for (int c = 0; c < 2 && i > 0; ++c) {
+				constraint.afterIfPresent(random.nextInt(i));
+			}
+			// an id which is never in the list
+			constraint.beforeIfPresent(-i - 1);
+			constraints.put(i, constraint);
+		}
+		Collections.shuffle(input, random);
+	}
+
+	@Benchmark
+	public List<Integer> satisfy() {
+		return OrderingConstraints.satisfy(input, constraints::get);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Rewrites the manifest of a large zip, and unzips it, as the bootstrap installations and `pdeBuild` do. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ZipMiscBenchmark {
+	@Param("10000")
+	public int entries;
+
+	File folder;
+	File zip;
+	File unzipped;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchmarkFixtures.tempDir();
+		zip = BenchmarkFixtures.writeZip(new File(folder, "distribution.zip"), entries);
+		unzipped = new File(folder, "unzipped");
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileMisc.forceDelete(folder);
+	}
+
+	@TearDown(Level.Invocation)
+	public void cleanUnzipped() {
+		FileMisc.forceDelete(unzipped);
+	}
+
+	@Benchmark
+	public void modify() throws IOException {
+		// the replacement is the same every time, so every invocation does the same work
+		byte[] manifest = "Manifest-Version: 1.0\nCreated-By: goomph\n".getBytes(StandardCharsets.UTF_8);
+		ZipMisc.modify(zip, Collections.singletonMap("META-INF/MANIFEST.MF", unused -> manifest), path -> path.endsWith(".SF"));
+	}
+
+	@Benchmark
+	public void unzip() throws IOException {
+		ZipMisc.unzip(zip, unzipped);
+	}
+}
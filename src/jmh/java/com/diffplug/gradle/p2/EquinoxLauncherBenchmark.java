@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.gradle.eclipserunner.EquinoxLauncher;
+
+/**
+ * Boots and shuts down the p2 bootstrap installation.
+ *
+ * Every fork measures exactly one launch, so the result is the
+ * cold start of a fresh JVM, which is what every eclipse app pays.
+ * The bootstrap is downloaded once, in the setup, if it isn't cached.
+ *
+ * `coldStart` uses `-clean`, and `warmStart` uses a warm configuration
+ * area.  The area is kept between runs, so only the very first fork of
+ * `warmStart` has to warm it, and every later one is warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(5)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class EquinoxLauncherBenchmark {
+	File installation;
+
+	@Setup
+	public void setup() throws Exception {
+		P2BootstrapInstallation bootstrap = P2BootstrapInstallation.latest();
+		bootstrap.ensureInstalled();
+		installation = bootstrap.getRootFolder();
+	}
+
+	@Benchmark
+	public void coldStart() throws Exception {
+		EquinoxLauncher launcher = new EquinoxLauncher(installation);
+		launcher.setArgs(Arrays.asList("-clean", "-consolelog"));
+		try (EquinoxLauncher.Running running = launcher.open()) {
+			// opening and closing is the whole cost
+		}
+	}
+
+	@Benchmark
+	public void warmStart() throws Exception {
+		EquinoxLauncher launcher = new EquinoxLauncher(installation);
+		launcher.setArgs(Arrays.asList("-clean", "-consolelog"));
+		launcher.setWarmConfiguration(true);
+		try (EquinoxLauncher.Running running = launcher.open()) {
+			// opening and closing is the whole cost
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.gradle.BenchmarkFixtures;
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * Turns a folder of bundles into a maven repository, from scratch and
+ * incrementally when nothing has changed, which are the two cases that
+ * `p2AsMaven` hits in practice.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MavenRepoBuilderBenchmark {
+	@Param("" + BenchmarkFixtures.BUNDLES)
+	public int bundles;
+
+	File folder;
+	List<File> jars;
+	File upToDate;
+	File fromScratch;
+
+	@Setup
+	public void setup() throws Exception {
+		folder = BenchmarkFixtures.tempDir();
+		jars = BenchmarkFixtures.writeBundles(new File(folder, "plugins"), bundles);
+		upToDate = new File(folder, "upToDate");
+		fromScratch = new File(folder, "fromScratch");
+		install(upToDate, false);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileMisc.forceDelete(folder);
+	}
+
+	@TearDown(Level.Invocation)
+	public void cleanFromScratch() throws IOException {
+		FileMisc.forceDelete(fromScratch);
+	}
+
+	@Benchmark
+	public void fromScratch() throws Exception {
+		install(fromScratch, false);
+	}
+
+	@Benchmark
+	public void incrementalUpToDate() throws Exception {
+		install(upToDate, true);
+	}
+
+	private void install(File root, boolean incremental) throws Exception {
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(root, incremental, null)) {
+			builder.installAll("p2group", jars);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.diffplug.gradle.BenchmarkFixtures;
+import com.diffplug.gradle.FileMisc;
+
+/** Parses the manifest of every jar in a folder of bundles, as `p2AsMaven` does for every mirrored plugin. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ParsedJarBenchmark {
+	@Param("" + BenchmarkFixtures.BUNDLES)
+	public int bundles;
+
+	File folder;
+	List<File> jars;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchmarkFixtures.tempDir();
+		jars = BenchmarkFixtures.writeBundles(new File(folder, "plugins"), bundles);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileMisc.forceDelete(folder);
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		for (File jar : jars) {
+			blackhole.consume(ParsedJar.parse(jar));
+		}
+	}
+}
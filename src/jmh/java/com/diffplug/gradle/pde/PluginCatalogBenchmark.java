@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.pde;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.common.swt.os.SwtPlatform;
+import com.diffplug.gradle.BenchmarkFixtures;
+import com.diffplug.gradle.FileMisc;
+
+/** Catalogs a folder of bundles, some of which are platform-specific, as `pdeBuild` and `CopyJarsUsingProductFile` do. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PluginCatalogBenchmark {
+	@Param("" + BenchmarkFixtures.BUNDLES)
+	public int bundles;
+
+	File folder;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = BenchmarkFixtures.tempDir();
+		BenchmarkFixtures.writeBundles(new File(folder, "plugins"), bundles);
+	}
+
+	@TearDown
+	public void tearDown() {
+		FileMisc.forceDelete(folder);
+	}
+
+	@Benchmark
+	public PluginCatalog construct() {
+		return new PluginCatalog(new ExplicitVersionPolicy(), SwtPlatform.getAll(), Collections.singletonList(folder));
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class-data-sharing archive for a JVM which runs an eclipse installation,
+ * so that it maps the few thousand classes which every launch needs straight
+ * from the archive, rather than loading and verifying them from the jars.
+ *
+ * There is one archive for each installation and JDK, in {@link GoomphCacheLocations#appCds()}.
+ * The first launch is a training run which dumps the classes it loaded when it
+ * exits, and every later launch uses that dump.  The key includes the size and
+ * last-modified time of every file the archive depends on, so a changed jar
+ * means a new training run, rather than a JVM which rejects the archive.
+ *
+ * It needs a HotSpot JVM which can dump a dynamic archive (JDK 13+), and the
+ * launched JVM must be the same as the one which is running gradle.  On any
+ * other JVM, {@link #forLaunch(String, List)} returns null and nothing changes.
+ *
+ * It is only used if you opt-in with the project property `goomph_appCds=true`.
+ */
+public class AppCds {
+	static final String PROPERTY = "goomph_appCds";
+
+	/** Returns true if the project has opted in to class-data-sharing archives. */
+	public static boolean isEnabled(@Nullable Project project) {
+		return GoomphProperties.isOptedIn(project, PROPERTY);
+	}
+
+	/** Returns true if the running JVM can dump and use a dynamic archive. */
+	static boolean isSupported() {
+		String spec = System.getProperty("java.specification.version");
+		if (spec.startsWith("1.")) {
+			return false;
+		}
+		int dot = spec.indexOf('.');
+		int major = Integer.parseInt(dot == -1 ? spec : spec.substring(0, dot));
+		return major >= DYNAMIC_ARCHIVE_MIN_JDK && !System.getProperty("java.vm.name", "").contains("OpenJ9");
+	}
+
+	private static final int DYNAMIC_ARCHIVE_MIN_JDK = 13;
+
+	/**
+	 * Returns the archive for a launch of the given installation, or null if the
+	 * running JVM can't use one.
+	 *
+	 * @param installation identifies the installation, e.g. its root folder
+	 * @param inputs the classpath of the launched JVM, and any other files which it loads classes from
+	 */
+	@Nullable
+	public static AppCds forLaunch(String installation, List<File> inputs) {
+		if (!isSupported()) {
+			return null;
+		}
+		StringBuilder identity = new StringBuilder();
+		for (String value : Arrays.asList(System.getProperty("java.home"), System.getProperty("java.vm.version"), installation)) {
+			identity.append(value).append('\0');
+		}
+		for (File input : inputs) {
+			if (input.isDirectory()) {
+				// only classes from jars can be archived
+				return null;
+			}
+			identity.append(input.getAbsolutePath()).append(':').append(input.length()).append(':').append(input.lastModified()).append('\0');
+		}
+		String name = Digests.of(identity.toString().getBytes(StandardCharsets.UTF_8)).sha256.substring(0, 16);
+		return new AppCds(new File(GoomphCacheLocations.appCds(), name + ".jsa"));
+	}
+
+	final File archive;
+	@Nullable
+	final File dump;
+
+	private AppCds(File archive) {
+		this.archive = archive;
+		if (archive.isFile()) {
+			dump = null;
+		} else {
+			// every training run dumps to its own file, so that parallel runs can't corrupt each other
+			dump = new File(archive.getParentFile(), archive.getName() + "-" + UUID.randomUUID() + ".tmp");
+		}
+	}
+
+	/** Returns true if this launch dumps the archive, rather than using it. */
+	public boolean isTraining() {
+		return dump != null;
+	}
+
+	/** The arguments for the launched JVM. */
+	public List<String> jvmArgs() {
+		if (dump == null) {
+			return Arrays.asList("-Xshare:auto", "-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+		} else {
+			FileMisc.mkdirs(archive.getParentFile());
+			return Collections.singletonList("-XX:ArchiveClassesAtExit=" + dump.getAbsolutePath());
+		}
+	}
+
+	/** Must be called once the launched JVM has exited, to move the training run's dump into place. */
+	public void finish() {
+		if (dump == null || !dump.isFile()) {
+			return;
+		}
+		try {
+			try {
+				Files.move(dump.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another training run beat us to it, which is just as good
+				Files.deleteIfExists(dump.toPath());
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to clean up " + dump, e);
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(AppCds.class);
+}
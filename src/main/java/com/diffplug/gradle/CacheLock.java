@@ -0,0 +1,294 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.diffplug.common.base.Preconditions;
+
+/**
+ * A read-write lock on a single entry of the {@link GoomphCacheLocations},
+ * which is honored by every thread and every process on the machine.
+ *
+ * ```java
+ * try (CacheLock lock = CacheLock.exclusive(installFolder)) {
+ *     if (!isInstalled()) {
+ *         install();
+ *     }
+ * }
+ * ```
+ *
+ * - Any number of {@link #shared(File)} holders can read an entry at once, but an {@link #exclusive(File)} holder waits for all of them.
+ * - The lock is a NIO {@link FileLock} on a `<entry>.lock` sibling file, so it survives the entry being deleted and replaced.
+ * - Locks are reentrant within a thread, but a shared lock cannot be upgraded to an exclusive one.
+ * - Holders refresh the lock file's timestamp every few seconds.  If a lock file's holder stops doing
+ *   that for longer than the {@link #setStaleTimeout(Duration) stale timeout} (e.g. a dead build on
+ *   a network filesystem which doesn't release its locks), the lock is broken.
+ */
+public class CacheLock implements AutoCloseable {
+	/** Blocks until no other thread or process holds an exclusive lock on the given entry, then returns a shared lock. */
+	public static CacheLock shared(File entry) throws IOException {
+		return acquire(entry, true);
+	}
+
+	/** Blocks until no other thread or process holds any lock on the given entry, then returns an exclusive lock. */
+	public static CacheLock exclusive(File entry) throws IOException {
+		return acquire(entry, false);
+	}
+
+	/** Returns the file which is locked to protect the given entry. */
+	public static File lockFile(File entry) {
+		File absolute = entry.getAbsoluteFile();
+		return new File(absolute.getParentFile(), absolute.getName() + LOCK);
+	}
+
+	/** Sets how long a lock file must go without a heartbeat before it is considered to be abandoned.  Defaults to 5 minutes. */
+	public static void setStaleTimeout(Duration timeout) {
+		Preconditions.checkArgument(timeout.toMillis() > 2 * HEARTBEAT_MILLIS, "Stale timeout must be longer than %sms", 2 * HEARTBEAT_MILLIS);
+		staleMillis = timeout.toMillis();
+	}
+
+	private static volatile long staleMillis = TimeUnit.MINUTES.toMillis(5);
+
+	static final String LOCK = ".lock";
+	static final long HEARTBEAT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+	private static final long POLL_MILLIS = 100;
+	private static final long WARN_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+	/** One holder per lock file, shared by every thread in this JVM. */
+	private static final Map<File, Holder> holders = new ConcurrentHashMap<>();
+
+	private static CacheLock acquire(File entry, boolean shared) throws IOException {
+		Holder holder = holders.computeIfAbsent(lockFile(entry), Holder::new);
+		Lock jvmLock = shared ? holder.jvmLock.readLock() : holder.jvmLock.writeLock();
+		jvmLock.lock();
+		try {
+			holder.acquire(shared);
+			return new CacheLock(holder, jvmLock);
+		} catch (IOException | RuntimeException e) {
+			jvmLock.unlock();
+			throw e;
+		}
+	}
+
+	private final Holder holder;
+	private final Lock jvmLock;
+	private boolean closed = false;
+
+	private CacheLock(Holder holder, Lock jvmLock) {
+		this.holder = holder;
+		this.jvmLock = jvmLock;
+	}
+
+	/** Releases this lock. */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			holder.release();
+		} finally {
+			jvmLock.unlock();
+		}
+	}
+
+	/** Refreshes the timestamp of every lock file which is held by this JVM. */
+	static void heartbeat() {
+		for (Holder holder : holders.values()) {
+			try {
+				holder.heartbeat();
+			} catch (RuntimeException e) {
+				logger.warn("Unable to refresh " + holder.lockFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Coordinates the threads of this JVM, which take turns through
+	 * {@link #jvmLock}, and share a single {@link FileLock} between them.
+	 *
+	 * Only one thread at a time polls for the file lock, through {@link #acquiring}.
+	 * The holder's state is guarded separately by {@link #state}, which is never
+	 * held while polling, so a thread which is waiting on another process can't
+	 * stop the heartbeat of this holder or any other.
+	 */
+	private static class Holder {
+		final File lockFile;
+		final ReentrantReadWriteLock jvmLock = new ReentrantReadWriteLock();
+		final ReentrantLock acquiring = new ReentrantLock();
+		final ReentrantLock state = new ReentrantLock();
+
+		int count;
+		@Nullable
+		FileChannel channel;
+		@Nullable
+		FileLock fileLock;
+
+		Holder(File lockFile) {
+			this.lockFile = lockFile;
+		}
+
+		void acquire(boolean shared) throws IOException {
+			acquiring.lock();
+			try {
+				state.lock();
+				try {
+					if (count > 0) {
+						++count;
+						return;
+					}
+				} finally {
+					state.unlock();
+				}
+				FileLock acquired = lockUntilAcquired(shared);
+				state.lock();
+				try {
+					fileLock = acquired;
+					channel = acquired.channel();
+					count = 1;
+				} finally {
+					state.unlock();
+				}
+				Heartbeat.start();
+			} finally {
+				acquiring.unlock();
+			}
+		}
+
+		void release() throws IOException {
+			state.lock();
+			try {
+				--count;
+				if (count == 0) {
+					try {
+						fileLock.release();
+					} finally {
+						channel.close();
+						fileLock = null;
+						channel = null;
+					}
+				}
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/** Refreshes the lock file if it is held, unless another thread is busy with it, in which case we'll get it next time. */
+		void heartbeat() {
+			if (!state.tryLock()) {
+				return;
+			}
+			try {
+				if (count > 0) {
+					lockFile.setLastModified(System.currentTimeMillis());
+				}
+			} finally {
+				state.unlock();
+			}
+		}
+
+		/** Polls until we can lock the lock file, breaking it if it has gone stale. */
+		private FileLock lockUntilAcquired(boolean shared) throws IOException {
+			long start = System.currentTimeMillis();
+			boolean warned = false;
+			while (true) {
+				FileMisc.mkdirs(lockFile.getParentFile());
+				FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				FileLock lock;
+				try {
+					lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+				} catch (OverlappingFileLockException e) {
+					// held by a copy of this class in another classloader
+					lock = null;
+				} catch (IOException | RuntimeException e) {
+					channel.close();
+					throw e;
+				}
+				// if the lock file was broken while we were locking it, we need to lock the new one
+				if (lock != null && lockFile.exists()) {
+					lockFile.setLastModified(System.currentTimeMillis());
+					return lock;
+				}
+				if (lock != null) {
+					lock.release();
+				}
+				channel.close();
+
+				long now = System.currentTimeMillis();
+				long lastHeartbeat = lockFile.lastModified();
+				if (lastHeartbeat != 0 && now - lastHeartbeat > staleMillis) {
+					logger.warn("Breaking stale lock " + lockFile + ", its holder stopped responding " + Duration.ofMillis(now - lastHeartbeat) + " ago.");
+					try {
+						Files.deleteIfExists(lockFile.toPath());
+					} catch (IOException e) {
+						// on windows, an open file can't be deleted, so we'll just have to keep waiting
+						logger.info("Unable to break " + lockFile, e);
+					}
+				} else if (!warned && now - start > WARN_AFTER_MILLIS) {
+					logger.warn("Waiting for another build to release " + lockFile);
+					warned = true;
+				}
+				try {
+					Thread.sleep(POLL_MILLIS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for " + lockFile);
+				}
+			}
+		}
+	}
+
+	/** Refreshes the timestamp of every held lock file, so that other processes can tell the holders are alive. */
+	private static class Heartbeat {
+		private static ScheduledExecutorService executor;
+
+		static synchronized void start() {
+			if (executor == null) {
+				executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "goomph-cache-lock-heartbeat");
+					thread.setDaemon(true);
+					return thread;
+				});
+				executor.scheduleWithFixedDelay(CacheLock::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(CacheLock.class);
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nullable;
+
+/**
+ * The MD5, SHA-1 and SHA-256 of some content, all computed
+ * in a single pass, and written as the `.md5`, `.sha1` and
+ * `.sha256` sidecars which maven repositories use.
+ *
+ * Also handy for short cache keys, e.g. `Digests.of(bytes).sha256.substring(0, 16)`.
+ */
+public class Digests {
+	public final String md5;
+	public final String sha1;
+	public final String sha256;
+
+	private Digests(MessageDigest md5, MessageDigest sha1, MessageDigest sha256) {
+		this.md5 = hex(md5.digest());
+		this.sha1 = hex(sha1.digest());
+		this.sha256 = hex(sha256.digest());
+	}
+
+	/** Returns the digests of the given content. */
+	public static Digests of(byte[] content) {
+		MessageDigest md5 = digest(MD5), sha1 = digest(SHA_1), sha256 = digest(SHA_256);
+		md5.update(content);
+		sha1.update(content);
+		sha256.update(content);
+		return new Digests(md5, sha1, sha256);
+	}
+
+	/** Reads the given file once, returning its digests and writing a copy to `dst` along the way if it is non-null. */
+	public static Digests copy(File src, @Nullable File dst) throws IOException {
+		MessageDigest md5 = digest(MD5), sha1 = digest(SHA_1), sha256 = digest(SHA_256);
+		try (InputStream input = Files.newInputStream(src.toPath());
+				OutputStream output = dst == null ? null : Files.newOutputStream(dst.toPath(), StandardOpenOption.CREATE_NEW)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int numRead;
+			while ((numRead = input.read(buffer)) != -1) {
+				md5.update(buffer, 0, numRead);
+				sha1.update(buffer, 0, numRead);
+				sha256.update(buffer, 0, numRead);
+				if (output != null) {
+					output.write(buffer, 0, numRead);
+				}
+			}
+		}
+		return new Digests(md5, sha1, sha256);
+	}
+
+	/** Writes the sidecars for the given file. */
+	public void writeSidecars(File file) throws IOException {
+		write(file, MD5_EXTENSION, md5);
+		write(file, SHA_1_EXTENSION, sha1);
+		write(file, SHA_256_EXTENSION, sha256);
+	}
+
+	/** Returns the SHA-256 which was written as the given file's sidecar, or null if there isn't one. */
+	@Nullable
+	public static String readSha256(File file) throws IOException {
+		File sidecar = new File(file.getParentFile(), file.getName() + SHA_256_EXTENSION);
+		return sidecar.isFile() ? new String(Files.readAllBytes(sidecar.toPath()), StandardCharsets.US_ASCII) : null;
+	}
+
+	/** Returns the names of the sidecars for the given file name. */
+	public static String[] sidecars(String fileName) {
+		return new String[]{fileName + MD5_EXTENSION, fileName + SHA_1_EXTENSION, fileName + SHA_256_EXTENSION};
+	}
+
+	private static void write(File file, String extension, String digest) throws IOException {
+		Files.write(new File(file.getParentFile(), file.getName() + extension).toPath(), digest.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static final String MD5 = "MD5";
+	private static final String SHA_1 = "SHA-1";
+	private static final String SHA_256 = "SHA-256";
+
+	private static final String MD5_EXTENSION = ".md5";
+	private static final String SHA_1_EXTENSION = ".sha1";
+	private static final String SHA_256_EXTENSION = ".sha256";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static MessageDigest digest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM is required to support all three
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(2 * bytes.length);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
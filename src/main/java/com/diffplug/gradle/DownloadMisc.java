@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.base.Preconditions;
+import com.diffplug.common.collect.ImmutableMap;
+import com.diffplug.common.collect.Maps;
+import com.diffplug.common.io.ByteStreams;
+
+/** Utilities for downloading the bootstrap zips that goomph depends on. */
+public class DownloadMisc {
+	/** Checksum sidecars which are checked for, in order of preference, along with their digest algorithm. */
+	private static final ImmutableMap<String, String> SIDECARS = ImmutableMap.of(
+			".sha256", "SHA-256",
+			".sha1", "SHA-1");
+
+	/**
+	 * Extracts the zip at the first of the given urls which exists into the given
+	 * folder, while it is still downloading.
+	 *
+	 * Every entry is checked against its CRC as it is extracted.  If the zip has a
+	 * `.sha256` or `.sha1` checksum next to it, the download is verified against
+	 * that too.  If the download fails verification, an exception is thrown, and
+	 * the folder should be discarded, e.g. by {@link FileMisc#installAtomically}.
+	 *
+	 * @throws FileNotFoundException if none of the urls exist
+	 */
+	public static void downloadAndUnzip(List<String> urls, File destinationDir) throws IOException {
+		Preconditions.checkArgument(!urls.isEmpty(), "Need at least one url");
+		FileNotFoundException notFound = null;
+		for (String url : urls) {
+			InputStream raw;
+			try {
+				raw = new URL(url).openStream();
+			} catch (FileNotFoundException e) {
+				notFound = e;
+				continue;
+			}
+			try (InputStream closeRaw = raw) {
+				downloadAndUnzip(url, raw, destinationDir);
+			}
+			return;
+		}
+		throw notFound;
+	}
+
+	private static void downloadAndUnzip(String url, InputStream raw, File destinationDir) throws IOException {
+		Optional<Map.Entry<String, String>> expected = checksumFor(url);
+		MessageDigest digest = Errors.rethrow().get(() -> MessageDigest.getInstance(expected.map(Map.Entry::getValue).orElse("SHA-256")));
+		try (DigestInputStream input = new DigestInputStream(new BufferedInputStream(raw), digest)) {
+			ZipMisc.unzip(input, destinationDir);
+			// read the central directory too, so that the digest covers the whole file
+			byte[] buffer = new byte[8192];
+			while (input.read(buffer) != -1) {}
+		}
+		if (expected.isPresent()) {
+			String actual = toHex(digest.digest());
+			if (!actual.equals(expected.get().getKey())) {
+				throw new IOException("Checksum mismatch for " + url + ", expected " + expected.get().getKey() + " but was " + actual);
+			}
+		}
+	}
+
+	/**
+	 * Returns the expected hex digest and its algorithm, if the server publishes one next to the url.
+	 *
+	 * Repository managers often answer a missing sidecar with an error status or an html page,
+	 * so anything other than a readable hex digest of the right length counts as no sidecar.
+	 */
+	private static Optional<Map.Entry<String, String>> checksumFor(String url) {
+		for (Map.Entry<String, String> sidecar : SIDECARS.entrySet()) {
+			String sidecarUrl = url + sidecar.getKey();
+			byte[] content;
+			try {
+				URLConnection connection = new URL(sidecarUrl).openConnection();
+				if (connection instanceof HttpURLConnection) {
+					int status = ((HttpURLConnection) connection).getResponseCode();
+					if (status != HttpURLConnection.HTTP_OK) {
+						logger.info("No checksum at " + sidecarUrl + ", status " + status);
+						((HttpURLConnection) connection).disconnect();
+						continue;
+					}
+				}
+				try (InputStream input = connection.getInputStream()) {
+					content = ByteStreams.toByteArray(input);
+				}
+			} catch (IOException e) {
+				logger.info("No checksum at " + sidecarUrl + ", " + e);
+				continue;
+			}
+			// the format of sha256sum is `<hex>  <filename>`, but usually it's just `<hex>`
+			String hex = new String(content, StandardCharsets.UTF_8).trim().split("\\s+")[0].toLowerCase(Locale.ROOT);
+			int hexLength = 2 * Errors.rethrow().get(() -> MessageDigest.getInstance(sidecar.getValue())).getDigestLength();
+			if (hex.length() != hexLength || !hex.chars().allMatch(c -> Character.digit(c, 16) != -1)) {
+				logger.info("No checksum at " + sidecarUrl + ", content is not a " + sidecar.getValue() + " digest");
+				continue;
+			}
+			return Optional.of(Maps.immutableEntry(hex, sidecar.getValue()));
+		}
+		return Optional.empty();
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(DownloadMisc.class);
+}
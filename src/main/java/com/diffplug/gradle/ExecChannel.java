@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Hands a {@link JavaExecable} to a child JVM over a loopback socket,
+ * and gets the result back, without touching the disk.
+ *
+ * - The parent listens on an ephemeral loopback port, and passes the port and a random token to the child as arguments.
+ * - The child connects and sends the token, so that the parent ignores anybody else who connects.
+ * - The parent sends the serialized input, and the child sends back the serialized result or exception as soon as `run()` finishes.
+ *
+ * Every message is a length-prefixed frame, so neither side has to wait for the other to close its end.
+ */
+class ExecChannel implements AutoCloseable {
+	/** The first argument to {@link JavaExecable#main(String[])} when it should connect to a channel. */
+	static final String ARG = "--channel";
+
+	private final ServerSocket server;
+	private final String token = UUID.randomUUID().toString();
+	private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+	/** Starts listening for the child which will receive the given input. */
+	ExecChannel(JavaExecable input) throws IOException {
+		byte[] serialized = SerializableMisc.toBytes(input);
+		server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(() -> serve(serialized), "JavaExecable channel " + server.getLocalPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** The arguments which tell {@link JavaExecable#main(String[])} how to connect. */
+	List<String> args() {
+		return Arrays.asList(ARG, Integer.toString(server.getLocalPort()), token);
+	}
+
+	private void serve(byte[] input) {
+		try {
+			while (true) {
+				try (Socket socket = server.accept()) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+					DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+					if (!token.equals(in.readUTF())) {
+						continue;
+					}
+					writeFrame(out, input);
+					result.complete(SerializableMisc.fromBytes(readFrame(in)));
+					return;
+				}
+			}
+		} catch (Throwable e) {
+			result.completeExceptionally(server.isClosed() ? new IllegalStateException("The JVM exited without returning a result", e) : e);
+		}
+	}
+
+	/**
+	 * Returns the deserialized result or exception which the child sent back.
+	 * Should only be called after the child has exited, so that a child
+	 * which never connected doesn't block forever.
+	 */
+	Object result() throws Throwable {
+		if (!result.isDone()) {
+			// if the child didn't connect, this makes accept() fail, and if it did, there's no effect on the connection
+			server.close();
+		}
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	/** Called within the child JVM: connects to the parent, runs its input, and sends back the result. */
+	static void child(int port, String token) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(token);
+			out.flush();
+			byte[] output;
+			try {
+				JavaExecable execable = SerializableMisc.fromBytes(readFrame(in));
+				execable.run();
+				output = SerializableMisc.toBytes(execable);
+			} catch (Throwable t) {
+				// if it's an exception, send it back instead
+				output = SerializableMisc.throwableToBytes(t);
+			}
+			writeFrame(out, output);
+		}
+	}
+
+	static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+		out.writeInt(frame.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	static byte[] readFrame(DataInputStream in) throws IOException {
+		byte[] frame = new byte[in.readInt()];
+		in.readFully(frame);
+		return frame;
+	}
+}
@@ -20,6 +20,10 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.Arrays;
@@ -28,6 +32,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -205,6 +211,70 @@ public class FileMisc {
 	////////////////////////////
 	// Misc file manipulation //
 	////////////////////////////
+	/**
+	 * Creates a hard link at `dst` to `src`, or copies `src` to `dst` if
+	 * the filesystem doesn't support it.  Throws an exception if `dst` already exists.
+	 *
+	 * The JDK has no API for copy-on-write clones (reflinks), so the fallback is a plain copy.
+	 */
+	public static void linkOrCopy(File src, File dst) throws IOException {
+		try {
+			java.nio.file.Files.createLink(dst.toPath(), src.toPath());
+		} catch (FileAlreadyExistsException e) {
+			throw e;
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			java.nio.file.Files.copy(src.toPath(), dst.toPath());
+		}
+	}
+
+	/**
+	 * Populates a temporary sibling of `destination`, then renames it into place,
+	 * so that `destination` is either missing or complete, even if the process
+	 * dies halfway through.  An existing `destination` is replaced.
+	 *
+	 * If another process installs the same destination at the same time, the
+	 * first one to finish wins, and the other one's work is discarded.
+	 */
+	public static <E extends Exception> void installAtomically(File destination, Throwing.Specific.Consumer<File, E> populate) throws E, IOException {
+		File parent = destination.getAbsoluteFile().getParentFile();
+		mkdirs(parent);
+		deleteAbandonedInstalls(parent, destination.getName());
+		String unique = UUID.randomUUID().toString();
+		File tmp = new File(parent, destination.getName() + INSTALL_TMP + unique);
+		try {
+			mkdirs(tmp);
+			populate.accept(tmp);
+			if (destination.exists()) {
+				// move the old one out of the way, since a directory can't be atomically replaced
+				File old = new File(parent, destination.getName() + INSTALL_OLD + unique);
+				java.nio.file.Files.move(destination.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				forceDelete(old);
+			}
+			try {
+				java.nio.file.Files.move(tmp.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+				// someone else finished first
+			}
+		} finally {
+			forceDelete(tmp);
+		}
+	}
+
+	private static final String INSTALL_TMP = ".tmp-";
+	private static final String INSTALL_OLD = ".old-";
+
+	/** Deletes the leftovers of installs which died more than a day ago. */
+	private static void deleteAbandonedInstalls(File parent, String name) {
+		long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+		for (File sibling : list(parent)) {
+			String siblingName = sibling.getName();
+			boolean isLeftover = siblingName.startsWith(name + INSTALL_TMP) || siblingName.startsWith(name + INSTALL_OLD);
+			if (isLeftover && sibling.lastModified() < cutoff) {
+				forceDelete(sibling);
+			}
+		}
+	}
+
 	/**
 	 * Copies from src to dst and performs a simple
 	 * copy-replace templating operation along the way.
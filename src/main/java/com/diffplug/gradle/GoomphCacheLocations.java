@@ -39,6 +39,9 @@ import com.diffplug.gradle.p2.P2Model;
  * - {@link #pdeBootstrapUrl()}
  * - {@link #bundlePool()}
  * - {@link #workspaces()}
+ * - {@link #p2AsMaven()}
+ * - {@link #p2Proxy()}
+ * - {@link #appCds()}
  *
  * All these values can be overridden either by setting the
  * value of the `public static override_whatever` variable.
@@ -47,6 +50,9 @@ import com.diffplug.gradle.p2.P2Model;
  * `apply from:`, then these static variables will get wiped
  * out.  You can fix this by setting a project property
  * as such: `project.ext.goomph_override_whatever=something`
+ *
+ * Several builds can use these locations at once, so goomph
+ * guards each entry with a {@link CacheLock}.
  */
 @SuppressFBWarnings("MS_SHOULD_BE_FINAL")
 public class GoomphCacheLocations {
@@ -175,6 +181,8 @@ public class GoomphCacheLocations {
 	 * faster if you cache all of their jars in a central location.
 	 *
 	 * Oomph does this by default in the given location.
+	 *
+	 * The pool only grows, unless you run `goomphCacheGc` (see {@link com.diffplug.gradle.p2.BundlePool}).
 	 */
 	public static File bundlePool() {
 		//return defOverride(".p2/pool", override_bundlePool);
@@ -183,6 +191,44 @@ public class GoomphCacheLocations {
 
 	public static File override_bundlePool = null;
 
+	/**
+	 * Cache of finished `p2AsMaven` groups, which is shared
+	 * by every checkout on the machine: `~/.goomph/p2asmaven`
+	 *
+	 * Only used if you opt-in with `p2AsMaven { sharedCache() }`.
+	 * Groups are hard-linked out of this cache, so it should be
+	 * on the same filesystem as your builds.
+	 */
+	public static File p2AsMaven() {
+		return defOverride(ROOT + "/p2asmaven", override_p2AsMaven);
+	}
+
+	public static File override_p2AsMaven = null;
+
+	/**
+	 * Cache of remote p2 repositories, which is
+	 * filled by the p2 proxy: `~/.goomph/p2-proxy`
+	 *
+	 * Only used if you opt-in with the project property `goomph_p2proxy=true`.
+	 */
+	public static File p2Proxy() {
+		return defOverride(ROOT + "/p2-proxy", override_p2Proxy);
+	}
+
+	public static File override_p2Proxy = null;
+
+	/**
+	 * Class-data-sharing archives for the JVMs which run
+	 * eclipse apps, one for each installation and JDK: `~/.goomph/appcds`
+	 *
+	 * Only used if you opt-in with the project property `goomph_appCds=true`.
+	 */
+	public static File appCds() {
+		return defOverride(ROOT + "/appcds", override_appCds);
+	}
+
+	public static File override_appCds = null;
+
 	private static File defOverride(String userHomeRelative, File override) {
 		return Optional.ofNullable(override).orElseGet(() -> {
 			return userHome().resolve(userHomeRelative).toFile();
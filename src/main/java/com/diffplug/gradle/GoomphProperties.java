@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.Project;
+
+/** Reads the `goomph_*` project properties which opt in to optional behavior. */
+public class GoomphProperties {
+	/**
+	 * Returns true if the given property is `true`, whether it was set as a String
+	 * in `gradle.properties` or on the command line, or as a Boolean in `ext`.
+	 */
+	public static boolean isOptedIn(@Nullable Project project, String property) {
+		return project != null && "true".equals(String.valueOf(project.findProperty(property)));
+	}
+}
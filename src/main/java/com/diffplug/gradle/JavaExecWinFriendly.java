@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -77,7 +80,7 @@ public class JavaExecWinFriendly {
 	public static final String LONG_CLASSPATH_JAR_PREFIX = "long-classpath";
 
 	/** Creates a jar with a Class-Path entry to workaround the windows classpath limitation. */
-	private static File toJarWithClasspath(Iterable<File> files) {
+	static File toJarWithClasspath(Iterable<File> files) {
 		return Errors.rethrow().get(() -> {
 			File jarFile = File.createTempFile(LONG_CLASSPATH_JAR_PREFIX, ".jar");
 			try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
@@ -93,5 +96,32 @@ public class JavaExecWinFriendly {
 		});
 	}
 
+	/**
+	 * Returns a jar with a Class-Path entry for the given files, which is
+	 * created once and then reused by every JVM with the same classpath.
+	 */
+	static File reusableJarWithClasspath(List<File> files) throws IOException {
+		StringBuilder identity = new StringBuilder();
+		for (File file : files) {
+			identity.append(file.getAbsolutePath()).append('\0');
+		}
+		String hash = Digests.of(identity.toString().getBytes(StandardCharsets.UTF_8)).sha256.substring(0, 16);
+		File jarFile = new File(System.getProperty("java.io.tmpdir"), LONG_CLASSPATH_JAR_PREFIX + "-" + hash + ".jar");
+		if (!jarFile.isFile()) {
+			// write it next door and move it into place, so that nobody sees a partial jar
+			File tempFile = toJarWithClasspath(files);
+			try {
+				Files.move(tempFile.toPath(), jarFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another build beat us to it, which is just as good
+				Files.deleteIfExists(tempFile.toPath());
+				if (!jarFile.isFile()) {
+					throw e;
+				}
+			}
+		}
+		return jarFile;
+	}
+
 	private static final String MATCH_CHUNKS_OF_70_CHARACTERS = "(?<=\\G.{70})";
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * The child side of {@link JavaExecWorkers}: a JVM which runs one
+ * {@link JavaExecable} after another, for as long as its parent
+ * keeps the connection open.
+ *
+ * Between runs, the worker puts back the state which a `JavaExecable`
+ * is most likely to change: system properties, `System.out` and `System.err`,
+ * the default locale and timezone, and the context classloader.  If a run
+ * leaves behind something which can't be put back (a live non-daemon thread),
+ * throws an {@link Error}, or leaves the heap more than half full after
+ * garbage collection, the worker tells its parent and exits.
+ */
+class JavaExecWorker {
+	/** Parent to worker: the serialized `JavaExecable` to run next. */
+	static final byte RUN = 1;
+	/** Worker to parent: a chunk of console output. */
+	static final byte OUTPUT = 2;
+	/** Worker to parent: the serialized result or exception, and the worker remains available. */
+	static final byte RESULT = 3;
+	/** Worker to parent: the serialized result or exception, and the worker is about to exit. */
+	static final byte RESULT_AND_EXIT = 4;
+
+	/** Recycle once the heap which survived the last collection is more than this fraction of the max heap. */
+	static final double MAX_HEAP_FRACTION = 0.5;
+
+	private final DataInputStream in;
+	private final DataOutputStream out;
+
+	private JavaExecWorker(Socket socket) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	/** Runs requests until the parent hangs up, or until this worker is no longer healthy. */
+	private void serve() throws IOException {
+		Isolation isolation = new Isolation();
+		while (true) {
+			byte[] input;
+			try {
+				byte type = in.readByte();
+				if (type != RUN) {
+					throw new IllegalArgumentException("Unexpected message " + type);
+				}
+				input = ExecChannel.readFrame(in);
+			} catch (EOFException e) {
+				// the parent is done with us
+				return;
+			}
+			PrintStream console = new PrintStream(new Forwarder(), true);
+			System.setOut(console);
+			System.setErr(console);
+			byte[] output;
+			boolean healthy = true;
+			try {
+				JavaExecable execable = SerializableMisc.fromBytes(input);
+				execable.run();
+				output = SerializableMisc.toBytes(execable);
+			} catch (Throwable t) {
+				// an Error might have left the JVM in any state at all
+				healthy = !(t instanceof Error);
+				output = SerializableMisc.throwableToBytes(t);
+			} finally {
+				console.flush();
+			}
+			healthy &= isolation.reset();
+			healthy &= heapIsHealthy();
+			synchronized (out) {
+				out.writeByte(healthy ? RESULT : RESULT_AND_EXIT);
+				ExecChannel.writeFrame(out, output);
+			}
+			if (!healthy) {
+				return;
+			}
+		}
+	}
+
+	/** Returns false if the heap which survived the last collection is too big. */
+	static boolean heapIsHealthy() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage afterGc = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if (afterGc != null) {
+				used += afterGc.getUsed();
+			}
+		}
+		return used <= Runtime.getRuntime().maxMemory() * MAX_HEAP_FRACTION;
+	}
+
+	/** The JVM-wide state which is put back after every run. */
+	static class Isolation {
+		final Properties properties;
+		final PrintStream stdOut, stdErr;
+		final Locale locale;
+		final TimeZone timeZone;
+		final ClassLoader contextClassLoader;
+		final Set<Thread> threads;
+
+		Isolation() {
+			properties = (Properties) System.getProperties().clone();
+			stdOut = System.out;
+			stdErr = System.err;
+			locale = Locale.getDefault();
+			timeZone = TimeZone.getDefault();
+			contextClassLoader = Thread.currentThread().getContextClassLoader();
+			threads = liveThreads();
+		}
+
+		/** Puts everything back, and returns false if there is something which couldn't be put back. */
+		boolean reset() {
+			Properties current = System.getProperties();
+			current.clear();
+			current.putAll(properties);
+			System.setOut(stdOut);
+			System.setErr(stdErr);
+			Locale.setDefault(locale);
+			TimeZone.setDefault(timeZone);
+			Thread.currentThread().setContextClassLoader(contextClassLoader);
+			for (Thread thread : liveThreads()) {
+				if (!thread.isDaemon() && !threads.contains(thread)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static Set<Thread> liveThreads() {
+			Thread[] threads = new Thread[Thread.activeCount() * 2 + 16];
+			int count = Thread.enumerate(threads);
+			return new HashSet<>(Arrays.asList(threads).subList(0, count));
+		}
+	}
+
+	/** Sends console output to the parent as it is written. */
+	private class Forwarder extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			synchronized (out) {
+				out.writeByte(OUTPUT);
+				ExecChannel.writeFrame(out, Arrays.copyOfRange(b, off, off + len));
+			}
+		}
+	}
+
+	/** Main for the worker: `<port> <token>`. */
+	public static void main(String[] args) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+			JavaExecWorker worker = new JavaExecWorker(socket);
+			worker.out.writeUTF(args[1]);
+			worker.out.flush();
+			worker.serve();
+		}
+		// don't wait for any daemon threads which the runs left behind
+		System.exit(0);
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.process.JavaExecSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.base.Unhandled;
+
+/**
+ * A pool of long-lived JVMs which run {@link JavaExecable}s, so that
+ * a build which runs many of them only pays for a few JVM starts, and
+ * the later runs get the benefit of code which has already been JIT-ed.
+ *
+ * Workers are keyed by their JVM, classpath, JVM args and working directory,
+ * and a `JavaExecable` only runs in a worker with a matching key.  Each
+ * worker runs one `JavaExecable` at a time, so parallel callers get workers
+ * of their own.  Every worker is shut down when the build finishes.
+ *
+ * A worker puts back the JVM-wide state which a `JavaExecable` is likely to
+ * change after every run, and a worker whose run threw an {@link Error},
+ * leaked a thread, or grew the heap past half its max is replaced by a fresh
+ * one (see `JavaExecWorker`).
+ *
+ * It is only used if you opt-in with the project property `goomph_javaExecWorkers=true`.
+ * Otherwise, {@link #exec(Project, JavaExecable, Spec)} forks a fresh JVM
+ * for every call, just like {@link JavaExecable#exec(Project, JavaExecable, org.gradle.api.Action)}.
+ */
+public class JavaExecWorkers {
+	static final String PROPERTY = "goomph_javaExecWorkers";
+
+	/** Returns true if the project has opted in to the worker pool. */
+	static boolean isEnabled(Project project) {
+		return GoomphProperties.isOptedIn(project, PROPERTY);
+	}
+
+	/** How a JVM should be launched, which is also what decides which execs can share a worker. */
+	public static class Spec {
+		@Nullable
+		List<File> classpath;
+		Predicate<File> classpathFilter = file -> true;
+		List<String> jvmArgs = Collections.emptyList();
+		@Nullable
+		File workingDir;
+		@Nullable
+		OutputStream output;
+		boolean reusable = true;
+
+		/**
+		 * Uses exactly the given classpath, rather than the classpath of the
+		 * project's buildscript.  It is passed to the JVM as a single jar with
+		 * a Class-Path manifest entry, which is reused by every JVM with the same
+		 * classpath.
+		 */
+		public Spec setClasspath(@Nullable List<File> classpath) {
+			this.classpath = classpath == null ? null : new ArrayList<>(classpath);
+			return this;
+		}
+
+		/** Only the jars which pass the filter will be on the classpath. */
+		public Spec filterClasspath(Predicate<File> classpathFilter) {
+			this.classpathFilter = Objects.requireNonNull(classpathFilter);
+			return this;
+		}
+
+		public Spec setJvmArgs(@Nullable List<String> jvmArgs) {
+			this.jvmArgs = jvmArgs == null ? Collections.emptyList() : new ArrayList<>(jvmArgs);
+			return this;
+		}
+
+		public Spec setWorkingDir(@Nullable File workingDir) {
+			this.workingDir = workingDir;
+			return this;
+		}
+
+		/** Redirects stdout and stderr to the given stream, rather than the console. */
+		public Spec setOutput(@Nullable OutputStream output) {
+			this.output = output;
+			return this;
+		}
+
+		/** If false, the exec gets a freshly forked JVM even if workers are enabled, e.g. because the JVM does something when it exits. */
+		public Spec setReusable(boolean reusable) {
+			this.reusable = reusable;
+			return this;
+		}
+
+		/** The explicit classpath, filtered. */
+		List<File> classpath() {
+			return classpath.stream().filter(classpathFilter).collect(Collectors.toList());
+		}
+
+		/** Applies this spec to a JVM which will be forked just for one exec. */
+		@SuppressFBWarnings(value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT", justification = "FindBugs thinks that setClasspath() doesn't have a side effect, but it actually does.")
+		public void applyTo(JavaExecSpec execSpec) {
+			if (workingDir != null) {
+				execSpec.setWorkingDir(workingDir);
+			}
+			if (classpath != null) {
+				execSpec.setClasspath(execSpec.getClasspath().filter(unused -> false));
+				execSpec.classpath(Errors.rethrow().get(() -> JavaExecWinFriendly.reusableJarWithClasspath(classpath())));
+			} else {
+				execSpec.setClasspath(execSpec.getClasspath().filter(classpathFilter::test));
+			}
+			execSpec.jvmArgs(jvmArgs);
+			if (output != null) {
+				execSpec.setStandardOutput(output);
+				execSpec.setErrorOutput(output);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given `JavaExecable` in a worker if the project has opted in
+	 * with `goomph_javaExecWorkers=true` and the spec is reusable, else in a
+	 * freshly forked JVM.
+	 */
+	public static <T extends JavaExecable> T exec(Project project, T input, Spec spec) throws Throwable {
+		if (!isEnabled(project) || !spec.reusable) {
+			if (spec.classpath == null) {
+				return JavaExecable.exec(project, input, spec::applyTo);
+			} else {
+				// no need to resolve the buildscript classpath
+				File classpathJar = JavaExecWinFriendly.reusableJarWithClasspath(spec.classpath());
+				return JavaExecableImp.execInternal(input, project.files(classpathJar), spec::applyTo, execSpec -> JavaExecWinFriendly.javaExec(project, execSpec));
+			}
+		}
+		List<File> classpath;
+		if (spec.classpath == null) {
+			classpath = JavaExecableImp.classpath(project).stream()
+					.filter(spec.classpathFilter)
+					.collect(Collectors.toList());
+		} else {
+			classpath = spec.classpath();
+		}
+		Key key = new Key(classpath, spec.jvmArgs, spec.workingDir);
+		return forBuild(project.getGradle()).exec(key, input, spec.output != null ? spec.output : System.out);
+	}
+
+	//////////
+	// POOL //
+	//////////
+	private static final Map<Gradle, JavaExecWorkers> builds = new WeakHashMap<>();
+
+	/** Returns the pool for the given build, which is shut down when the build finishes. */
+	static synchronized JavaExecWorkers forBuild(Gradle gradle) {
+		JavaExecWorkers pool = builds.get(gradle);
+		if (pool == null) {
+			JavaExecWorkers created = new JavaExecWorkers();
+			pool = created;
+			builds.put(gradle, pool);
+			gradle.addBuildListener(new BuildAdapter() {
+				@Override
+				public void buildFinished(BuildResult result) {
+					synchronized (JavaExecWorkers.class) {
+						builds.remove(gradle);
+					}
+					created.close();
+				}
+			});
+		}
+		return pool;
+	}
+
+	private final Map<Key, Deque<Worker>> idle = new HashMap<>();
+	private boolean closed = false;
+	int started = 0;
+
+	/** Runs the given input in an idle worker with the given key, or a new one if there isn't one. */
+	@SuppressWarnings("unchecked")
+	<T extends JavaExecable> T exec(Key key, T input, OutputStream output) throws Throwable {
+		Worker worker = borrow(key);
+		Object result;
+		try {
+			result = worker.run(SerializableMisc.toBytes(input), output);
+		} catch (Throwable e) {
+			// we don't know what state the worker is in, so it can't be reused
+			worker.close();
+			throw e;
+		}
+		giveBack(worker);
+		if (result instanceof JavaExecable) {
+			return (T) result;
+		} else if (result instanceof Throwable) {
+			throw (Throwable) result;
+		} else {
+			throw Unhandled.classException(result);
+		}
+	}
+
+	private Worker borrow(Key key) throws IOException {
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("The build has finished");
+			}
+			Deque<Worker> workers = idle.get(key);
+			while (workers != null && !workers.isEmpty()) {
+				Worker worker = workers.pop();
+				if (worker.process.isAlive()) {
+					return worker;
+				}
+				worker.close();
+			}
+			++started;
+		}
+		return new Worker(key);
+	}
+
+	private void giveBack(Worker worker) {
+		synchronized (this) {
+			if (!closed && worker.healthy && worker.process.isAlive()) {
+				idle.computeIfAbsent(worker.key, unused -> new ArrayDeque<>()).push(worker);
+				return;
+			}
+		}
+		if (!worker.healthy) {
+			logger.info("Replacing a JavaExec worker which is no longer healthy");
+		}
+		worker.close();
+	}
+
+	/** Shuts down every idle worker, and any worker which is given back later. */
+	void close() {
+		List<Worker> toClose = new ArrayList<>();
+		synchronized (this) {
+			closed = true;
+			idle.values().forEach(toClose::addAll);
+			idle.clear();
+		}
+		toClose.forEach(Worker::close);
+	}
+
+	/** The things which must match for an exec to run in a given worker. */
+	static final class Key {
+		final String javaHome = System.getProperty("java.home");
+		final List<File> classpath;
+		final List<String> jvmArgs;
+		@Nullable
+		final File workingDir;
+
+		Key(List<File> classpath, List<String> jvmArgs, @Nullable File workingDir) {
+			this.classpath = new ArrayList<>(classpath);
+			this.jvmArgs = new ArrayList<>(jvmArgs);
+			this.workingDir = workingDir;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other instanceof Key) {
+				Key o = (Key) other;
+				return javaHome.equals(o.javaHome) && classpath.equals(o.classpath) && jvmArgs.equals(o.jvmArgs) && Objects.equals(workingDir, o.workingDir);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(javaHome, classpath, jvmArgs, workingDir);
+		}
+	}
+
+	private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	/** The parent side of a `JavaExecWorker`. */
+	static class Worker implements AutoCloseable {
+		final Key key;
+		final Process process;
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		boolean healthy = true;
+
+		Worker(Key key) throws IOException {
+			this.key = key;
+			String token = UUID.randomUUID().toString();
+			try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+				List<String> command = new ArrayList<>();
+				command.add(new File(key.javaHome, "bin/java").getAbsolutePath());
+				command.addAll(key.jvmArgs);
+				command.add("-cp");
+				command.add(JavaExecWinFriendly.reusableJarWithClasspath(key.classpath).getAbsolutePath());
+				command.add(JavaExecWorker.class.getName());
+				command.add(Integer.toString(server.getLocalPort()));
+				command.add(token);
+				ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+				if (key.workingDir != null) {
+					builder.directory(key.workingDir);
+				}
+				process = builder.start();
+				socket = accept(server, token);
+			} catch (IOException | RuntimeException e) {
+				cleanup();
+				throw e;
+			}
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/** Waits for the worker which has the given token to connect. */
+		private Socket accept(ServerSocket server, String token) throws IOException {
+			long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+			server.setSoTimeout(1000);
+			while (true) {
+				if (!process.isAlive()) {
+					throw new IllegalStateException("JavaExec worker exited with " + process.exitValue());
+				} else if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException("JavaExec worker didn't start in time");
+				}
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				if (token.equals(new DataInputStream(socket.getInputStream()).readUTF())) {
+					return socket;
+				}
+				socket.close();
+			}
+		}
+
+		/** Sends the serialized input, forwards output until the result arrives, then returns the deserialized result. */
+		Object run(byte[] input, OutputStream output) throws IOException, ClassNotFoundException {
+			out.writeByte(JavaExecWorker.RUN);
+			ExecChannel.writeFrame(out, input);
+			while (true) {
+				byte type = in.readByte();
+				byte[] frame = ExecChannel.readFrame(in);
+				switch (type) {
+				case JavaExecWorker.OUTPUT:
+					output.write(frame);
+					break;
+				case JavaExecWorker.RESULT_AND_EXIT:
+					healthy = false;
+					output.flush();
+					return SerializableMisc.fromBytes(frame);
+				case JavaExecWorker.RESULT:
+					output.flush();
+					return SerializableMisc.fromBytes(frame);
+				default:
+					throw new IllegalArgumentException("Unexpected message " + type);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			// the worker exits as soon as its connection closes
+			Errors.log().run(socket::close);
+			try {
+				if (!process.waitFor(10, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+			cleanup();
+		}
+
+		private void cleanup() {
+			if (process != null && process.isAlive()) {
+				process.destroyForcibly();
+			}
+		}
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(JavaExecWorkers.class);
+}
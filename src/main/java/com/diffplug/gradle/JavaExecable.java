@@ -18,18 +18,15 @@ package com.diffplug.gradle;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.gradle.api.Action;
 import org.gradle.api.Project;
-import org.gradle.api.file.FileCollection;
 import org.gradle.process.JavaExecSpec;
 import org.gradle.testfixtures.ProjectBuilder;
 
 import com.diffplug.common.base.Throwing;
-import com.diffplug.common.tree.TreeStream;
 
 /**
  * Easy way to execute code from a Gradle plugin in a separate JVM.
@@ -39,10 +36,10 @@ import com.diffplug.common.tree.TreeStream;
  *
  * Here's what happens when you call {@link JavaExecable#exec(Project, JavaExecable)},
  *
- * - Write the `JavaExecable` to a temporary file using {@link Serializable}.
- * - Launch a new JVM with the same classpath as the project's buildscript, and pass the location of that temp file.
- * - The new JVM loads the `JavaExecable` from the temp file, calls run(), writes it back to the temp file, then exits.
- * - Back in gradle, we deserialize the tempfile and return the result.
+ * - Listen on a loopback socket, and serialize the `JavaExecable` using {@link Serializable}.
+ * - Launch a new JVM with the same classpath as the project's buildscript, and pass it the port of that socket.
+ * - The new JVM connects, receives the `JavaExecable`, calls run(), sends it back over the socket, then exits.
+ * - Back in gradle, we deserialize what was sent back and return the result.
  * 
  * If the `JavaExecable` happens to throw an exception, it will be transparently
  * rethrown within the calling thread.
@@ -96,16 +93,9 @@ public interface JavaExecable extends Serializable, Throwing.Runnable {
 	 * @return the JavaExecable after it has had run() called.
 	 */
 	public static <T extends JavaExecable> T exec(Project project, T input, Action<JavaExecSpec> settings) throws Throwable {
-		// copy the classpath from the project's buildscript (and its parents)
-		List<FileCollection> classpaths = TreeStream.toParent(ProjectPlugin.treeDef(), project)
-				.map(p -> p.getBuildscript().getConfigurations().getByName(BUILDSCRIPT_CLASSPATH))
-				.collect(Collectors.toList());
-		// add the gradleApi, workaround from https://discuss.gradle.org/t/gradle-doesnt-add-the-same-dependencies-to-classpath-when-applying-plugins/9759/6?u=ned_twigg
-		classpaths.add(project.getConfigurations().detachedConfiguration(project.getDependencies().gradleApi()));
-		// add stuff from the local classloader too, to fix testkit's classpath
-		classpaths.add(project.files(JavaExecableImp.fromLocalClassloader()));
+		Set<File> classpath = JavaExecableImp.classpath(project);
 		// run it
-		return JavaExecableImp.execInternal(input, project.files(classpaths), settings, execSpec -> JavaExecWinFriendly.javaExec(project, execSpec));
+		return JavaExecableImp.execInternal(input, project.files(classpath), settings, execSpec -> JavaExecWinFriendly.javaExec(project, execSpec));
 	}
 
 	/** @see #exec(Project, JavaExecable, Action) */
@@ -127,18 +117,10 @@ public interface JavaExecable extends Serializable, Throwing.Runnable {
 
 	/** Main which works in conjunction with {@link JavaExecable#exec(Project, JavaExecable, Action)}. */
 	public static void main(String[] args) throws IOException {
-		File file = new File(args[0]);
-		try {
-			// read the target object from the file
-			JavaExecable javaExecOutside = SerializableMisc.read(file);
-			// run the object's run method
-			javaExecOutside.run();
-			// save the object back to file
-			SerializableMisc.write(file, javaExecOutside);
-		} catch (Throwable t) {
-			// if it's an exception, write it out to file
-			SerializableMisc.writeThrowable(file, t);
+		if (args.length != 3 || !ExecChannel.ARG.equals(args[0])) {
+			throw new IllegalArgumentException("Expected " + ExecChannel.ARG + " <port> <token>, but was " + Arrays.asList(args));
 		}
+		ExecChannel.child(Integer.parseInt(args[1]), args[2]);
 	}
 
 	/** Encapsulates whether something is run internally or externally. */
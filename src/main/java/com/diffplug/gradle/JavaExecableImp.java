@@ -19,8 +19,10 @@ import java.io.File;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.gradle.api.Action;
 import org.gradle.api.Project;
@@ -31,30 +33,28 @@ import org.gradle.process.JavaExecSpec;
 
 import com.diffplug.common.base.Throwing;
 import com.diffplug.common.base.Unhandled;
+import com.diffplug.common.tree.TreeStream;
 
 /** Private implementation details. */
 class JavaExecableImp {
 	/** @see #exec(Project, JavaExecable, com.diffplug.common.base.Throwing.Consumer) */
 	@SuppressWarnings("unchecked")
 	static <T extends JavaExecable> T execInternal(T input, FileCollection classpath, Action<JavaExecSpec> settings, Throwing.Function<Action<JavaExecSpec>, ExecResult> javaExecer) throws Throwable {
-		File tempFile = File.createTempFile("JavaExecOutside", ".temp");
-		try {
-			// write the input object to a file
-			SerializableMisc.write(tempFile, input);
-
+		// hand the input object over a loopback socket
+		try (ExecChannel channel = new ExecChannel(input)) {
 			ExecResult execResult = javaExecer.apply(execSpec -> {
 				// use the main below as the main
 				execSpec.setMain(JavaExecable.class.getName());
-				// pass the input object to the main
-				execSpec.args(tempFile.getAbsolutePath());
+				// tell it how to connect to the channel
+				execSpec.args(channel.args());
 				// set the nominal classpath
 				execSpec.setClasspath(classpath);
 				// let the user change things
 				settings.execute(execSpec);
 			});
 			execResult.rethrowFailure();
-			// load the resultant object after it has been executed and resaved
-			Object result = SerializableMisc.read(tempFile);
+			// the resultant object was sent back as soon as it was run
+			Object result = channel.result();
 			if (result instanceof JavaExecable) {
 				return (T) result;
 			} else if (result instanceof Throwable) {
@@ -63,8 +63,22 @@ class JavaExecableImp {
 			} else {
 				throw Unhandled.classException(result);
 			}
-		} finally {
-			FileMisc.forceDelete(tempFile); // delete the temp
+		}
+	}
+
+	/** Returns the classpath of the project's buildscript (and its parents), plus the gradle API and goomph itself. */
+	static Set<File> classpath(Project project) {
+		// copy the classpath from the project's buildscript (and its parents)
+		List<FileCollection> classpaths = TreeStream.toParent(ProjectPlugin.treeDef(), project)
+				.map(p -> p.getBuildscript().getConfigurations().getByName(JavaExecable.BUILDSCRIPT_CLASSPATH))
+				.collect(Collectors.toList());
+		// add the gradleApi, workaround from https://discuss.gradle.org/t/gradle-doesnt-add-the-same-dependencies-to-classpath-when-applying-plugins/9759/6?u=ned_twigg
+		classpaths.add(project.getConfigurations().detachedConfiguration(project.getDependencies().gradleApi()));
+		// add stuff from the local classloader too, to fix testkit's classpath
+		classpaths.add(project.files(fromLocalClassloader()));
+		// resolve the classpath up-front, since resolving configurations from several threads at once isn't safe
+		synchronized (JavaExecable.class) {
+			return project.files(classpaths).getFiles();
 		}
 	}
 
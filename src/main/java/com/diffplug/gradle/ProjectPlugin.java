@@ -20,6 +20,7 @@ import org.gradle.api.Project;
 
 import com.diffplug.common.collect.ImmutableList;
 import com.diffplug.common.tree.TreeDef;
+import com.diffplug.gradle.eclipserunner.RunReports;
 
 /** Base implementation of a Plugin which prevents double-application. */
 public abstract class ProjectPlugin implements Plugin<Project> {
@@ -30,6 +31,8 @@ public abstract class ProjectPlugin implements Plugin<Project> {
 			return;
 		}
 		project.afterEvaluate(GoomphCacheLocations::initFromProject);
+		// report where the time goes in the eclipse apps we run
+		RunReports.register(project);
 		// apply the plugin once
 		applyOnce(project);
 	}
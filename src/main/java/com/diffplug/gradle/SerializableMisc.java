@@ -17,6 +17,8 @@ package com.diffplug.gradle;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -55,6 +57,32 @@ public class SerializableMisc {
 		}
 	}
 
+	/** Serializes the given object to a byte array. */
+	public static <T extends Serializable> byte[] toBytes(T object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** Deserializes an object from the given byte array. */
+	@SuppressWarnings("unchecked")
+	public static <T extends Serializable> T fromBytes(byte[] bytes) throws ClassNotFoundException, IOException {
+		try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (T) input.readObject();
+		}
+	}
+
+	/** Serializes an exception to a byte array, even if that exception isn't serializable. */
+	public static byte[] throwableToBytes(Throwable object) throws IOException {
+		try {
+			return toBytes(object);
+		} catch (NotSerializableException e) {
+			return toBytes(new ThrowableCopy(object));
+		}
+	}
+
 	/** Copies an exception hierarchy (class, message, and stacktrace). */
 	static class ThrowableCopy extends Throwable {
 		private static final long serialVersionUID = -4674520369975786435L;
@@ -21,12 +21,21 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
@@ -175,19 +184,73 @@ public class ZipMisc {
 	 * @param destinationDir	where the zip will be extracted to
 	 */
 	public static void unzip(File input, File destinationDir) throws IOException {
-		try (ZipInputStream zipInput = new ZipInputStream(new BufferedInputStream(new FileInputStream(input)))) {
+		try (InputStream stream = new BufferedInputStream(new FileInputStream(input))) {
+			unzip(stream, destinationDir);
+		}
+	}
+
+	/** Upper bound on the bytes which have been read out of the zip but not yet written to disk. */
+	private static final int UNZIP_MAX_PENDING = 64 * 1024 * 1024;
+
+	/**
+	 * Unzips a stream to a folder, without closing the stream.
+	 *
+	 * Decompression has to happen in order, but the entries are written
+	 * to disk in parallel, so the stream can be read from a download as
+	 * fast as it arrives.  The CRC of every entry is checked.
+	 *
+	 * @param input				a stream of zip content, which is left at the end of the last entry
+	 * @param destinationDir	where the zip will be extracted to
+	 */
+	public static void unzip(InputStream input, File destinationDir) throws IOException {
+		String destinationPath = destinationDir.getCanonicalPath() + File.separator;
+		ExecutorService writers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		Semaphore pending = new Semaphore(UNZIP_MAX_PENDING);
+		List<Future<?>> writes = new ArrayList<>();
+		try {
+			ZipInputStream zipInput = new ZipInputStream(new FilterInputStream(input) {
+				@Override
+				public void close() {
+					// the caller owns the stream
+				}
+			});
 			ZipEntry entry;
 			while ((entry = zipInput.getNextEntry()) != null) {
 				File dest = new File(destinationDir, entry.getName());
+				if (!dest.getCanonicalPath().startsWith(destinationPath)) {
+					throw new IOException("Zip entry is outside of the destination: " + entry.getName());
+				}
 				if (entry.isDirectory()) {
 					FileMisc.mkdirs(dest);
 				} else {
-					FileMisc.mkdirs(dest.getParentFile());
-					try (OutputStream output = new BufferedOutputStream(new FileOutputStream(dest))) {
-						copy(zipInput, output);
-					}
+					// reading the entry to the end verifies its CRC
+					byte[] content = ByteStreams.toByteArray(zipInput);
+					int permits = Math.min(content.length, UNZIP_MAX_PENDING);
+					pending.acquireUninterruptibly(permits);
+					writes.add(writers.submit(() -> {
+						try {
+							FileMisc.mkdirs(dest.getParentFile());
+							Files.write(content, dest);
+							return null;
+						} finally {
+							pending.release(permits);
+						}
+					}));
 				}
 			}
+			for (Future<?> write : writes) {
+				Errors.constrainTo(IOException.class).run(() -> {
+					try {
+						write.get();
+					} catch (ExecutionException e) {
+						throw e.getCause();
+					}
+				});
+			}
+		} finally {
+			// make sure nothing is still writing once we return, even if we failed
+			writers.shutdownNow();
+			Errors.rethrow().run(() -> writers.awaitTermination(1, TimeUnit.MINUTES));
 		}
 	}
 }
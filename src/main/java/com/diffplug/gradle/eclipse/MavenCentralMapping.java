@@ -36,6 +36,7 @@ import com.diffplug.common.base.Box;
 import com.diffplug.common.base.Errors;
 import com.diffplug.common.io.Files;
 import com.diffplug.common.io.Resources;
+import com.diffplug.gradle.CacheLock;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
 import com.diffplug.gradle.ZipMisc;
@@ -88,21 +89,33 @@ public class MavenCentralMapping {
 			System.err.println(FIRST_ON_CENTRAL.version() + " was the first eclipse release that was published on MavenCentral.");
 		}
 		File versionFolder = new File(GoomphCacheLocations.eclipseReleaseMetadata(), release.version().toString());
-		FileMisc.mkdirs(versionFolder);
 		File artifactsJar = new File(versionFolder, ARTIFACTS_JAR);
-		if (artifactsJar.exists() && artifactsJar.length() > 0) {
-			try {
+		return Errors.rethrow().get(() -> {
+			try (CacheLock lock = CacheLock.shared(versionFolder)) {
+				if (artifactsJar.exists() && artifactsJar.length() > 0) {
+					try {
+						return parseFromFile(artifactsJar);
+					} catch (Exception e) {
+						// we'll find out what's wrong once we have the exclusive lock
+					}
+				}
+			}
+			// only one build should download the metadata
+			try (CacheLock lock = CacheLock.exclusive(versionFolder)) {
+				if (artifactsJar.exists() && artifactsJar.length() > 0) {
+					try {
+						return parseFromFile(artifactsJar);
+					} catch (Exception e) {
+						e.printStackTrace();
+						System.err.println("Retrying download...");
+						FileMisc.forceDelete(artifactsJar);
+					}
+				}
+				FileMisc.mkdirs(versionFolder);
+				byte[] content = Resources.toByteArray(new URL(release.updateSite() + "artifacts.jar"));
+				Files.write(content, artifactsJar);
 				return parseFromFile(artifactsJar);
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.err.println("Retrying download...");
-				FileMisc.forceDelete(artifactsJar);
 			}
-		}
-		return Errors.rethrow().get(() -> {
-			byte[] content = Resources.toByteArray(new URL(release.updateSite() + "artifacts.jar"));
-			Files.write(content, artifactsJar);
-			return parseFromFile(artifactsJar);
 		});
 	}
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.Project;
+
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GoomphProperties;
+
+/**
+ * A persistent OSGi configuration area, which lets equinox reuse the
+ * bundle wiring and extension registry it worked out on the last launch,
+ * rather than resolving every bundle from scratch as it does with `-clean`.
+ *
+ * There is one area for each installation and each set of framework args
+ * and properties, in `<installationRoot>/goomph-configuration`.  An area is
+ * wiped when the contents of the `plugins` folder change, and it only counts
+ * as warm once a framework has shut down cleanly in it.  A framework holds
+ * its area exclusively, so parallel launches of the same installation get
+ * areas of their own.
+ *
+ * It is only used if you opt-in with the project property `goomph_warmConfiguration=true`.
+ */
+class ConfigurationArea implements AutoCloseable {
+	static final String PROPERTY = "goomph_warmConfiguration";
+	static final String DIR = "goomph-configuration";
+
+	/** Returns true if the project has opted in to warm configuration areas. */
+	static boolean isEnabled(@Nullable Project project) {
+		return GoomphProperties.isOptedIn(project, PROPERTY);
+	}
+
+	/**
+	 * Locks the first free area for the given installation, framework args and
+	 * properties, and wipes it if the plugins have changed since it was warmed.
+	 */
+	static ConfigurationArea lock(File installationRoot, List<String> args, Map<String, String> props) throws IOException {
+		File parent = new File(installationRoot, DIR);
+		FileMisc.mkdirs(parent);
+		String key = hash(frameworkArgs(args) + "\n" + new TreeMap<>(props));
+		String plugins = hash(pluginsFingerprint(new File(installationRoot, "plugins")));
+		for (int slot = 0;; ++slot) {
+			String name = key + "-" + slot;
+			FileChannel channel = FileChannel.open(new File(parent, name + ".lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			try {
+				FileLock lock = tryLock(channel);
+				if (lock != null) {
+					return new ConfigurationArea(new File(parent, name), plugins, channel, lock);
+				}
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+			// another framework is using this slot
+			channel.close();
+		}
+	}
+
+	@Nullable
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			// locked by this JVM
+			return null;
+		}
+	}
+
+	/**
+	 * The args which can only be set when the framework is opened, and their values.
+	 * The rest are for the application, and don't change the framework's state.
+	 */
+	static List<String> frameworkArgs(List<String> args) {
+		List<String> frameworkArgs = new ArrayList<>();
+		for (int i = 0; i < args.size(); ++i) {
+			String arg = args.get(i);
+			if (arg.equals("-vmargs")) {
+				frameworkArgs.addAll(args.subList(i, args.size()));
+				break;
+			} else if (EquinoxLauncher.ONLY_IN_FRESH_FRAMEWORK.contains(arg)) {
+				frameworkArgs.add(arg);
+				if (i + 1 < args.size() && !args.get(i + 1).startsWith("-")) {
+					frameworkArgs.add(args.get(++i));
+				}
+			}
+		}
+		return frameworkArgs;
+	}
+
+	/**
+	 * The relative path, size and last-modified time of every file in the plugins folder,
+	 * including the files inside of folder bundles, which can change without touching the folder itself.
+	 */
+	static String pluginsFingerprint(File pluginsDir) throws IOException {
+		if (!pluginsDir.isDirectory()) {
+			return "";
+		}
+		Path root = pluginsDir.toPath();
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(root)) {
+			files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+		}
+		StringBuilder fingerprint = new StringBuilder();
+		for (Path file : files) {
+			String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+			fingerprint.append(relative).append(':').append(Files.size(file)).append(':').append(Files.getLastModifiedTime(file).toMillis()).append('\n');
+		}
+		return fingerprint.toString();
+	}
+
+	private static String hash(String value) {
+		return Digests.of(value.getBytes(StandardCharsets.UTF_8)).sha256.substring(0, 16);
+	}
+
+	final File dir;
+	private final String plugins;
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final boolean warm;
+
+	private ConfigurationArea(File dir, String plugins, FileChannel channel, FileLock lock) throws IOException {
+		this.dir = dir;
+		this.plugins = plugins;
+		this.channel = channel;
+		this.lock = lock;
+		warm = FileMisc.hasTokenFile(warmToken(), plugins);
+		// the token is only put back once this framework has shut down cleanly
+		FileMisc.forceDelete(warmToken());
+		if (!warm) {
+			// the plugins changed, or the last framework didn't shut down cleanly
+			FileMisc.cleanDir(dir);
+		}
+	}
+
+	private File warmToken() {
+		return new File(dir.getParentFile(), dir.getName() + ".warm");
+	}
+
+	/** Returns true if a framework had already shut down cleanly in this area, with the same plugins as now. */
+	boolean isWarm() {
+		return warm;
+	}
+
+	/** Marks the area as warm, once its framework has shut down cleanly. */
+	void markWarm() throws IOException {
+		FileMisc.writeTokenFile(warmToken(), plugins);
+	}
+
+	/** Releases the area for the next framework. */
+	@Override
+	public void close() throws IOException {
+		try {
+			lock.release();
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -25,6 +25,8 @@ import java.util.List;
  * - {@link NativeRunner} for running against a native launcher (eclipsec.exe).
  * - {@link JarFolderRunner} for running within this JVM against a folder of jars.
  * - {@link JarFolderRunnerExternalJvm} for running outside this JVM against a folder of jars.
+ * - {@link JarFolderRunnerDaemon} for running in a long-lived JVM against a folder of jars.
+ * - {@link EclipseSession} for running several apps within this JVM against a single framework.
  */
 public interface EclipseRunner {
 	/** Runs the eclipse instance with the given arguments. */
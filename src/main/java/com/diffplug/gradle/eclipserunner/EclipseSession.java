@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs a sequence of `EclipseApp`s within this JVM, against a single
+ * OSGi framework which is opened once by {@link EquinoxLauncher#open()},
+ * rather than once per app as {@link JarFolderRunner} does.
+ *
+ * ```java
+ * try (EclipseSession session = new EclipseSession(bootstrapFolder)) {
+ *     mirror.runUsing(session);
+ *     repo2runnable.runUsing(session);
+ *     System.out.println(session.summary());
+ * }
+ * ```
+ *
+ * Apps whose args need a fresh framework (see {@link EquinoxLauncher#canRunInOpenFramework(List)})
+ * still work, but the session has to close its framework and start a new one for them.
+ *
+ * Equinox only supports one framework per JVM, so only one session can be open at a time.
+ * While a session is open, other sessions and in-JVM launches wait for it to close, and
+ * the `osgi.*` system properties which the framework sets are put back when it does.
+ */
+public class EclipseSession implements EclipseRunner, AutoCloseable {
+	/** Framework args for the shared framework. */
+	static final List<String> FRAMEWORK_ARGS = Collections.unmodifiableList(Arrays.asList("-clean", "-consolelog"));
+
+	final File rootDirectory;
+	@Nullable
+	EquinoxLauncher.Running running;
+	Duration startup = Duration.ZERO;
+	final List<Timing> timings = new ArrayList<>();
+	boolean warmConfiguration = false;
+
+	/** @param rootDirectory a directory which contains a `plugins` folder containing the OSGi jars needed to run applications. */
+	public EclipseSession(File rootDirectory) {
+		this.rootDirectory = Objects.requireNonNull(rootDirectory);
+	}
+
+	/** Reuses a warm configuration area between frameworks, see {@link EquinoxLauncher#setWarmConfiguration(boolean)}. */
+	public synchronized EclipseSession setWarmConfiguration(boolean warmConfiguration) {
+		this.warmConfiguration = warmConfiguration;
+		return this;
+	}
+
+	/**
+	 * Opens the framework if it isn't open already.  Apps open it automatically, but this lets you get the startup out of the way.
+	 *
+	 * Only one framework can be open in a JVM, so this waits for any other session or in-JVM launch to close theirs.
+	 */
+	public synchronized EclipseSession open() throws Exception {
+		if (running == null) {
+			long start = System.nanoTime();
+			running = launcher().open();
+			startup = startup.plus(Duration.ofNanos(System.nanoTime() - start));
+		}
+		return this;
+	}
+
+	/** Opens the framework like {@link #open()}, unless another framework is open in this JVM, in which case it returns false rather than waiting. */
+	public synchronized boolean tryOpen() throws Exception {
+		if (running == null) {
+			long start = System.nanoTime();
+			running = launcher().tryOpen();
+			if (running == null) {
+				return false;
+			}
+			startup = startup.plus(Duration.ofNanos(System.nanoTime() - start));
+		}
+		return true;
+	}
+
+	private EquinoxLauncher launcher() {
+		EquinoxLauncher launcher = new EquinoxLauncher(rootDirectory);
+		launcher.setArgs(FRAMEWORK_ARGS);
+		launcher.setWarmConfiguration(warmConfiguration);
+		return launcher;
+	}
+
+	@Override
+	public synchronized void run(List<String> args) throws Exception {
+		Optional<Map.Entry<String, List<String>>> split = EquinoxLauncher.splitApplication(args);
+		String application = split.map(Map.Entry::getKey).orElseGet(() -> applicationOf(args));
+		RunReport report = new RunReport(application, RUNNER);
+		if (split.isPresent()) {
+			Duration startupBefore = startup;
+			open();
+			if (!startup.equals(startupBefore)) {
+				report.addPhase(RunReport.BOOT, startup.minus(startupBefore).toMillis());
+			}
+		} else {
+			close();
+		}
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			if (running != null) {
+				report.time(RunReport.APPLICATION, () -> running.runApplication(args));
+			} else {
+				JarFolderRunner fresh = new JarFolderRunner(rootDirectory);
+				fresh.setWarmConfiguration(warmConfiguration);
+				fresh.run(args, report, false);
+			}
+			succeeded = true;
+		} finally {
+			timings.add(new Timing(application, Duration.ofNanos(System.nanoTime() - start), succeeded));
+			report.finish(succeeded);
+			RunReports.record(report);
+		}
+	}
+
+	static final String RUNNER = "session";
+
+	/** Returns the application named by the `-application` arg. */
+	private static String applicationOf(List<String> args) {
+		int idx = args.indexOf("-application");
+		return idx >= 0 && idx + 1 < args.size() ? args.get(idx + 1) : "unknown";
+	}
+
+	/** Closes the framework.  The session can still be used afterwards, but it will have to start a new one. */
+	@Override
+	public synchronized void close() throws Exception {
+		if (running != null) {
+			try {
+				running.close();
+			} finally {
+				running = null;
+			}
+		}
+	}
+
+	/** The total time spent starting the framework. */
+	public synchronized Duration startup() {
+		return startup;
+	}
+
+	/** The timing of every app which has been run by this session, in order. */
+	public synchronized List<Timing> timings() {
+		return new ArrayList<>(timings);
+	}
+
+	/** Returns a line for the framework startup, and a line for every app. */
+	public synchronized String summary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("framework startup ").append(format(startup)).append('\n');
+		for (Timing timing : timings) {
+			builder.append(timing).append('\n');
+		}
+		return builder.toString();
+	}
+
+	/** How long an application took to run. */
+	public static class Timing {
+		final String application;
+		final Duration duration;
+		final boolean succeeded;
+
+		Timing(String application, Duration duration, boolean succeeded) {
+			this.application = application;
+			this.duration = duration;
+			this.succeeded = succeeded;
+		}
+
+		/** The value of the `-application` arg. */
+		public String application() {
+			return application;
+		}
+
+		/** Wall time spent running the application, excluding framework startup. */
+		public Duration duration() {
+			return duration;
+		}
+
+		/** False if the application threw an exception or had a nonzero exit code. */
+		public boolean succeeded() {
+			return succeeded;
+		}
+
+		@Override
+		public String toString() {
+			return application + " " + format(duration) + (succeeded ? "" : " FAILED");
+		}
+	}
+
+	static String format(Duration duration) {
+		return String.format("%.1fs", duration.toMillis() / 1000.0);
+	}
+}
@@ -18,22 +18,39 @@ package com.diffplug.gradle.eclipserunner;
 import static java.util.stream.Collectors.toList;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.SortedSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
+import javax.annotation.Nullable;
+
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
+import org.eclipse.osgi.service.runnable.ApplicationLauncher;
+import org.eclipse.osgi.service.runnable.ParameterizedRunnable;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.Version;
 
+import com.diffplug.common.base.Errors;
 import com.diffplug.common.base.Joiner;
 import com.diffplug.common.base.Preconditions;
 import com.diffplug.common.collect.ImmutableList;
 import com.diffplug.common.collect.ImmutableMap;
+import com.diffplug.common.collect.ImmutableSet;
 import com.diffplug.common.collect.Iterables;
+import com.diffplug.common.collect.Maps;
 import com.diffplug.common.collect.SortedSetMultimap;
 import com.diffplug.common.collect.TreeMultimap;
 import com.diffplug.gradle.FileMisc;
@@ -106,6 +123,7 @@ public class EquinoxLauncher {
 
 	ImmutableList<String> args = ImmutableList.of();
 	ImmutableMap<String, String> props = ImmutableMap.of();
+	boolean warmConfiguration = false;
 
 	/** Sets the application arguments which will be passed to the runtime. */
 	public EquinoxLauncher setArgs(List<String> args) {
@@ -150,19 +168,76 @@ public class EquinoxLauncher {
 		return this;
 	}
 
+	/**
+	 * Keeps the framework's configuration area between launches, so that it
+	 * doesn't have to resolve every bundle from scratch.  There is an area for
+	 * each installation and set of framework args, which is wiped when the
+	 * `plugins` folder changes, so `-clean` is ignored.
+	 *
+	 * Has no effect if the args or props already set the configuration area.
+	 */
+	public EquinoxLauncher setWarmConfiguration(boolean warmConfiguration) {
+		this.warmConfiguration = warmConfiguration;
+		return this;
+	}
+
 	/**
 	 * Opens the eclipse runtime, and returns an instance of
 	 * {@link Running} which allows access to the underlying
 	 * {@link BundleContext}.
+	 *
+	 * {@link EclipseStarter} is static, so only one framework can be open in a JVM
+	 * at a time.  If another one is open, this blocks until it has been closed.
 	 */
 	public Running open() throws Exception {
-		return new Running(props, args);
+		FRAMEWORK.acquire();
+		return openAcquired();
+	}
+
+	/** Opens the eclipse runtime like {@link #open()}, unless another framework is already open in this JVM, in which case it returns null. */
+	@Nullable
+	public Running tryOpen() throws Exception {
+		if (!FRAMEWORK.tryAcquire()) {
+			return null;
+		}
+		return openAcquired();
+	}
+
+	/** Opens the runtime once we hold {@link #FRAMEWORK}, which the {@link Running} releases when it is closed. */
+	private Running openAcquired() throws Exception {
+		try {
+			return new Running(props, args);
+		} catch (Throwable e) {
+			FRAMEWORK.release();
+			throw e;
+		}
 	}
 
+	/** Held from when a framework is opened in this JVM until it is closed, by whichever thread closes it. */
+	private static final Semaphore FRAMEWORK = new Semaphore(1);
+
 	/** Runs the equinox launcher (calls {@link #open()} and immediately closes it). */
 	public void run() throws Exception {
-		try (Running running = open()) {
-			running.run();
+		run(RunReport.of(args, JarFolderRunner.RUNNER), false);
+	}
+
+	/**
+	 * Runs the equinox launcher, recording the time spent in each phase into the given report,
+	 * along with the process statistics.  Peak heap and RSS are only recorded if the JVM was forked for this run.
+	 */
+	void run(RunReport report, boolean forked) throws Exception {
+		RunReport.ProcessSnapshot before = RunReport.ProcessSnapshot.take(forked);
+		try {
+			long start = System.nanoTime();
+			Running running = open();
+			report.addPhase(RunReport.BOOT, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			try {
+				running.run(report);
+			} finally {
+				running.close();
+			}
+		} finally {
+			report.recordProcess(before);
 		}
 	}
 
@@ -173,13 +248,36 @@ public class EquinoxLauncher {
 	 */
 	public class Running implements AutoCloseable {
 		final BundleContext bundleContext;
+		@Nullable
+		final ConfigurationArea configurationArea;
+		/** The framework's system properties from before it was opened, which are put back when it closes. */
+		final Map<String, String> systemPropsBefore = frameworkSystemProperties();
+		private boolean closed = false;
 
 		private Running(Map<String, String> systemProps, List<String> args) throws Exception {
 			Map<String, String> defaults = defaultSystemProperties();
 			modifyDefaultBy(defaults, systemProps);
-			EclipseStarter.setInitialProperties(defaults);
-			bundleContext = EclipseStarter.startup(args.toArray(new String[0]), null);
-			Objects.requireNonNull(bundleContext);
+			if (warmConfiguration && !defaults.containsKey(EclipseStarter.PROP_CONFIG_AREA) && !args.contains("-configuration")) {
+				configurationArea = ConfigurationArea.lock(installationRoot, args, defaults);
+				defaults.put(EclipseStarter.PROP_CONFIG_AREA, configurationArea.dir.getAbsolutePath());
+				args = args.stream().filter(arg -> !arg.equals("-clean")).collect(toList());
+			} else {
+				configurationArea = null;
+			}
+			try {
+				EclipseStarter.setInitialProperties(defaults);
+				bundleContext = EclipseStarter.startup(args.toArray(new String[0]), null);
+				Objects.requireNonNull(bundleContext);
+			} catch (Throwable e) {
+				try {
+					if (configurationArea != null) {
+						configurationArea.close();
+					}
+				} finally {
+					restoreFrameworkSystemProperties(systemPropsBefore);
+				}
+				throw e;
+			}
 		}
 
 		/** The {@link BundleContext} of the running eclipse instance. */
@@ -188,8 +286,8 @@ public class EquinoxLauncher {
 		}
 
 		/** Runs an eclipse application, as specified by the `-application` argument. */
-		private void run() throws Exception {
-			EclipseStarter.run(null);
+		private void run(RunReport report) throws Exception {
+			report.time(RunReport.APPLICATION, () -> EclipseStarter.run(null));
 
 			// request now, after shutdown the bundleContext cannot be queried
 			BundleContext bundleContext = EclipseStarter.getSystemBundleContext();
@@ -197,18 +295,174 @@ public class EquinoxLauncher {
 			// wait for the termination of the application
 			// this needed if the application does not do all its work in the IApplication#start
 			// and sets the exit code asynchronously
-			EclipseStarter.shutdown();
+			report.time(RunReport.SHUTDOWN, EclipseStarter::shutdown);
 
 			String result = bundleContext.getProperty(EclipseStarter.PROP_EXITCODE);
 
 			Preconditions.checkState("0".equals(result), "Unexpected return=0, was: %s", result);
 		}
 
-		/** Shutsdown the eclipse instance. */
+		private ServiceRegistration<ApplicationLauncher> launcher;
+
+		/**
+		 * Runs an eclipse application within this instance, without restarting
+		 * the framework.  Each call can run a different application, so long
+		 * as {@link EquinoxLauncher#canRunInOpenFramework(List)} is true for its args.
+		 */
+		public void runApplication(List<String> args) throws Exception {
+			Map.Entry<String, List<String>> split = splitApplication(args)
+					.orElseThrow(() -> new IllegalArgumentException("These args can only be run by a fresh framework: " + args));
+			String application = split.getKey();
+			if (launcher == null) {
+				// eclipse applications are run on the thread which calls ApplicationDescriptor.launch(), rather than a dedicated main thread
+				launcher = bundleContext.registerService(ApplicationLauncher.class, new SameThreadLauncher(), null);
+				// the application container is lazily activated
+				for (Bundle bundle : bundleContext.getBundles()) {
+					if (APPLICATION_CONTAINER.equals(bundle.getSymbolicName()) && bundle.getState() != Bundle.ACTIVE) {
+						bundle.start(Bundle.START_TRANSIENT);
+					}
+				}
+			}
+			ServiceReference<?> descriptorRef = applicationDescriptor(application);
+			Object descriptor = bundleContext.getService(descriptorRef);
+			try {
+				ClassLoader applicationApi = descriptor.getClass().getClassLoader();
+				Method launch = applicationApi.loadClass(APPLICATION_DESCRIPTOR).getMethod("launch", Map.class);
+				Method getExitValue = applicationApi.loadClass(APPLICATION_HANDLE).getMethod("getExitValue", long.class);
+				Map<String, Object> launchArgs = Collections.singletonMap(APPLICATION_ARGS, split.getValue().toArray(new String[0]));
+				Object handle = invoke(launch, descriptor, launchArgs);
+				// blocks until the application is done, including applications which set their result asynchronously
+				Object result = invoke(getExitValue, handle, 0L);
+				Preconditions.checkState(Integer.valueOf(0).equals(result), "Unexpected return=0, was: %s", result);
+			} finally {
+				bundleContext.ungetService(descriptorRef);
+			}
+		}
+
+		/** Returns the descriptor for the given application, waiting for the extension registry if necessary. */
+		private ServiceReference<?> applicationDescriptor(String application) throws Exception {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(APPLICATION_TIMEOUT_SECONDS);
+			while (true) {
+				ServiceReference<?>[] refs = bundleContext.getServiceReferences(APPLICATION_DESCRIPTOR, "(service.pid=" + application + ")");
+				if (refs != null && refs.length > 0) {
+					return refs[0];
+				}
+				Preconditions.checkState(System.nanoTime() < deadline, "No such application: %s", application);
+				Thread.sleep(50);
+			}
+		}
+
+		/** Shutsdown the eclipse instance, and lets another one be opened. */
 		@Override
-		public void close() throws Exception {
-			EclipseStarter.shutdown();
+		public synchronized void close() throws Exception {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				EclipseStarter.shutdown();
+				if (configurationArea != null) {
+					configurationArea.markWarm();
+				}
+			} finally {
+				try {
+					if (configurationArea != null) {
+						configurationArea.close();
+					}
+				} finally {
+					restoreFrameworkSystemProperties(systemPropsBefore);
+					FRAMEWORK.release();
+				}
+			}
+		}
+	}
+
+	private static final String APPLICATION_CONTAINER = "org.eclipse.equinox.app";
+	private static final String APPLICATION_DESCRIPTOR = "org.osgi.service.application.ApplicationDescriptor";
+	private static final String APPLICATION_HANDLE = "org.osgi.service.application.ApplicationHandle";
+	private static final String APPLICATION_ARGS = "application.args";
+	private static final int APPLICATION_TIMEOUT_SECONDS = 30;
+
+	/** Calls the given method, and unwraps any exception that it throws. */
+	private static Object invoke(Method method, Object target, Object... args) throws Exception {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			} else {
+				throw Errors.asRuntime(cause);
+			}
+		}
+	}
+
+	/** Runs applications synchronously on whichever thread launched them. */
+	private static class SameThreadLauncher implements ApplicationLauncher {
+		@Override
+		public void launch(ParameterizedRunnable runnable, Object context) {
+			Errors.rethrow().run(() -> runnable.run(context));
+		}
+
+		@Override
+		public void shutdown() {}
+	}
+
+	/** Framework args which don't matter once the framework is open. */
+	private static final ImmutableSet<String> IGNORED_IN_OPEN_FRAMEWORK = ImmutableSet.of("-clean", "-consolelog", "-nosplash", "--launcher.suppressErrors");
+	/** Framework args which can only be set when the framework is opened. */
+	static final ImmutableSet<String> ONLY_IN_FRESH_FRAMEWORK = ImmutableSet.of(
+			"-arch", "-configuration", "-console", "-data", "-debug", "-dev", "-initialize", "-install",
+			"-nl", "-noExit", "-os", "-product", "-user", "-vm", "-vmargs", "-ws");
+
+	/**
+	 * Returns true if the given args can be run by {@link Running#runApplication(List)}.
+	 * They must have an `-application`, and any other framework args must be
+	 * ones which don't matter once the framework is open, such as `-clean`.
+	 */
+	public static boolean canRunInOpenFramework(List<String> args) {
+		return splitApplication(args).isPresent();
+	}
+
+	/** Splits args into the application and its own args, if they can run in an open framework. */
+	static Optional<Map.Entry<String, List<String>>> splitApplication(List<String> args) {
+		String application = null;
+		List<String> applicationArgs = new ArrayList<>(args.size());
+		for (int i = 0; i < args.size(); ++i) {
+			String arg = args.get(i);
+			if (arg.equals("-application") && application == null && i + 1 < args.size()) {
+				application = args.get(++i);
+			} else if (ONLY_IN_FRESH_FRAMEWORK.contains(arg) || arg.equals("-application")) {
+				return Optional.empty();
+			} else if (!IGNORED_IN_OPEN_FRAMEWORK.contains(arg)) {
+				applicationArgs.add(arg);
+			}
+		}
+		return application == null ? Optional.empty() : Optional.of(Maps.immutableEntry(application, applicationArgs));
+	}
+
+	/** Prefixes of the system properties which Equinox sets, and which would otherwise outlive it in a long-lived JVM such as the gradle daemon. */
+	private static final ImmutableList<String> FRAMEWORK_PROPERTY_PREFIXES = ImmutableList.of("osgi.", "eclipse.", "equinox.", "org.osgi.");
+
+	/** Returns the current values of the system properties which Equinox might set. */
+	static Map<String, String> frameworkSystemProperties() {
+		Map<String, String> props = new HashMap<>();
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (FRAMEWORK_PROPERTY_PREFIXES.stream().anyMatch(key::startsWith)) {
+				props.put(key, System.getProperty(key));
+			}
+		}
+		return props;
+	}
+
+	/** Puts the system properties which Equinox might set back to the given values. */
+	static void restoreFrameworkSystemProperties(Map<String, String> before) {
+		for (String key : frameworkSystemProperties().keySet()) {
+			if (!before.containsKey(key)) {
+				System.clearProperty(key);
+			}
 		}
+		before.forEach(System::setProperty);
 	}
 
 	private Map<String, String> defaultSystemProperties() {
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * The protocol and the server behind {@link JarFolderRunnerDaemon}.
+ *
+ * The daemon listens on a loopback port, which it advertises along with
+ * a random secret in its info file.  A request is the secret followed by
+ * an arg list, and the response is the console output of the application
+ * followed by its result.  The daemon runs one request at a time, and tells
+ * any other clients that it is busy so that they can use a JVM of their own.
+ */
+class JarFolderDaemon {
+	static final int VERSION = 1;
+
+	static final byte OUTPUT = 1;
+	static final byte SUCCESS = 2;
+	static final byte FAILURE = 3;
+	static final byte BUSY = 4;
+
+	private static final String PORT = "port";
+	private static final String SECRET = "secret";
+	/** How long a client has to send its request, and how often an idle daemon checks whether it should exit. */
+	private static final int POLL_MILLIS = 10_000;
+
+	final EclipseRunner runner;
+	final Forwarder output;
+	final File infoFile;
+	final long idleTimeoutMillis;
+
+	final String secret;
+	final ServerSocket server;
+	final ExecutorService worker = Executors.newSingleThreadExecutor();
+	final AtomicBoolean busy = new AtomicBoolean();
+	volatile long lastUsed = System.currentTimeMillis();
+
+	/** Opens a loopback port and advertises it in the given info file. */
+	JarFolderDaemon(EclipseRunner runner, Forwarder output, File infoFile, long idleTimeoutMillis) throws IOException {
+		this.runner = runner;
+		this.output = output;
+		this.infoFile = infoFile;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+
+		// randomUUID() comes from a SecureRandom
+		secret = UUID.randomUUID().toString();
+		server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+		Properties info = new Properties();
+		info.setProperty(PORT, Integer.toString(server.getLocalPort()));
+		info.setProperty(SECRET, secret);
+		writeInfo(infoFile, info);
+	}
+
+	/** Serves requests until the daemon has been idle for longer than its timeout. */
+	void serve() throws IOException {
+		server.setSoTimeout((int) Math.min(idleTimeoutMillis, POLL_MILLIS));
+		try {
+			while (true) {
+				Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketTimeoutException e) {
+					if (!busy.get() && System.currentTimeMillis() - lastUsed >= idleTimeoutMillis) {
+						return;
+					} else {
+						continue;
+					}
+				}
+				try {
+					accept(socket);
+				} catch (IOException e) {
+					// a client which gives up early shouldn't take down the daemon
+					socket.close();
+				}
+			}
+		} finally {
+			server.close();
+			worker.shutdown();
+			// only remove the info file if it is still advertising us
+			if (readInfo(infoFile).map(info -> secret.equals(info.getProperty(SECRET))).orElse(false)) {
+				FileMisc.forceDelete(infoFile);
+			}
+		}
+	}
+
+	/** Reads a request, and either hands it to the worker or tells the client that we're busy. */
+	private void accept(Socket socket) throws IOException {
+		socket.setSoTimeout(POLL_MILLIS);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		byte[] clientSecret = readString(in).getBytes(StandardCharsets.UTF_8);
+		if (!MessageDigest.isEqual(clientSecret, secret.getBytes(StandardCharsets.UTF_8))) {
+			socket.close();
+			return;
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			out.writeByte(FAILURE);
+			writeString(out, "Daemon speaks protocol " + VERSION + ", client speaks " + version);
+			socket.close();
+			return;
+		}
+		int numArgs = in.readInt();
+		List<String> args = new ArrayList<>(numArgs);
+		for (int i = 0; i < numArgs; ++i) {
+			args.add(readString(in));
+		}
+		if (!busy.compareAndSet(false, true)) {
+			out.writeByte(BUSY);
+			socket.close();
+			return;
+		}
+		socket.setSoTimeout(0);
+		worker.execute(() -> {
+			try {
+				run(args, out);
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing to clean up
+				}
+				lastUsed = System.currentTimeMillis();
+				busy.set(false);
+			}
+		});
+	}
+
+	/** Runs the args, forwarding their output and result to the client. */
+	private void run(List<String> args, DataOutputStream out) {
+		output.forwardTo(out);
+		Throwable failure = null;
+		try {
+			runner.run(args);
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			output.forwardTo(null);
+		}
+		try {
+			if (failure == null) {
+				out.writeByte(SUCCESS);
+			} else {
+				StringWriter trace = new StringWriter();
+				failure.printStackTrace(new PrintWriter(trace));
+				out.writeByte(FAILURE);
+				writeString(out, trace.toString());
+			}
+			out.flush();
+		} catch (IOException e) {
+			// the client has gone away, nobody left to tell
+		}
+	}
+
+	/** Copies console output to the client of the current request, or else to the daemon's own log. */
+	static class Forwarder extends OutputStream {
+		final OutputStream fallback;
+		@Nullable
+		DataOutputStream client;
+
+		Forwarder(OutputStream fallback) {
+			this.fallback = fallback;
+		}
+
+		synchronized void forwardTo(@Nullable DataOutputStream client) {
+			this.client = client;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (client != null) {
+				try {
+					client.writeByte(OUTPUT);
+					client.writeInt(len);
+					client.write(b, off, len);
+					return;
+				} catch (IOException e) {
+					// the client has gone away, but the application keeps running
+					client = null;
+				}
+			}
+			fallback.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (client != null) {
+				try {
+					client.flush();
+				} catch (IOException e) {
+					client = null;
+				}
+			}
+			fallback.flush();
+		}
+	}
+
+	/** The outcome of a request. */
+	enum Result {
+		/** The application ran successfully. */
+		SUCCESS,
+		/** The daemon is running something else. */
+		BUSY,
+		/** There is no daemon listening. */
+		UNAVAILABLE
+	}
+
+	/**
+	 * Asks the daemon advertised by the given info file to run the given args,
+	 * and copies its console output to the given stream.  Throws an exception
+	 * if the application failed.
+	 */
+	static Result request(File infoFile, List<String> args, OutputStream output) throws Exception {
+		Optional<Properties> info = readInfo(infoFile);
+		if (!info.isPresent()) {
+			return Result.UNAVAILABLE;
+		}
+		Socket socket;
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info.get().getProperty(PORT)));
+		} catch (IOException | NumberFormatException e) {
+			return Result.UNAVAILABLE;
+		}
+		try {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			writeString(out, info.get().getProperty(SECRET, ""));
+			out.writeInt(VERSION);
+			out.writeInt(args.size());
+			for (String arg : args) {
+				writeString(out, arg);
+			}
+			out.flush();
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					// the daemon hung up without answering, e.g. because it was killed
+					throw new IOException("p2 daemon hung up, see the log next to " + infoFile, e);
+				}
+				switch (type) {
+				case OUTPUT:
+					byte[] chunk = new byte[in.readInt()];
+					in.readFully(chunk);
+					output.write(chunk);
+					break;
+				case SUCCESS:
+					output.flush();
+					return Result.SUCCESS;
+				case BUSY:
+					return Result.BUSY;
+				case FAILURE:
+					output.flush();
+					throw new IllegalStateException("Failed in p2 daemon: " + readString(in));
+				default:
+					throw new IOException("Unexpected response from p2 daemon: " + type);
+				}
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/** Returns true if a daemon is listening at the location given by the info file. */
+	static boolean isListening(File infoFile) {
+		Optional<Properties> info = readInfo(infoFile);
+		if (!info.isPresent()) {
+			return false;
+		}
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(info.get().getProperty(PORT)))) {
+			return true;
+		} catch (IOException | NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/** Main for the daemon: `<rootDirectory> <infoFile> <idleTimeoutMillis> <warmConfiguration>`. */
+	static void main(String[] args) throws Exception {
+		File rootDirectory = new File(args[0]);
+		File infoFile = new File(args[1]);
+		long idleTimeoutMillis = Long.parseLong(args[2]);
+		boolean warmConfiguration = Boolean.parseBoolean(args[3]);
+
+		// capture console output before the framework gets a chance to grab System.out
+		Forwarder output = new Forwarder(System.out);
+		PrintStream forwarded = new PrintStream(output, true);
+		System.setOut(forwarded);
+		System.setErr(forwarded);
+
+		try (EclipseSession session = new EclipseSession(rootDirectory).setWarmConfiguration(warmConfiguration).open()) {
+			System.out.println("p2 daemon started in " + EclipseSession.format(session.startup()));
+			EclipseRunner runner = appArgs -> {
+				session.run(appArgs);
+				List<EclipseSession.Timing> timings = session.timings();
+				System.out.println("p2 daemon ran " + timings.get(timings.size() - 1));
+			};
+			JarFolderDaemon daemon = new JarFolderDaemon(runner, output, infoFile, idleTimeoutMillis);
+			daemon.serve();
+			daemon.worker.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		// the framework can leave non-daemon threads behind
+		System.exit(0);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** Atomically replaces the info file with one that only the current user can read. */
+	private static void writeInfo(File infoFile, Properties info) throws IOException {
+		FileMisc.mkdirs(infoFile.getParentFile());
+		File tmp = new File(infoFile.getParentFile(), infoFile.getName() + ".tmp-" + info.getProperty(SECRET));
+		Files.createFile(tmp.toPath());
+		try {
+			Files.setPosixFilePermissions(tmp.toPath(), EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+		} catch (UnsupportedOperationException e) {
+			// not a posix filesystem, the user's home directory has to protect it
+		}
+		try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+			info.store(out, "p2 daemon");
+		}
+		Files.move(tmp.toPath(), infoFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static Optional<Properties> readInfo(File infoFile) {
+		if (!infoFile.isFile()) {
+			return Optional.empty();
+		}
+		try (InputStream in = new FileInputStream(infoFile)) {
+			Properties info = new Properties();
+			info.load(in);
+			return Optional.of(info);
+		} catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+}
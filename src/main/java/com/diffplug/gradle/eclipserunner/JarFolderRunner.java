@@ -24,15 +24,37 @@ import java.util.List;
  */
 public class JarFolderRunner implements EclipseRunner {
 	final File rootDirectory;
+	boolean warmConfiguration = false;
 
 	public JarFolderRunner(File rootDirectory) {
 		this.rootDirectory = rootDirectory;
 	}
 
+	/** Reuses a warm configuration area between launches, see {@link EquinoxLauncher#setWarmConfiguration(boolean)}. */
+	public void setWarmConfiguration(boolean warmConfiguration) {
+		this.warmConfiguration = warmConfiguration;
+	}
+
 	@Override
 	public void run(List<String> args) throws Exception {
+		RunReport report = RunReport.of(args, RUNNER);
+		boolean succeeded = false;
+		try {
+			run(args, report, false);
+			succeeded = true;
+		} finally {
+			report.finish(succeeded);
+			RunReports.record(report);
+		}
+	}
+
+	/** Runs the given args, recording where the time went into the given report. */
+	void run(List<String> args, RunReport report, boolean forked) throws Exception {
 		EquinoxLauncher launcher = new EquinoxLauncher(rootDirectory);
 		launcher.setArgs(args);
-		launcher.run();
+		launcher.setWarmConfiguration(warmConfiguration);
+		launcher.run(report, forked);
 	}
+
+	static final String RUNNER = "withinJvm";
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.Project;
+
+import com.diffplug.common.base.Joiner;
+import com.diffplug.common.io.Files;
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * Runs an `EclipseApp` in a long-lived JVM which keeps an OSGi
+ * framework open for the given folder, so that only the first
+ * app pays for launching a JVM and booting equinox.
+ *
+ * The daemon is started on demand, listens on a loopback socket,
+ * and exits once it has been idle for {@link #setIdleTimeout(Duration)}
+ * (one hour by default).  Its info file and log are in `<rootDirectory>/daemon`.
+ *
+ * Args which need a fresh framework (see {@link EquinoxLauncher#canRunInOpenFramework(List)}),
+ * and requests which arrive while the daemon is busy with another app,
+ * are run by a {@link JarFolderRunnerExternalJvm} instead.
+ */
+public class JarFolderRunnerDaemon implements EclipseRunner {
+	final File rootDirectory;
+	@Nullable
+	final Project project;
+	@Nullable
+	List<String> vmArgs;
+	@Nullable
+	OutputStream output;
+	Duration idleTimeout = Duration.ofHours(1);
+
+	/**
+	 * @param rootDirectory a directory which contains a `plugins` folder containing the OSGi jars needed to run applications.
+	 * @param project used for logging, and for the {@link JarFolderRunnerExternalJvm} fallback
+	 */
+	public JarFolderRunnerDaemon(File rootDirectory, @Nullable Project project) {
+		this.rootDirectory = Objects.requireNonNull(rootDirectory);
+		this.project = project;
+	}
+
+	/** Sets the vmArgs of the daemon, which are part of its identity. */
+	public void setVmArgs(@Nullable List<String> vmArgs) {
+		this.vmArgs = vmArgs;
+	}
+
+	/** Redirects the console output of the apps to the given stream, rather than the console. */
+	public void setOutput(@Nullable OutputStream output) {
+		this.output = output;
+	}
+
+	/** Sets how long a newly started daemon will wait for requests before it exits. */
+	public void setIdleTimeout(Duration idleTimeout) {
+		this.idleTimeout = Objects.requireNonNull(idleTimeout);
+	}
+
+	@Override
+	public void run(List<String> args) throws Exception {
+		if (EquinoxLauncher.canRunInOpenFramework(args)) {
+			List<File> classpath = LauncherClasspath.get();
+			File infoFile = new File(rootDirectory, DAEMON_DIR + "/" + key(classpath) + ".properties");
+			OutputStream destination = output != null ? output : System.out;
+			JarFolderDaemon.Result result = requestOrUnavailable(infoFile, args, destination);
+			if (result == JarFolderDaemon.Result.UNAVAILABLE) {
+				try {
+					startIfNecessary(infoFile, classpath);
+					result = JarFolderDaemon.request(infoFile, args, destination);
+				} catch (Exception e) {
+					warn("Unable to start p2 daemon, falling back to a fresh JVM: " + e.getMessage());
+				}
+			}
+			if (result == JarFolderDaemon.Result.SUCCESS) {
+				return;
+			}
+		}
+		JarFolderRunnerExternalJvm fresh = new JarFolderRunnerExternalJvm(rootDirectory, project);
+		fresh.setVmArgs(vmArgs);
+		fresh.setOutput(output);
+		fresh.run(args);
+	}
+
+	/**
+	 * Sends the args to the daemon.  If whatever is at the info file's port doesn't answer like a daemon
+	 * (e.g. the info file is stale, and the port now belongs to another process), the info file is deleted
+	 * and the daemon is treated as unavailable, so that a new one is started.
+	 */
+	private JarFolderDaemon.Result requestOrUnavailable(File infoFile, List<String> args, OutputStream destination) throws Exception {
+		try {
+			return JarFolderDaemon.request(infoFile, args, destination);
+		} catch (IOException e) {
+			warn("p2 daemon didn't respond properly, restarting it: " + e.getMessage());
+			FileMisc.forceDelete(infoFile);
+			return JarFolderDaemon.Result.UNAVAILABLE;
+		}
+	}
+
+	static final String DAEMON_DIR = "daemon";
+	private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+	/** Launches a daemon unless one is already listening, and waits until it is ready. */
+	private void startIfNecessary(File infoFile, List<File> classpath) throws Exception {
+		// parallel builds in this JVM should share a single daemon
+		synchronized (JarFolderRunnerDaemon.class) {
+			if (JarFolderDaemon.isListening(infoFile)) {
+				return;
+			}
+			FileMisc.forceDelete(infoFile);
+			FileMisc.mkdirs(infoFile.getParentFile());
+			File log = new File(infoFile.getParentFile(), Files.getNameWithoutExtension(infoFile.getName()) + ".log");
+
+			List<String> command = new ArrayList<>();
+			command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+			if (vmArgs != null) {
+				command.addAll(vmArgs);
+			}
+			command.add("-cp");
+			command.add(Joiner.on(File.pathSeparator).join(classpath));
+			command.add(JarFolderRunnerDaemon.class.getName());
+			command.add(rootDirectory.getAbsolutePath());
+			command.add(infoFile.getAbsolutePath());
+			command.add(Long.toString(idleTimeout.toMillis()));
+			command.add(Boolean.toString(ConfigurationArea.isEnabled(project)));
+			Process process = new ProcessBuilder(command)
+					.redirectErrorStream(true)
+					.redirectOutput(log)
+					.start();
+
+			long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+			while (!infoFile.exists()) {
+				if (!process.isAlive()) {
+					throw new IllegalStateException("p2 daemon exited with " + process.exitValue() + ", see " + log);
+				} else if (System.currentTimeMillis() > deadline) {
+					process.destroy();
+					throw new IllegalStateException("p2 daemon didn't start in time, see " + log);
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	/** A daemon is only shared by clients with the same JVM, classpath, vmArgs, and configuration area mode. */
+	private String key(List<File> classpath) throws Exception {
+		StringBuilder identity = new StringBuilder();
+		identity.append(System.getProperty("java.home")).append('\n');
+		identity.append(classpath).append('\n');
+		identity.append(vmArgs);
+		if (ConfigurationArea.isEnabled(project)) {
+			identity.append('\n').append(ConfigurationArea.PROPERTY);
+		}
+		return Digests.of(identity.toString().getBytes(StandardCharsets.UTF_8)).sha256.substring(0, 16);
+	}
+
+	private void warn(String message) {
+		if (project != null) {
+			project.getLogger().warn(message);
+		} else {
+			System.err.println(message);
+		}
+	}
+
+	/** Main for the daemon: `<rootDirectory> <infoFile> <idleTimeoutMillis> <warmConfiguration>`. */
+	public static void main(String[] args) throws Exception {
+		JarFolderDaemon.main(args);
+	}
+}
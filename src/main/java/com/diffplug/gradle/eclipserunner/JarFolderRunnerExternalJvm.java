@@ -16,24 +16,28 @@
 package com.diffplug.gradle.eclipserunner;
 
 import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 import javax.annotation.Nullable;
 
 import org.gradle.api.Project;
-import org.gradle.api.file.FileCollection;
-import org.gradle.process.JavaExecSpec;
-
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import com.diffplug.common.base.Errors;
-import com.diffplug.common.collect.ImmutableList;
+import com.diffplug.gradle.AppCds;
+import com.diffplug.gradle.JavaExecWorkers;
 import com.diffplug.gradle.JavaExecable;
 
 /**
  * Runs an `EclipseApp` in a new JVM using a folder containing
  * a `plugins` folder with the necessary jars.
+ *
+ * If the project sets `goomph_appCds=true`, the JVM uses a
+ * class-data-sharing archive for the installation (see {@link AppCds}).
+ * If it sets `goomph_warmConfiguration=true`, the framework reuses a warm
+ * configuration area (see {@link EquinoxLauncher#setWarmConfiguration(boolean)}).
  */
 public class JarFolderRunnerExternalJvm implements EclipseRunner {
 	final File rootDirectory;
@@ -43,6 +47,8 @@ public class JarFolderRunnerExternalJvm implements EclipseRunner {
 	final Project project;
 	@Nullable
 	List<String> vmArgs;
+	@Nullable
+	OutputStream output;
 
 	/**
 	 * If you have a gradle {@link Project} object handy, use
@@ -58,7 +64,7 @@ public class JarFolderRunnerExternalJvm implements EclipseRunner {
 
 	/**
 	 * @param rootDirectory a directory which contains a `plugins` folder containing the OSGi jars needed to run applications.
-	 * @param project used to calculate the classpath of the newly launched JVM
+	 * @param project used to launch the new JVM
 	 */
 	public JarFolderRunnerExternalJvm(File rootDirectory, @Nullable Project project) {
 		this(rootDirectory, null, project);
@@ -66,7 +72,7 @@ public class JarFolderRunnerExternalJvm implements EclipseRunner {
 
 	/**
 	 * @param rootDirectory a directory which contains a `plugins` folder containing the OSGi jars needed to run applications.
-	 * @param project used to calculate the classpath of the newly launched JVM
+	 * @param project used to launch the new JVM
 	 */
 	public JarFolderRunnerExternalJvm(File rootDirectory, @Nullable File workingDirectory, @Nullable Project project) {
 		this.rootDirectory = Objects.requireNonNull(rootDirectory);
@@ -78,55 +84,87 @@ public class JarFolderRunnerExternalJvm implements EclipseRunner {
 		this.vmArgs = vmArgs;
 	}
 
+	/** Redirects stdout and stderr of the launched JVM to the given stream, rather than the console. */
+	public void setOutput(@Nullable OutputStream output) {
+		this.output = output;
+	}
+
 	@Override
 	public void run(List<String> args) throws Exception {
-		RunOutside outside = new RunOutside(rootDirectory, args);
-		Errors.constrainTo(Exception.class).run(() -> {
-			if (project == null) {
-				JavaExecable.execWithoutGradle(outside, this::modifyClassPath);
-			} else {
-				JavaExecable.exec(project, outside, this::modifyClassPath);
+		RunReport report = RunReport.of(args, RUNNER);
+		RunOutside outside = new RunOutside(rootDirectory, args, ConfigurationArea.isEnabled(project));
+		AppCds appCds = AppCds.isEnabled(project) ? AppCds.forLaunch(rootDirectory.getAbsolutePath(), LauncherClasspath.get()) : null;
+		JavaExecWorkers.Spec spec = spec(appCds);
+		boolean succeeded = false;
+		try {
+			RunOutside result = Errors.constrainTo(Exception.class).get(() -> {
+				if (project == null) {
+					return JavaExecable.execWithoutGradle(outside, spec::applyTo);
+				} else {
+					return JavaExecWorkers.exec(project, outside, spec);
+				}
+			});
+			long end = System.currentTimeMillis();
+			// both JVMs are on the same machine, so their clocks agree
+			report.addPhase(RunReport.FORK, result.startMillis - report.startMillis);
+			report.mergeFrom(result.report);
+			report.addPhase(RunReport.EXIT, end - result.endMillis);
+			succeeded = true;
+		} finally {
+			if (appCds != null) {
+				appCds.finish();
 			}
-		});
+			report.finish(succeeded);
+			RunReports.record(project, report);
+		}
 	}
 
-	@SuppressFBWarnings(value = "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT", justification = "FindBugs thinks that setClasspath() doesn't have a side effect, but it actually does.")
-	private void modifyClassPath(JavaExecSpec execSpec) {
-		if (workingDirectory != null) {
-			execSpec.setWorkingDir(workingDirectory);
-		}
-		FileCollection classpath = execSpec.getClasspath();
-		execSpec.setClasspath(classpath.filter(file -> {
-			String name = file.getName();
-			if (name.startsWith("org.eclipse") && !name.startsWith("org.eclipse.osgi")) {
-				return false;
-			} else {
-				return true;
-			}
-		}));
+	static final String RUNNER = "externalJvm";
+
+	/** The launched JVM only needs the minimal launcher classpath, since the eclipse jars are loaded from the plugins folder. */
+	private JavaExecWorkers.Spec spec(@Nullable AppCds appCds) {
+		List<String> jvmArgs = new ArrayList<>();
 		if (vmArgs != null) {
-			execSpec.jvmArgs(vmArgs);
+			jvmArgs.addAll(vmArgs);
 		}
+		if (appCds != null) {
+			jvmArgs.addAll(appCds.jvmArgs());
+		}
+		return new JavaExecWorkers.Spec()
+				.setWorkingDir(workingDirectory)
+				.setClasspath(LauncherClasspath.get())
+				.setJvmArgs(jvmArgs)
+				// a training run dumps its archive when it exits, so it can't be a long-lived worker
+				.setReusable(appCds == null || !appCds.isTraining())
+				.setOutput(output);
 	}
 
-	/** Jars on the classpath that should be used in the launcher. */
-	static final ImmutableList<String> classpathToKeep = ImmutableList.of("goomph", "durian-", "commons-io", "org.eclipse.osgi", "biz.aQute.bndlib");
-
 	/** Helper class for running outside this JVM. */
 	@SuppressWarnings("serial")
 	private static class RunOutside implements JavaExecable {
 		final File rootFolder;
 		final List<String> args;
+		final boolean warmConfiguration;
+		long startMillis, endMillis;
+		RunReport report;
 
-		public RunOutside(File rootFolder, List<String> args) {
+		public RunOutside(File rootFolder, List<String> args, boolean warmConfiguration) {
 			this.rootFolder = rootFolder;
 			this.args = args;
+			this.warmConfiguration = warmConfiguration;
 		}
 
 		@Override
 		public void run() throws Throwable {
-			JarFolderRunner launcher = new JarFolderRunner(rootFolder);
-			launcher.run(args);
+			startMillis = System.currentTimeMillis();
+			report = RunReport.of(args, RUNNER);
+			try {
+				JarFolderRunner launcher = new JarFolderRunner(rootFolder);
+				launcher.setWarmConfiguration(warmConfiguration);
+				launcher.run(args, report, true);
+			} finally {
+				endMillis = System.currentTimeMillis();
+			}
 		}
 	}
 }
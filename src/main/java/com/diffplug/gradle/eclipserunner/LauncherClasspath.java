@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.core.runtime.adaptor.EclipseStarter;
+import org.gradle.api.Project;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.collect.ImmutableList;
+import com.diffplug.common.io.Files;
+import com.diffplug.common.swt.os.OS;
+import com.diffplug.common.tree.TreeDef;
+
+/**
+ * The minimal classpath of a JVM which runs {@link JarFolderRunner},
+ * which is all that {@link JarFolderRunnerExternalJvm} and
+ * {@link JarFolderRunnerDaemon} need, rather than the whole
+ * buildscript classpath.
+ *
+ * It is the jar (or folder) of each of a few root classes, so it works
+ * no matter what the jars are called, and it is only computed once for
+ * each classloader which loads goomph, which means once per build or less.
+ */
+class LauncherClasspath {
+	private LauncherClasspath() {}
+
+	/** Goomph, equinox, and the few libraries they use. */
+	private static final ImmutableList<Class<?>> ROOTS = ImmutableList.of(
+			JarFolderRunner.class, // goomph
+			EclipseStarter.class, // org.eclipse.osgi
+			Errors.class, // durian-core
+			TreeDef.class, // durian-collect
+			Files.class, // durian-io
+			OS.class, // durian-swt.os
+			FileUtils.class, // commons-io
+			Project.class); // gradle api, which appears in the signatures of goomph's utilities
+
+	private static List<File> classpath;
+
+	/** Returns the classpath, computing it the first time. */
+	static synchronized List<File> get() {
+		if (classpath == null) {
+			Set<File> files = new LinkedHashSet<>();
+			for (Class<?> clazz : ROOTS) {
+				files.add(Errors.rethrow().get(() -> new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI())));
+			}
+			classpath = Collections.unmodifiableList(new ArrayList<>(files));
+		}
+		return classpath;
+	}
+}
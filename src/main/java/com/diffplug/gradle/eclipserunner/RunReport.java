@@ -0,0 +1,277 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.diffplug.common.base.Throwing;
+
+/**
+ * Where the time went when an {@link EclipseApp} was run: how long
+ * each phase took, how many bytes were read and written, and how much
+ * memory was needed.
+ *
+ * The phases are, in order:
+ *
+ * - `fork`: launching a new JVM and handing it the app, only for {@link JarFolderRunnerExternalJvm}.
+ * - `boot`: starting the OSGi framework.
+ * - `application`: running the application itself, e.g. everything that p2 director does.
+ * - `shutdown`: stopping the OSGi framework.
+ * - `exit`: handing the result back and waiting for the JVM to exit, only for {@link JarFolderRunnerExternalJvm}.
+ *
+ * Bytes are everything the JVM read and wrote, including sockets and files, and are only
+ * available on Linux.  Peak heap and RSS are only recorded for a forked JVM, since an app which
+ * runs within gradle shares its process with everything else.
+ *
+ * Every report which is made during a build is written to {@link RunReports a per-build JSON file}.
+ */
+public class RunReport implements Serializable {
+	private static final long serialVersionUID = -2387629876547512307L;
+
+	public static final String FORK = "fork";
+	public static final String BOOT = "boot";
+	public static final String APPLICATION = "application";
+	public static final String SHUTDOWN = "shutdown";
+	public static final String EXIT = "exit";
+
+	final String application;
+	final String runner;
+	final long startMillis = System.currentTimeMillis();
+	long totalMillis = -1;
+	boolean succeeded = false;
+	final LinkedHashMap<String, Long> phaseMillis = new LinkedHashMap<>();
+	long bytesRead = UNKNOWN;
+	long bytesWritten = UNKNOWN;
+	long peakHeapBytes = UNKNOWN;
+	long peakRssBytes = UNKNOWN;
+
+	static final long UNKNOWN = -1;
+
+	RunReport(String application, String runner) {
+		this.application = Objects.requireNonNull(application);
+		this.runner = Objects.requireNonNull(runner);
+	}
+
+	/** Creates a report for the app with the given args, run by the given kind of runner. */
+	static RunReport of(List<String> args, String runner) {
+		int idx = args.indexOf("-application");
+		return new RunReport(idx >= 0 && idx + 1 < args.size() ? args.get(idx + 1) : "unknown", runner);
+	}
+
+	/** The value of the `-application` arg. */
+	public String application() {
+		return application;
+	}
+
+	/** The milliseconds spent in each phase, in the order they happened. */
+	public Map<String, Long> phaseMillis() {
+		return new LinkedHashMap<>(phaseMillis);
+	}
+
+	/** Runs the given phase, adding its duration to the report. */
+	<E extends Throwable> void time(String phase, Throwing.Specific.Runnable<E> toRun) throws E {
+		long start = System.nanoTime();
+		try {
+			toRun.run();
+		} finally {
+			addPhase(phase, (System.nanoTime() - start) / NANOS_PER_MILLI);
+		}
+	}
+
+	void addPhase(String phase, long millis) {
+		phaseMillis.merge(phase, Math.max(0, millis), Long::sum);
+	}
+
+	/** Marks the run as finished, and sets its total wall time. */
+	void finish(boolean succeeded) {
+		this.succeeded = succeeded;
+		this.totalMillis = System.currentTimeMillis() - startMillis;
+	}
+
+	/** Copies what was measured in another JVM into this report. */
+	void mergeFrom(RunReport other) {
+		other.phaseMillis.forEach(this::addPhase);
+		bytesRead = other.bytesRead;
+		bytesWritten = other.bytesWritten;
+		peakHeapBytes = other.peakHeapBytes;
+		peakRssBytes = other.peakRssBytes;
+	}
+
+	private static final long NANOS_PER_MILLI = 1_000_000;
+
+	/////////////
+	// PROCESS //
+	/////////////
+	/** A snapshot of the current process's IO counters, so that they can be turned into a delta. */
+	static class ProcessSnapshot {
+		final long bytesRead;
+		final long bytesWritten;
+		final boolean forked;
+
+		private ProcessSnapshot(long bytesRead, long bytesWritten, boolean forked) {
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.forked = forked;
+		}
+
+		/**
+		 * Takes a snapshot.  If the JVM was forked for this run, it also resets the heap's
+		 * peak usage so that the report only sees what happened after it.  Otherwise the
+		 * heap belongs to gradle, and is left alone.
+		 */
+		static ProcessSnapshot take(boolean forked) {
+			if (forked) {
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+					if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+						pool.resetPeakUsage();
+					}
+				}
+			}
+			Map<String, Long> io = readProc("io");
+			return new ProcessSnapshot(io.getOrDefault("rchar", UNKNOWN), io.getOrDefault("wchar", UNKNOWN), forked);
+		}
+	}
+
+	/** Records the IO since the given snapshot, and the peak memory usage if the JVM was forked for this run. */
+	void recordProcess(ProcessSnapshot before) {
+		Map<String, Long> io = readProc("io");
+		if (before.bytesRead != UNKNOWN && io.containsKey("rchar")) {
+			bytesRead = io.get("rchar") - before.bytesRead;
+		}
+		if (before.bytesWritten != UNKNOWN && io.containsKey("wchar")) {
+			bytesWritten = io.get("wchar") - before.bytesWritten;
+		}
+		if (before.forked) {
+			long heap = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null) {
+					heap += pool.getPeakUsage().getUsed();
+				}
+			}
+			peakHeapBytes = heap;
+			// VmHWM is the high-water mark of the resident set, in kB
+			Long hwm = readProc("status").get("VmHWM");
+			peakRssBytes = hwm == null ? UNKNOWN : hwm * 1024;
+		}
+	}
+
+	/** Parses `/proc/self/<name>` into numeric `key: value` pairs, or returns an empty map if it isn't available. */
+	private static Map<String, Long> readProc(String name) {
+		Map<String, Long> values = new LinkedHashMap<>();
+		File file = new File("/proc/self/" + name);
+		if (!file.isFile()) {
+			return values;
+		}
+		try {
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				int colon = line.indexOf(':');
+				if (colon == -1) {
+					continue;
+				}
+				String value = line.substring(colon + 1).trim();
+				int space = value.indexOf(' ');
+				try {
+					values.put(line.substring(0, colon).trim(), Long.parseLong(space == -1 ? value : value.substring(0, space)));
+				} catch (NumberFormatException e) {
+					// not a number, and not something we're interested in
+				}
+			}
+		} catch (IOException e) {
+			// not available, so it'll just be reported as unknown
+		}
+		return values;
+	}
+
+	////////////
+	// FORMAT //
+	////////////
+	/** A one-line summary, e.g. `org.eclipse.equinox.p2.director 74.2s (fork 0.6s, boot 1.9s, application 71.4s, shutdown 0.3s), read 412.0MB, wrote 380.5MB, peak heap 310.2MB`. */
+	public String summary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(application).append(' ').append(seconds(totalMillis));
+		if (!phaseMillis.isEmpty()) {
+			builder.append(" (");
+			boolean first = true;
+			for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+				builder.append(first ? "" : ", ").append(phase.getKey()).append(' ').append(seconds(phase.getValue()));
+				first = false;
+			}
+			builder.append(')');
+		}
+		appendBytes(builder, "read", bytesRead);
+		appendBytes(builder, "wrote", bytesWritten);
+		appendBytes(builder, "peak heap", peakHeapBytes);
+		appendBytes(builder, "peak rss", peakRssBytes);
+		if (!succeeded) {
+			builder.append(" FAILED");
+		}
+		return builder.toString();
+	}
+
+	private static void appendBytes(StringBuilder builder, String label, long bytes) {
+		if (bytes != UNKNOWN) {
+			builder.append(", ").append(label).append(' ').append(String.format("%.1fMB", bytes / (1024.0 * 1024.0)));
+		}
+	}
+
+	static String seconds(long millis) {
+		return String.format("%.1fs", millis / 1000.0);
+	}
+
+	/** Writes this report as a JSON object. */
+	void appendJson(StringBuilder builder, String indent) {
+		builder.append(indent).append("{\n");
+		String inner = indent + "  ";
+		builder.append(inner).append("\"application\": ").append(RunReports.quote(application)).append(",\n");
+		builder.append(inner).append("\"runner\": ").append(RunReports.quote(runner)).append(",\n");
+		builder.append(inner).append("\"start\": ").append(RunReports.quote(Instant.ofEpochMilli(startMillis).toString())).append(",\n");
+		builder.append(inner).append("\"succeeded\": ").append(succeeded).append(",\n");
+		builder.append(inner).append("\"totalMillis\": ").append(totalMillis).append(",\n");
+		builder.append(inner).append("\"phaseMillis\": {");
+		boolean first = true;
+		for (Map.Entry<String, Long> phase : phaseMillis.entrySet()) {
+			builder.append(first ? "" : ", ").append(RunReports.quote(phase.getKey())).append(": ").append(phase.getValue());
+			first = false;
+		}
+		builder.append("},\n");
+		builder.append(inner).append("\"bytesRead\": ").append(orNull(bytesRead)).append(",\n");
+		builder.append(inner).append("\"bytesWritten\": ").append(orNull(bytesWritten)).append(",\n");
+		builder.append(inner).append("\"peakHeapBytes\": ").append(orNull(peakHeapBytes)).append(",\n");
+		builder.append(inner).append("\"peakRssBytes\": ").append(orNull(peakRssBytes)).append('\n');
+		builder.append(indent).append('}');
+	}
+
+	private static String orNull(long value) {
+		return value == UNKNOWN ? "null" : Long.toString(value);
+	}
+
+	@Override
+	public String toString() {
+		return summary();
+	}
+}
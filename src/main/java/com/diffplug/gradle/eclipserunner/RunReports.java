@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.util.GradleVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * Collects the {@link RunReport} of every eclipse app which runs
+ * during a build.  When the build finishes, they are written to
+ * `build/reports/goomph/eclipseApps.json` in the root project, and
+ * a one-line summary is logged.
+ *
+ * Every goomph plugin registers its build, so there's nothing to set up.
+ * Each build collects its own reports, so builds which share a daemon don't
+ * see each other's.  A report which can't be tied to a build (no build is
+ * registered, or several are and the runner doesn't know its project) is dropped.
+ */
+public class RunReports {
+	static final String REPORT = "reports/goomph/eclipseApps.json";
+
+	private static final Map<Gradle, List<RunReport>> builds = new WeakHashMap<>();
+
+	/** Starts collecting reports for the given project's build, if they aren't being collected already. */
+	public static void register(Project project) {
+		Gradle gradle = project.getGradle();
+		synchronized (RunReports.class) {
+			if (builds.putIfAbsent(gradle, new ArrayList<>()) != null) {
+				return;
+			}
+		}
+		Project root = project.getRootProject();
+		gradle.addBuildListener(new BuildAdapter() {
+			@Override
+			public void buildFinished(BuildResult result) {
+				List<RunReport> finished = finish(gradle);
+				if (finished.isEmpty()) {
+					return;
+				}
+				File file = new File(root.getBuildDir(), REPORT);
+				try {
+					FileMisc.mkdirs(file.getParentFile());
+					Files.write(file.toPath(), toJson(finished).getBytes(StandardCharsets.UTF_8));
+					root.getLogger().lifecycle(summary(finished) + ", see " + file);
+				} catch (IOException e) {
+					logger.warn("Unable to write " + file, e);
+				}
+			}
+		});
+	}
+
+	/** Stops collecting reports for the given build, and returns the ones it collected. */
+	static synchronized List<RunReport> finish(Gradle gradle) {
+		List<RunReport> finished = builds.remove(gradle);
+		return finished == null ? Collections.emptyList() : finished;
+	}
+
+	/** Adds a report to the only build which is running, if there is exactly one. */
+	static void record(RunReport report) {
+		record(null, report);
+	}
+
+	/** Adds a report to the given project's build, or to the only build which is running if the project is null. */
+	static void record(@Nullable Project project, RunReport report) {
+		synchronized (RunReports.class) {
+			List<RunReport> reports;
+			if (project != null) {
+				reports = builds.get(project.getGradle());
+			} else {
+				reports = builds.size() == 1 ? builds.values().iterator().next() : null;
+			}
+			if (reports == null) {
+				return;
+			}
+			reports.add(report);
+		}
+		logger.info(report.summary());
+	}
+
+	/** Returns e.g. `goomph ran 3 eclipse apps in 94.1s (1 failed), slowest was org.eclipse.equinox.p2.director 74.2s`. */
+	static String summary(List<RunReport> reports) {
+		long total = 0;
+		int failed = 0;
+		RunReport slowest = null;
+		for (RunReport report : reports) {
+			total += report.totalMillis;
+			failed += report.succeeded ? 0 : 1;
+			if (slowest == null || report.totalMillis > slowest.totalMillis) {
+				slowest = report;
+			}
+		}
+		StringBuilder builder = new StringBuilder();
+		builder.append("goomph ran ").append(reports.size()).append(reports.size() == 1 ? " eclipse app" : " eclipse apps");
+		builder.append(" in ").append(RunReport.seconds(total));
+		if (failed > 0) {
+			builder.append(" (").append(failed).append(" failed)");
+		}
+		if (slowest != null && reports.size() > 1) {
+			builder.append(", slowest was ").append(slowest.application).append(' ').append(RunReport.seconds(slowest.totalMillis));
+		}
+		return builder.toString();
+	}
+
+	/** Returns the given reports as a JSON document, along with the versions which are needed to compare them across builds. */
+	static String toJson(List<RunReport> reports) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\n");
+		builder.append("  \"goomphVersion\": ").append(quote(RunReports.class.getPackage().getImplementationVersion())).append(",\n");
+		builder.append("  \"gradleVersion\": ").append(quote(GradleVersion.current().getVersion())).append(",\n");
+		builder.append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+		builder.append("  \"runs\": [");
+		for (int i = 0; i < reports.size(); ++i) {
+			builder.append(i == 0 ? "\n" : ",\n");
+			reports.get(i).appendJson(builder, "    ");
+		}
+		builder.append(reports.isEmpty() ? "]\n" : "\n  ]\n");
+		builder.append("}\n");
+		return builder.toString();
+	}
+
+	/** Returns the given string as a JSON string literal, or `null`. */
+	static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder builder = new StringBuilder(value.length() + 2);
+		builder.append('"');
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\r':
+				builder.append("\\r");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+		}
+		builder.append('"');
+		return builder.toString();
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(RunReports.class);
+}
@@ -61,9 +61,12 @@ import com.diffplug.gradle.Lazyable;
 import com.diffplug.gradle.StateBuilder;
 import com.diffplug.gradle.eclipserunner.EclipseIni;
 import com.diffplug.gradle.oomph.thirdparty.ConventionThirdParty;
+import com.diffplug.gradle.p2.ArtifactPrefetcher;
+import com.diffplug.gradle.p2.BundlePool;
 import com.diffplug.gradle.p2.P2Declarative;
 import com.diffplug.gradle.p2.P2Model;
 import com.diffplug.gradle.p2.P2Model.DirectorApp;
+import com.diffplug.gradle.p2.P2RepoProxy;
 import com.diffplug.gradle.pde.EclipseRelease;
 import com.diffplug.gradle.pde.PdeInstallation;
 
@@ -361,6 +364,7 @@ public class OomphIdeExtension implements P2Declarative {
 	/** Creates or updates the installed plugins in this model. */
 	void ideSetupP2() throws Exception {
 		if (p2isClean()) {
+			BundlePool.shared().touchReference(getIdeDir());
 			return;
 		}
 		File ideDir = getIdeDir();
@@ -369,7 +373,8 @@ public class OomphIdeExtension implements P2Declarative {
 
 		P2Model p2cached = new P2Model();
 		p2cached.addArtifactRepoBundlePool();
-		p2cached.copyFrom(p2);
+		P2Model routed = P2RepoProxy.route(project, p2);
+		p2cached.copyFrom(routed);
 		DirectorApp app = p2cached.directorApp(ideDir, "OomphIde");
 		app.consolelog();
 		// share the install for quickness
@@ -379,8 +384,10 @@ public class OomphIdeExtension implements P2Declarative {
 		// make any other modifications we'd like to make
 		directorModifier.execute(app);
 
-		// create it
-		runP2Using.execute(app);
+		// download the bundles in parallel if the user has opted in
+		ArtifactPrefetcher.prefetchIfEnabled(project, routed);
+		// create it, and make sure that goomphCacheGc doesn't evict our bundles from the pool
+		BundlePool.shared().installReferenced(ideDir, new File(ideDir, STALE_TOKEN), () -> runP2Using.execute(app));
 		// write out the branding product
 		writeBrandingPlugin(ideDir);
 		// setup the eclipse.ini file
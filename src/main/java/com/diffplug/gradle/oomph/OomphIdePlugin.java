@@ -21,6 +21,7 @@ import org.gradle.api.Task;
 import com.diffplug.common.base.Errors;
 import com.diffplug.gradle.GoomphCacheLocations;
 import com.diffplug.gradle.ProjectPlugin;
+import com.diffplug.gradle.p2.BundlePoolGcTask;
 
 /**
  * Downloads and sets up an Eclipse IDE.  Each IDE created by
@@ -207,5 +208,7 @@ public class OomphIdePlugin extends ProjectPlugin {
 		ide.setDescription(IDE_CLEAN_DESC);
 		ideSetupP2.mustRunAfter(ideClean);
 		ideSetupWorkspace.mustRunAfter(ideClean);
+		// goomphCacheGc
+		BundlePoolGcTask.register(project);
 	}
 }
@@ -26,6 +26,7 @@ import java.util.Optional;
 import org.gradle.api.Project;
 
 import com.diffplug.common.base.Errors;
+import com.diffplug.gradle.CacheLock;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
 
@@ -80,15 +81,18 @@ public class WorkspaceRegistry {
 
 	WorkspaceRegistry(File root) throws IOException {
 		this.root = Objects.requireNonNull(root);
-		FileMisc.mkdirs(root);
-		for (File workspace : FileMisc.list(root)) {
-			if (workspace.isDirectory()) {
-				Optional<String> ownerPath = FileMisc.readToken(root, workspace.getName() + OWNER_PATH);
-				if (!ownerPath.isPresent()) {
-					// if there's no token, delete it
-					deleteWorkspace(workspace, "missing token " + OWNER_PATH + ".");
-				} else {
-					ownerToWorkspace.put(new File(ownerPath.get()), workspace);
+		// other builds may be creating or cleaning workspaces at the same time
+		try (CacheLock lock = CacheLock.exclusive(root)) {
+			FileMisc.mkdirs(root);
+			for (File workspace : FileMisc.list(root)) {
+				if (workspace.isDirectory()) {
+					Optional<String> ownerPath = FileMisc.readToken(root, workspace.getName() + OWNER_PATH);
+					if (!ownerPath.isPresent()) {
+						// if there's no token, delete it
+						deleteWorkspace(workspace, "missing token " + OWNER_PATH + ".");
+					} else {
+						ownerToWorkspace.put(new File(ownerPath.get()), workspace);
+					}
 				}
 			}
 		}
@@ -103,9 +107,11 @@ public class WorkspaceRegistry {
 	public File workspaceDir(String name, File ideDir) {
 		return ownerToWorkspace.computeIfAbsent(ideDir, owner -> {
 			File workspace = new File(root, name + "-" + owner.getAbsolutePath().hashCode());
-			FileMisc.mkdirs(workspace);
 			Errors.rethrow().run(() -> {
-				FileMisc.writeToken(root, workspace.getName() + OWNER_PATH, ideDir.getAbsolutePath());
+				try (CacheLock lock = CacheLock.exclusive(root)) {
+					FileMisc.mkdirs(workspace);
+					FileMisc.writeToken(root, workspace.getName() + OWNER_PATH, ideDir.getAbsolutePath());
+				}
 			});
 			return workspace;
 		});
@@ -113,16 +119,20 @@ public class WorkspaceRegistry {
 
 	/** Removes all workspace directories for which their owning workspace is no longer present. */
 	public void clean() {
-		Iterator<Map.Entry<File, File>> iter = ownerToWorkspace.entrySet().iterator();
-		while (iter.hasNext()) {
-			Map.Entry<File, File> entry = iter.next();
-			File ownerDir = entry.getKey();
-			File workspaceDir = entry.getValue();
-			if (!ownerDir.exists()) {
-				deleteWorkspace(workspaceDir, "owner " + ownerDir + " no longer exists.");
-				iter.remove();
+		Errors.rethrow().run(() -> {
+			try (CacheLock lock = CacheLock.exclusive(root)) {
+				Iterator<Map.Entry<File, File>> iter = ownerToWorkspace.entrySet().iterator();
+				while (iter.hasNext()) {
+					Map.Entry<File, File> entry = iter.next();
+					File ownerDir = entry.getKey();
+					File workspaceDir = entry.getValue();
+					if (!ownerDir.exists()) {
+						deleteWorkspace(workspaceDir, "owner " + ownerDir + " no longer exists.");
+						iter.remove();
+					}
+				}
 			}
-		}
+		});
 	}
 
 	/** Tries to delete folder.  If it fails, it prints a warning but keeps going.  No reason to break a build over spilled diskspace. */
@@ -70,9 +70,9 @@ class OsgiExecImp {
 		throw new IllegalArgumentException("Unable to find goomph jar");
 	}
 
-	public static <T extends OsgiExecable> void execInternal(File tempFile) throws Throwable {
-		T object = SerializableMisc.read(tempFile);
+	public static <T extends OsgiExecable> byte[] execInternal(byte[] input) throws Throwable {
+		T object = SerializableMisc.fromBytes(input);
 		object.run();
-		SerializableMisc.write(tempFile, object);
+		return SerializableMisc.toBytes(object);
 	}
 }
@@ -15,7 +15,6 @@
  */
 package com.diffplug.gradle.osgi;
 
-import java.io.File;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -26,7 +25,6 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
 
-import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.JavaExecable;
 import com.diffplug.gradle.SerializableMisc;
 
@@ -77,19 +75,12 @@ public interface OsgiExecable extends Serializable, Runnable {
 		Bundle bundle = OsgiExecImp.loadBundle(context);
 		bundle.start();
 		Class<?> clazz = bundle.loadClass(OsgiExecImp.class.getName());
-		Method execInternal = clazz.getMethod("execInternal", File.class);
-		// write the input to a tempfile
-		File tempFile = File.createTempFile("OsgiExec", ".temp");
-		try {
-			SerializableMisc.write(tempFile, input);
-			// call it within the OSGi runtime
-			execInternal.setAccessible(true);
-			execInternal.invoke(null, tempFile);
-			// get the result, and return it
-			return SerializableMisc.read(tempFile);
-		} finally {
-			FileMisc.forceDelete(tempFile);
-		}
+		Method execInternal = clazz.getMethod("execInternal", byte[].class);
+		// call it within the OSGi runtime, handing the input and output across as bytes
+		execInternal.setAccessible(true);
+		byte[] output = (byte[]) execInternal.invoke(null, (Object) SerializableMisc.toBytes(input));
+		// get the result, and return it
+		return SerializableMisc.fromBytes(output);
 	}
 
 	/**
@@ -0,0 +1,595 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.gradle.api.Project;
+import org.osgi.framework.Version;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.collect.Iterables;
+import com.diffplug.common.io.ByteStreams;
+import com.diffplug.gradle.CacheLock;
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.p2.BundlePool.Artifact;
+
+/**
+ * Downloads the artifacts of a {@link P2Model} into a {@link BundlePool}
+ * before p2 runs, using several connections at once.  p2 fetches artifacts
+ * one after the other, so by the time it runs, it finds them already pooled.
+ *
+ * - The artifacts are those of the model's IUs, and of everything they include with a strict `[v,v]` requirement, which is how features include their bundles.  Anything which needs a real resolution (version ranges, optional or filtered requirements) is left to p2.
+ * - Only plain bundles are prefetched.  Features, bundles which p2 unzips, and artifacts which are only available packed are left to p2.
+ * - At most {@link #setConnections(int)} downloads run at once, and at most {@link #setConnectionsPerHost(int)} against any single host.
+ * - Partial downloads are kept in the pool's `.prefetch` folder, and resumed with a `Range` request the next time around.
+ * - Downloads are checked against the size and checksums in the repository's metadata before they are added to the pool.
+ *
+ * It is enabled for `p2AsMaven` and `oomphIde` by setting the project property `goomph_p2prefetch`
+ * to `true`, or to the number of connections.  It never runs when gradle is `--offline`.
+ */
+public class ArtifactPrefetcher {
+	static final String PROPERTY = "goomph_p2prefetch";
+
+	/**
+	 * Prefetches the artifacts of the given model into {@link BundlePool#shared()} if the project has opted in.
+	 * The model should already be routed by {@link P2RepoProxy#route(Project, P2Model)}, so that the metadata
+	 * comes from the same place p2 will use.  Failures are logged, since p2 will fetch whatever is missing anyway.
+	 */
+	public static void prefetchIfEnabled(Project project, P2Model model) {
+		Object property = project.findProperty(PROPERTY);
+		if (property == null || "false".equals(property.toString()) || project.getGradle().getStartParameter().isOffline()) {
+			return;
+		}
+		ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(BundlePool.shared());
+		if (!"true".equals(property.toString())) {
+			int connections;
+			try {
+				connections = Integer.parseInt(property.toString().trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(PROPERTY + " must be 'true', 'false', or a number of connections, but was '" + property + "'", e);
+			}
+			prefetcher.setConnections(connections);
+		}
+		try {
+			List<Artifact> prefetched = prefetcher.prefetch(model);
+			if (!prefetched.isEmpty()) {
+				project.getLogger().lifecycle("Prefetched " + prefetched.size() + " artifacts into the bundle pool");
+			}
+		} catch (Exception e) {
+			project.getLogger().warn("Unable to prefetch p2 artifacts, p2 will fetch them itself", e);
+		}
+	}
+
+	final BundlePool pool;
+	private int connections = 8;
+	private int connectionsPerHost = 4;
+
+	public ArtifactPrefetcher(BundlePool pool) {
+		this.pool = Objects.requireNonNull(pool);
+	}
+
+	/** Sets the maximum number of downloads which run at once.  Defaults to 8. */
+	public void setConnections(int connections) {
+		if (connections < 1) {
+			throw new IllegalArgumentException("Must have at least one connection, was " + connections);
+		}
+		this.connections = connections;
+	}
+
+	/** Sets the maximum number of downloads which run at once against any single host.  Defaults to 4. */
+	public void setConnectionsPerHost(int connectionsPerHost) {
+		if (connectionsPerHost < 1) {
+			throw new IllegalArgumentException("Must have at least one connection per host, was " + connectionsPerHost);
+		}
+		this.connectionsPerHost = connectionsPerHost;
+	}
+
+	/** Downloads whatever artifacts of the given model aren't in the pool yet, and returns the ones which were added. */
+	public List<Artifact> prefetch(P2Model model) throws IOException {
+		pool.createIfNecessary();
+		// the pool's index can tell that pinned IUs are already pooled without fetching any metadata
+		if (model.isSatisfiedBy(pool)) {
+			return Collections.emptyList();
+		}
+		Map<String, TreeMap<Version, Unit>> units = new HashMap<>();
+		Set<String> visited = new HashSet<>();
+		for (String repo : Iterables.concat(model.getRepos(), model.getMetadataRepos())) {
+			loadContent(repo, units, visited);
+		}
+		Set<Artifact> missing = pool.missing(artifactsOf(units, model.getIUs()));
+		if (missing.isEmpty()) {
+			return Collections.emptyList();
+		}
+		Map<Artifact, Source> sources = new HashMap<>();
+		visited.clear();
+		for (String repo : Iterables.concat(model.getRepos(), model.getArtifactRepos())) {
+			loadArtifacts(repo, sources, visited);
+		}
+		List<Source> toFetch = new ArrayList<>();
+		for (Artifact artifact : missing) {
+			Source source = sources.get(artifact);
+			if (source != null) {
+				toFetch.add(source);
+			}
+		}
+		return install(download(toFetch));
+	}
+
+	/////////////
+	// CONTENT //
+	/////////////
+	/** An installable unit, and what we need to know about it. */
+	static class Unit {
+		final String id;
+		final Version version;
+		final List<String> includes = new ArrayList<>();
+		final List<Artifact> artifacts = new ArrayList<>();
+		boolean zipped = false;
+
+		Unit(String id, Version version) {
+			this.id = id;
+			this.version = version;
+		}
+
+		static Unit parse(Element element) {
+			Unit unit = new Unit(element.getAttribute("id"), Version.parseVersion(element.getAttribute("version")));
+			for (Element requires : children(element, "requires")) {
+				for (Element required : children(requires, "required")) {
+					Matcher matcher = STRICT.matcher(required.getAttribute("range"));
+					if (IU_NAMESPACE.equals(required.getAttribute("namespace"))
+							&& !"true".equals(required.getAttribute("optional"))
+							&& children(required, "filter").isEmpty()
+							&& matcher.matches() && matcher.group(1).equals(matcher.group(2))) {
+						unit.includes.add(required.getAttribute("name") + "/" + matcher.group(1));
+					}
+				}
+			}
+			for (Element artifacts : children(element, "artifacts")) {
+				for (Element artifact : children(artifacts, "artifact")) {
+					unit.artifacts.add(BundlePool.artifactOf(artifact));
+				}
+			}
+			for (Element touchpointData : children(element, "touchpointData")) {
+				for (Element instructions : children(touchpointData, "instructions")) {
+					for (Element instruction : children(instructions, "instruction")) {
+						if ("zipped".equals(instruction.getAttribute("key")) && "true".equals(instruction.getTextContent().trim())) {
+							unit.zipped = true;
+						}
+					}
+				}
+			}
+			return unit;
+		}
+	}
+
+	private static final String IU_NAMESPACE = "org.eclipse.equinox.p2.iu";
+	private static final Pattern STRICT = Pattern.compile("\\[\\s*([^,\\s]+)\\s*,\\s*([^\\]\\s]+)\\s*\\]");
+
+	/** Loads every unit of the given repository, following composites. */
+	private static void loadContent(String repo, Map<String, TreeMap<Version, Unit>> units, Set<String> visited) throws IOException {
+		String url = withSlash(repo);
+		if (!visited.add(url)) {
+			return;
+		}
+		Document composite = readMetadata(url, "compositeContent");
+		if (composite != null) {
+			for (String child : childLocations(composite)) {
+				loadContent(new URL(new URL(url), child).toString(), units, visited);
+			}
+			return;
+		}
+		Document content = readMetadata(url, "content");
+		if (content == null) {
+			// p2 will have something to say about it
+			return;
+		}
+		for (Element unitsNode : children(content.getDocumentElement(), "units")) {
+			for (Element element : children(unitsNode, "unit")) {
+				try {
+					Unit unit = Unit.parse(element);
+					units.computeIfAbsent(unit.id, id -> new TreeMap<>()).putIfAbsent(unit.version, unit);
+				} catch (IllegalArgumentException e) {
+					// p2 allows version formats which OSGi doesn't, we'll leave those to p2
+				}
+			}
+		}
+	}
+
+	/** Returns the bundle artifacts of the given IUs, and of everything they strictly include. */
+	static Set<Artifact> artifactsOf(Map<String, TreeMap<Version, Unit>> units, Set<String> ius) {
+		Deque<Unit> toVisit = new ArrayDeque<>();
+		for (String iu : ius) {
+			int slash = iu.indexOf('/');
+			TreeMap<Version, Unit> versions = units.get(slash == -1 ? iu : iu.substring(0, slash));
+			if (versions != null) {
+				Unit unit = slash == -1 ? versions.lastEntry().getValue() : find(versions, iu.substring(slash + 1));
+				if (unit != null) {
+					toVisit.add(unit);
+				}
+			}
+		}
+		Set<Unit> visited = new HashSet<>();
+		Set<Artifact> artifacts = new HashSet<>();
+		Unit unit;
+		while ((unit = toVisit.poll()) != null) {
+			if (!visited.add(unit)) {
+				continue;
+			}
+			if (!unit.zipped) {
+				for (Artifact artifact : unit.artifacts) {
+					if (artifact.classifier.equals(BUNDLE)) {
+						artifacts.add(artifact);
+					}
+				}
+			}
+			for (String include : unit.includes) {
+				int slash = include.indexOf('/');
+				TreeMap<Version, Unit> versions = units.get(include.substring(0, slash));
+				Unit included = versions == null ? null : find(versions, include.substring(slash + 1));
+				if (included != null) {
+					toVisit.add(included);
+				}
+			}
+		}
+		return artifacts;
+	}
+
+	@Nullable
+	private static Unit find(TreeMap<Version, Unit> versions, String version) {
+		try {
+			return versions.get(Version.parseVersion(version));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static final String BUNDLE = "osgi.bundle";
+
+	///////////////
+	// ARTIFACTS //
+	///////////////
+	/** Where to download an artifact, and what it should look like. */
+	static class Source {
+		final Artifact artifact;
+		final String url;
+		final Element element;
+		final Map<String, String> properties = new HashMap<>();
+
+		Source(Artifact artifact, String url, Element element) {
+			this.artifact = artifact;
+			this.url = url;
+			this.element = element;
+			for (Element propertiesNode : children(element, "properties")) {
+				for (Element property : children(propertiesNode, "property")) {
+					properties.put(property.getAttribute("name"), property.getAttribute("value"));
+				}
+			}
+		}
+
+		String fileName() {
+			return artifact.id + "_" + artifact.version + ".jar";
+		}
+	}
+
+	/** Finds the download location of every plain bundle in the given repository, following composites. */
+	private static void loadArtifacts(String repo, Map<Artifact, Source> sources, Set<String> visited) throws IOException {
+		String url = withSlash(repo);
+		if (!visited.add(url) || !(url.startsWith("http:") || url.startsWith("https:"))) {
+			// there's nothing to gain from prefetching a local repository
+			return;
+		}
+		Document composite = readMetadata(url, "compositeArtifacts");
+		if (composite != null) {
+			for (String child : childLocations(composite)) {
+				loadArtifacts(new URL(new URL(url), child).toString(), sources, visited);
+			}
+			return;
+		}
+		Document artifacts = readMetadata(url, "artifacts");
+		if (artifacts == null) {
+			return;
+		}
+		String output = null;
+		for (Element mappings : children(artifacts.getDocumentElement(), "mappings")) {
+			for (Element rule : children(mappings, "rule")) {
+				String filter = rule.getAttribute("filter");
+				if (output == null && filter.contains("(classifier=" + BUNDLE + ")") && !filter.contains("format=")) {
+					output = rule.getAttribute("output");
+				}
+			}
+		}
+		if (output == null) {
+			return;
+		}
+		String repoUrl = url.substring(0, url.length() - 1);
+		for (Element artifactsNode : children(artifacts.getDocumentElement(), "artifacts")) {
+			for (Element element : children(artifactsNode, "artifact")) {
+				Artifact artifact = BundlePool.artifactOf(element);
+				if (artifact.classifier.equals(BUNDLE) && children(element, "processing").isEmpty()) {
+					Source source = new Source(artifact, output.replace("${repoUrl}", repoUrl).replace("${id}", artifact.id).replace("${version}", artifact.version), element);
+					if (source.properties.get("format") == null) {
+						sources.putIfAbsent(artifact, source);
+					}
+				}
+			}
+		}
+	}
+
+	/////////////////
+	// DOWNLOADING //
+	/////////////////
+	/** Downloads the given artifacts into the `.prefetch` folder, and returns the ones which succeeded. */
+	private List<Source> download(List<Source> toFetch) throws IOException {
+		if (toFetch.isEmpty()) {
+			return Collections.emptyList();
+		}
+		FileMisc.mkdirs(prefetchDir());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, toFetch.size()), runnable -> {
+			Thread thread = new Thread(runnable, "goomph-p2-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			Map<String, Semaphore> hosts = new HashMap<>();
+			List<Future<Source>> futures = new ArrayList<>(toFetch.size());
+			for (Source source : toFetch) {
+				Semaphore host = hosts.computeIfAbsent(new URL(source.url).getHost(), unused -> new Semaphore(connectionsPerHost));
+				futures.add(executor.submit(() -> {
+					host.acquire();
+					try {
+						download(source);
+						return source;
+					} finally {
+						host.release();
+					}
+				}));
+			}
+			List<Source> downloaded = new ArrayList<>(toFetch.size());
+			for (Future<Source> future : futures) {
+				try {
+					downloaded.add(future.get());
+				} catch (ExecutionException e) {
+					logger.warn("Unable to prefetch an artifact, p2 will fetch it itself", e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw Errors.asRuntime(e);
+				}
+			}
+			return downloaded;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** The folder where downloads are kept until they are complete and verified. */
+	File prefetchDir() {
+		return new File(pool.getRoot(), PREFETCH);
+	}
+
+	static final String PREFETCH = ".prefetch";
+	private static final String PART = ".part";
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_PARTIAL = 206;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	/** Downloads the given artifact into the prefetch folder, resuming a partial download if there is one. */
+	private void download(Source source) throws IOException {
+		File done = new File(prefetchDir(), source.fileName());
+		File part = new File(prefetchDir(), source.fileName() + PART);
+		// another build might be fetching the same artifact
+		try (CacheLock lock = CacheLock.exclusive(part)) {
+			if (done.isFile()) {
+				return;
+			}
+			long offset = part.isFile() ? part.length() : 0;
+			HttpURLConnection connection = P2RepoProxy.open(source.url, request -> {
+				if (offset > 0) {
+					request.setRequestProperty("Range", "bytes=" + offset + "-");
+				}
+			});
+			try {
+				int code = connection.getResponseCode();
+				if (code == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+					// the partial download is already complete, or it's garbage, either way verify will tell
+				} else if (code == HTTP_OK || code == HTTP_PARTIAL) {
+					try (InputStream input = connection.getInputStream();
+							OutputStream output = new FileOutputStream(part, code == HTTP_PARTIAL)) {
+						ByteStreams.copy(input, output);
+					}
+				} else {
+					throw new IOException("HTTP " + code + " for " + source.url);
+				}
+			} finally {
+				connection.disconnect();
+			}
+			verify(source, part);
+			Files.move(part.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/** Throws an exception, and deletes the download, if it doesn't match the repository's metadata. */
+	private static void verify(Source source, File part) throws IOException {
+		String size = source.properties.get("download.size");
+		String sha256 = source.properties.get("download.checksum.sha-256");
+		String md5 = source.properties.getOrDefault("download.checksum.md5", source.properties.get("download.md5"));
+		String problem = null;
+		if (size != null && Long.parseLong(size) != part.length()) {
+			problem = "was " + part.length() + " bytes, expected " + size;
+		} else if (sha256 != null || md5 != null) {
+			Digests digests = Digests.copy(part, null);
+			if (sha256 != null && !sha256.equalsIgnoreCase(digests.sha256)) {
+				problem = "has sha-256 " + digests.sha256 + ", expected " + sha256;
+			} else if (sha256 == null && !md5.equalsIgnoreCase(digests.md5)) {
+				problem = "has md5 " + digests.md5 + ", expected " + md5;
+			}
+		}
+		if (problem != null) {
+			FileMisc.forceDelete(part);
+			throw new IOException(source.url + " " + problem);
+		}
+	}
+
+	/** Moves the downloaded artifacts into the pool, and adds them to its metadata. */
+	private List<Artifact> install(List<Source> downloaded) throws IOException {
+		if (downloaded.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Artifact> installed = new ArrayList<>(downloaded.size());
+		List<Element> elements = new ArrayList<>(downloaded.size());
+		try (CacheLock lock = CacheLock.exclusive(pool.getRoot())) {
+			File plugins = new File(pool.getRoot(), "plugins");
+			FileMisc.mkdirs(plugins);
+			for (Source source : downloaded) {
+				File done = new File(prefetchDir(), source.fileName());
+				File dst = new File(plugins, source.fileName());
+				if (dst.exists()) {
+					FileMisc.forceDelete(done);
+				} else {
+					Files.move(done.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				}
+				installed.add(source.artifact);
+				elements.add(source.element);
+			}
+			pool.addToMetadata(elements);
+		}
+		return installed;
+	}
+
+	/////////////
+	// PARSING //
+	/////////////
+	private static String withSlash(String repo) {
+		return repo.endsWith("/") ? repo : repo + "/";
+	}
+
+	/** Reads `<name>.jar` or else `<name>.xml` from the given repository, or returns null if neither exists. */
+	@Nullable
+	private static Document readMetadata(String repo, String name) throws IOException {
+		byte[] jar = read(repo + name + ".jar");
+		byte[] xml = null;
+		if (jar != null) {
+			try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(jar))) {
+				ZipEntry entry;
+				while ((entry = zip.getNextEntry()) != null) {
+					if (entry.getName().endsWith(".xml")) {
+						xml = ByteStreams.toByteArray(zip);
+						break;
+					}
+				}
+			}
+		}
+		if (xml == null) {
+			xml = read(repo + name + ".xml");
+		}
+		if (xml == null) {
+			return null;
+		}
+		byte[] toParse = xml;
+		return Errors.rethrow().get(() -> DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(toParse)));
+	}
+
+	/** Returns the content of the given url, or null if it doesn't exist. */
+	@Nullable
+	private static byte[] read(String url) throws IOException {
+		if (url.startsWith("http:") || url.startsWith("https:")) {
+			HttpURLConnection connection = P2RepoProxy.open(url, request -> {});
+			try {
+				int code = connection.getResponseCode();
+				if (code != HTTP_OK) {
+					return null;
+				}
+				try (InputStream input = connection.getInputStream()) {
+					return ByteStreams.toByteArray(input);
+				}
+			} finally {
+				connection.disconnect();
+			}
+		} else {
+			try {
+				URLConnection connection = new URL(url).openConnection();
+				try (InputStream input = connection.getInputStream()) {
+					return ByteStreams.toByteArray(input);
+				}
+			} catch (FileNotFoundException e) {
+				return null;
+			}
+		}
+	}
+
+	private static List<String> childLocations(Document composite) {
+		List<String> locations = new ArrayList<>();
+		for (Element childrenNode : children(composite.getDocumentElement(), "children")) {
+			for (Element child : children(childrenNode, "child")) {
+				locations.add(child.getAttribute("location"));
+			}
+		}
+		return locations;
+	}
+
+	/** Returns the direct children of the given element with the given name. */
+	private static List<Element> children(Element parent, String name) {
+		List<Element> children = new ArrayList<>();
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && ((Element) node).getTagName().equals(name)) {
+				children.add((Element) node);
+			}
+		}
+		return children;
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(ArtifactPrefetcher.class);
+}
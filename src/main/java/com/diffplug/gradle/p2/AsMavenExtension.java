@@ -16,25 +16,39 @@
 package com.diffplug.gradle.p2;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 
 import com.diffplug.common.base.Errors;
+import com.diffplug.common.base.Preconditions;
 import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GoomphCacheLocations;
 
 /** DSL for {@link AsMavenPlugin}. */
 public class AsMavenExtension {
 	public static final String NAME = "p2AsMaven";
+	public static final String TASK = "p2AsMavenMirror";
 
 	private final Project project;
 
 	Object destination;
 	final LinkedHashMap<String, Action<AsMavenGroup>> groups = new LinkedHashMap<>();
+	int parallelism = 1;
+	long sharedCacheMaxMb = -1;
 
 	public AsMavenExtension(Project project) {
 		this.project = Objects.requireNonNull(project);
@@ -54,23 +68,149 @@ public class AsMavenExtension {
 		}
 	}
 
+	/**
+	 * Sets the maximum number of groups which will be populated at the same time, defaults to 1.
+	 *
+	 * Each group runs p2 in its own JVM, so groups which download from slow
+	 * update sites can overlap.  While groups are running in parallel, the
+	 * console output of p2 is buffered and logged with the group as a prefix.
+	 *
+	 * The groups mirror out of the shared bundle pool while holding a shared
+	 * {@link com.diffplug.gradle.CacheLock} on it, so they don't wait for each other, only
+	 * for builds which are installing into the pool or shrinking it (see {@link BundlePool}).
+	 */
+	public void parallelism(int parallelism) {
+		Preconditions.checkArgument(parallelism >= 1, "parallelism must be at least 1, was %s", parallelism);
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Shares finished groups between every checkout on this machine, using a cache
+	 * in {@link GoomphCacheLocations#p2AsMaven()} which is capped at 8GB.
+	 *
+	 * @see #sharedCache(long)
+	 */
+	public void sharedCache() {
+		sharedCache(DEFAULT_SHARED_CACHE_MB);
+	}
+
+	private static final long DEFAULT_SHARED_CACHE_MB = 8 * 1024;
+
+	/**
+	 * Shares finished groups between every checkout on this machine, using a cache
+	 * in {@link GoomphCacheLocations#p2AsMaven()} which is capped at the given size.
+	 *
+	 * When a group is dirty, but some other checkout has already built a group with
+	 * identical inputs, its files are hard-linked into this build rather than running p2.
+	 * Once the cache is bigger than the cap, the least-recently-used groups are evicted.
+	 */
+	public void sharedCache(long maxSizeMb) {
+		Preconditions.checkArgument(maxSizeMb > 0, "maxSizeMb must be positive, was %s", maxSizeMb);
+		this.sharedCacheMaxMb = maxSizeMb;
+	}
+
+	/** The populated groups, which are only created once they're needed. */
+	private List<AsMavenGroup> defs;
+	/** True once the groups have been populated in this build, or have failed to. */
+	private boolean hasRun = false;
+	/** The failure of the one attempt in this build, if it failed. */
+	@Nullable
+	private RuntimeException failure;
+
+	/** Populates the defs on the first call, on the calling thread, since the user's actions aren't necessarily threadsafe. */
+	private synchronized List<AsMavenGroup> defs() {
+		if (defs == null) {
+			defs = new ArrayList<>(groups.size());
+			groups.forEach((group, action) -> {
+				AsMavenGroup def = new AsMavenGroup(group);
+				action.execute(def);
+				defs.add(def);
+			});
+		}
+		return defs;
+	}
+
+	/** Returns the state of every group, which is independent of where the project is located. */
+	Map<String, String> states() {
+		File p2asmaven = project.file(destination);
+		Map<String, String> states = new LinkedHashMap<>();
+		for (AsMavenGroup def : defs()) {
+			states.put(def.group, new AsMavenGroupImpl(project, p2asmaven, def).state());
+		}
+		return states;
+	}
+
+	/** Populates every group, unless that has already been attempted in this build, in which case a failure is rethrown rather than retried. */
+	synchronized void runOnce() {
+		if (!hasRun) {
+			hasRun = true;
+			try {
+				run();
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
 	void run() {
-		Set<File> files = new HashSet<>();
 		File p2asmaven = project.file(destination);
-		groups.forEach((group, action) -> {
-			// populate the def
-			AsMavenGroup def = new AsMavenGroup(group);
-			action.execute(def);
-			// run it
-			AsMavenGroupImpl impl = Errors.rethrow().get(() -> def.run(project, p2asmaven));
-			// keep track of what is clean
+		AsMavenSharedCache sharedCache = sharedCacheMaxMb == -1 ? null : new AsMavenSharedCache(GoomphCacheLocations.p2AsMaven(), sharedCacheMaxMb * 1024 * 1024);
+		List<AsMavenGroup> defs = defs();
+		// run them
+		List<AsMavenGroupImpl> impls;
+		if (parallelism == 1 || defs.size() <= 1) {
+			impls = new ArrayList<>(defs.size());
+			for (AsMavenGroup def : defs) {
+				impls.add(Errors.rethrow().get(() -> def.run(project, p2asmaven, false, sharedCache)));
+			}
+		} else {
+			impls = Errors.rethrow().get(() -> runParallel(p2asmaven, defs, sharedCache));
+		}
+		// keep track of what is clean
+		Set<File> files = new HashSet<>();
+		for (AsMavenGroupImpl impl : impls) {
 			files.add(impl.dirP2());
 			files.add(impl.dirP2Runnable());
 			files.add(impl.dirMavenGroup());
 			files.add(impl.tokenFile());
-		});
+		}
 		// delete the other files
 		deleteStragglers(p2asmaven, files, AsMavenGroupImpl.SUBDIR_P2, AsMavenGroupImpl.SUBDIR_P2_RUNNABLE, AsMavenGroupImpl.SUBDIR_MAVEN);
+		// and any stored artifacts which are no longer used
+		Errors.log().run(new ContentAddressedStore(new File(p2asmaven, AsMavenGroupImpl.SUBDIR_STORE))::prune);
+	}
+
+	/** Runs every group on a bounded pool, and waits for all of them to finish even if some fail. */
+	private List<AsMavenGroupImpl> runParallel(File p2asmaven, List<AsMavenGroup> defs, @Nullable AsMavenSharedCache sharedCache) throws Throwable {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, defs.size()));
+		try {
+			List<Future<AsMavenGroupImpl>> futures = new ArrayList<>(defs.size());
+			for (AsMavenGroup def : defs) {
+				futures.add(executor.submit(() -> def.run(project, p2asmaven, true, sharedCache)));
+			}
+			List<AsMavenGroupImpl> impls = new ArrayList<>(defs.size());
+			Throwable failure = null;
+			for (Future<AsMavenGroupImpl> future : futures) {
+				try {
+					impls.add(future.get());
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					} else {
+						failure.addSuppressed(e.getCause());
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return impls;
+		} finally {
+			executor.shutdownNow();
+		}
 	}
 
 	private void deleteStragglers(File root, Set<File> toKeep, String... dirs) {
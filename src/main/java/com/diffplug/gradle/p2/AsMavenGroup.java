@@ -18,6 +18,8 @@ package com.diffplug.gradle.p2;
 import java.io.File;
 import java.util.Objects;
 
+import javax.annotation.Nullable;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.internal.Actions;
@@ -27,6 +29,9 @@ public class AsMavenGroup implements P2Declarative {
 	final String group;
 	final P2Model model = new P2Model();
 	boolean repo2runnable = false;
+	boolean incremental = true;
+	boolean pomRequireBundle = false;
+	boolean pomImportPackage = false;
 	Action<P2AntRunner> antModifier = Actions.doNothing();
 
 	public AsMavenGroup(String group) {
@@ -43,14 +48,44 @@ public class AsMavenGroup implements P2Declarative {
 		repo2runnable = true;
 	}
 
+	/**
+	 * Determines whether changes to the IUs will update the previous mirror in place, defaults to true.
+	 *
+	 * When only the IUs have changed, the added IUs are appended to the existing
+	 * p2 repo, bundles which are no longer reachable are removed, and only the
+	 * affected maven coordinates are rewritten.  Any other change, or setting
+	 * this to false, wipes the group and mirrors it from scratch.
+	 */
+	public void incremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Writes a POM for every artifact, whose dependencies are the bundles in its
+	 * `Require-Bundle` which are in this group.  This lets gradle pull in only the
+	 * transitive closure of what you use, rather than you listing every bundle by hand.
+	 */
+	public void dependenciesFromRequireBundle() {
+		pomRequireBundle = true;
+	}
+
+	/**
+	 * Same as {@link #dependenciesFromRequireBundle()}, but also adds dependencies
+	 * on the bundles in this group which export the packages in `Import-Package`.
+	 */
+	public void dependenciesFromImportPackage() {
+		pomRequireBundle = true;
+		pomImportPackage = true;
+	}
+
 	/** Allows for fine-grained manipulation of the mirroring operation. */
 	public void p2ant(Action<P2AntRunner> antModifier) {
 		this.antModifier = Objects.requireNonNull(antModifier);
 	}
 
-	/** Runs the tasks defined by this p2asmaven. */
-	AsMavenGroupImpl run(Project project, File p2asmaven) throws Exception {
-		AsMavenGroupImpl impl = new AsMavenGroupImpl(project, p2asmaven, this);
+	/** Runs the tasks defined by this p2asmaven, optionally buffering the console output of p2 and using a shared cache. */
+	AsMavenGroupImpl run(Project project, File p2asmaven, boolean bufferOutput, @Nullable AsMavenSharedCache sharedCache) throws Exception {
+		AsMavenGroupImpl impl = new AsMavenGroupImpl(project, p2asmaven, this, bufferOutput, sharedCache);
 		impl.run();
 		return impl;
 	}
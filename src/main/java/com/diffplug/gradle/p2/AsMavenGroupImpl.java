@@ -15,46 +15,89 @@
  */
 package com.diffplug.gradle.p2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
 
 import org.gradle.api.Project;
 
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.collect.Sets;
 import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GoomphCacheLocations;
+import com.diffplug.gradle.eclipserunner.EclipseApp;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 
 /** Implementation of the p2 -> maven conversion. */
 class AsMavenGroupImpl {
 	final Project project;
 	final File p2asmaven;
 	final AsMavenGroup def;
+	final boolean bufferOutput;
+	@Nullable
+	final AsMavenSharedCache sharedCache;
+	/** While this group is running, the session which its apps run in, if it uses one. */
+	@Nullable
+	private EclipseSession session;
 
 	public AsMavenGroupImpl(Project project, File p2asmaven, AsMavenGroup group) {
+		this(project, p2asmaven, group, false, null);
+	}
+
+	/**
+	 * @param bufferOutput if true, the console output of each p2 application is buffered and logged
+	 * all at once with the group as a prefix, so that groups running in parallel don't interleave.
+	 * @param sharedCache if non-null, finished groups are linked from and published to this cache.
+	 */
+	public AsMavenGroupImpl(Project project, File p2asmaven, AsMavenGroup group, boolean bufferOutput, @Nullable AsMavenSharedCache sharedCache) {
 		this.project = Objects.requireNonNull(project);
 		this.p2asmaven = Objects.requireNonNull(p2asmaven);
 		this.def = Objects.requireNonNull(group);
+		this.bufferOutput = bufferOutput;
+		this.sharedCache = sharedCache;
 	}
 
 	// @formatter:off
 	File dirP2() {			return new File(p2asmaven, SUBDIR_P2 + "/" + def.group);			}
 	File dirP2Runnable() {	return new File(p2asmaven, SUBDIR_P2_RUNNABLE + "/" + def.group);	}
+	File dirP2Pruned() {	return new File(p2asmaven, SUBDIR_P2 + "/.pruned-" + def.group);	}
 	File dirMavenRoot() {	return new File(p2asmaven, SUBDIR_MAVEN);							}
 	File dirMavenGroup() {	return new File(dirMavenRoot(), def.group);							}
+	File dirStore() {		return new File(p2asmaven, SUBDIR_STORE);							}
 	File tokenFile() {		return new File(p2asmaven, "token-" + def.group);					}
+	File iusFile() {		return new File(p2asmaven, "ius-" + def.group);					}
 	// @formatter:on
 
 	static final String SUBDIR_P2 = "p2";
 	static final String SUBDIR_P2_RUNNABLE = "p2runnable";
 	static final String SUBDIR_MAVEN = "maven";
+	static final String SUBDIR_STORE = "store";
 
-	private P2AntRunner getApp() {
+	/** Returns an app which will mirror the given model into the given folder, using the bundle pool as a cache. */
+	private P2AntRunner mirrorApp(P2Model model, File dstFolder) {
 		P2Model cached = new P2Model();
 		cached.addArtifactRepoBundlePool();
-		cached.copyFrom(def.model);
-		P2AntRunner app = cached.mirrorApp(dirP2());
+		cached.copyFrom(model);
+		P2AntRunner app = cached.mirrorApp(dstFolder);
 		def.antModifier.execute(app);
 		return app;
 	}
 
+	/** Routes the model through the caching proxy or offline, as appropriate.  This doesn't affect {@link #state()}. */
+	private P2Model proxied(P2Model model) throws IOException {
+		return P2RepoProxy.route(project, model);
+	}
+
 	public void run() throws Exception {
 		Objects.requireNonNull(def.group, "Must set mavengroup");
 		// record the user's inputs
@@ -63,11 +106,48 @@ class AsMavenGroupImpl {
 		// if we've already written a token which confirms we're done with these inputs, then bail
 		if (FileMisc.hasTokenFile(tokenFile(), state)) {
 			project.getLogger().debug("p2AsMaven " + def.group + " is satisfied");
+			BundlePool.shared().touchReference(dirP2());
 			return;
 		} else {
 			project.getLogger().lifecycle("p2AsMaven " + def.group + " is dirty.");
 		}
-		// else, we'll need to run our own little thing
+		// figure out whether we can update the previous mirror, and then forget it until we succeed
+		Optional<Set<String>> previousIUs = previousIUs();
+		FileMisc.forceDelete(iusFile());
+		String sharedCacheKey = AsMavenSharedCache.key(state);
+		if (sharedCache != null && sharedCache.materialize(sharedCacheKey, this)) {
+			project.getLogger().lifecycle("p2AsMaven " + def.group + " was linked from the shared cache");
+		} else {
+			// an in-JVM session can't buffer the output of its apps, so parallel groups fork a JVM for each app instead
+			boolean useSession = !bufferOutput && P2BootstrapInstallation.useSession(project);
+			try (EclipseSession session = useSession ? trySession() : null) {
+				this.session = session;
+				if (previousIUs.isPresent()) {
+					runIncremental(previousIUs.get());
+				} else {
+					runFull();
+				}
+			} finally {
+				this.session = null;
+			}
+			if (sharedCache != null) {
+				Errors.log().run(() -> sharedCache.publish(sharedCacheKey, this));
+			}
+		}
+
+		// write out the staleness token to indicate that everything is good
+		if (def.incremental) {
+			FileMisc.writeTokenFile(iusFile(), iusState(def.model.getIUs()));
+		}
+		FileMisc.writeTokenFile(tokenFile(), state);
+		// keep the artifacts we mirrored in the bundle pool, so that it's quick to mirror them again
+		BundlePool.shared().addReference(dirP2(), null, BundlePool.artifactsOfRepo(dirP2()));
+		project.getLogger().lifecycle("p2AsMaven " + def.group + " is complete.");
+	}
+
+	/** Wipes everything and mirrors from scratch. */
+	private void runFull() throws Exception {
+		FileMisc.forceDelete(dirP2Pruned());
 		FileMisc.cleanDir(dirP2Runnable());
 		FileMisc.cleanDir(dirMavenGroup());
 
@@ -76,34 +156,168 @@ class AsMavenGroupImpl {
 		project.getLogger().lifecycle("Only needs to be done once, future builds will be much faster");
 
 		project.getLogger().lifecycle("p2AsMaven " + def.group + " installing from p2");
-		getApp().runUsingBootstrapper(project);
+		P2Model routed = proxied(def.model);
+		ArtifactPrefetcher.prefetchIfEnabled(project, routed);
+		runUsingBootstrapper(mirrorApp(routed, dirP2()));
+		runRepo2RunnableIfNecessary();
+
+		// put p2 into a maven repo
+		project.getLogger().lifecycle("p2AsMaven " + def.group + " creating maven repo");
+		installMaven(false);
+	}
 
+	/**
+	 * Updates the existing mirror in place.
+	 *
+	 * - Added IUs are appended to the existing p2 repo.
+	 * - If any IUs were removed, the p2 repo is re-mirrored locally from itself, which drops everything that is no longer reachable.
+	 * - Only the maven coordinates whose artifacts changed are rewritten.
+	 */
+	private void runIncremental(Set<String> previousIUs) throws Exception {
+		Set<String> currentIUs = def.model.getIUs();
+		Set<String> added = new LinkedHashSet<>(Sets.difference(currentIUs, previousIUs));
+		Set<String> removed = new LinkedHashSet<>(Sets.difference(previousIUs, currentIUs));
+		project.getLogger().lifecycle("p2AsMaven " + def.group + " updating incrementally, " + added.size() + " added and " + removed.size() + " removed IUs");
+
+		if (!added.isEmpty()) {
+			project.getLogger().lifecycle("p2AsMaven " + def.group + " appending added IUs from p2");
+			P2Model delta = def.model.copy();
+			delta.getIUs().retainAll(added);
+			delta.setAppend(true);
+			P2Model routed = proxied(delta);
+			ArtifactPrefetcher.prefetchIfEnabled(project, routed);
+			runUsingBootstrapper(mirrorApp(routed, dirP2()));
+		}
+		if (!removed.isEmpty()) {
+			project.getLogger().lifecycle("p2AsMaven " + def.group + " pruning unreachable bundles");
+			P2Model local = new P2Model();
+			local.addRepo(dirP2());
+			local.getIUs().addAll(currentIUs);
+			local.getSlicingOptions().putAll(def.model.getSlicingOptions());
+			FileMisc.cleanDir(dirP2Pruned());
+			P2AntRunner prune = local.mirrorApp(dirP2Pruned());
+			def.antModifier.execute(prune);
+			runUsingBootstrapper(prune);
+			FileMisc.forceDelete(dirP2());
+			Files.move(dirP2Pruned().toPath(), dirP2().toPath());
+		}
+		if (def.repo2runnable) {
+			FileMisc.cleanDir(dirP2Runnable());
+			runRepo2RunnableIfNecessary();
+		}
+
+		project.getLogger().lifecycle("p2AsMaven " + def.group + " updating maven repo");
+		installMaven(true);
+	}
+
+	private void runRepo2RunnableIfNecessary() throws Exception {
 		if (def.repo2runnable) {
 			project.getLogger().lifecycle("p2AsMaven " + def.group + " creating runnable repo");
 			Repo2Runnable app = new Repo2Runnable();
 			app.source(dirP2());
 			app.destination(dirP2Runnable());
-			app.runUsingBootstrapper(project);
+			runUsingBootstrapper(app);
+		}
+	}
+
+	private void installMaven(boolean incremental) throws Exception {
+		try (MavenRepoBuilder maven = new MavenRepoBuilder(dirMavenRoot(), incremental, new ContentAddressedStore(dirStore()))) {
+			maven.pomRequireBundle = def.pomRequireBundle;
+			maven.pomImportPackage = def.pomImportPackage;
+			List<File> plugins = FileMisc.list(new File(dirP2(), "plugins")).stream()
+					.filter(plugin -> plugin.isFile() && plugin.getName().endsWith(".jar"))
+					.collect(Collectors.toList());
+			maven.installAll(def.group, plugins);
 		}
+	}
 
-		// put p2 into a maven repo
-		project.getLogger().lifecycle("p2AsMaven " + def.group + " creating maven repo");
-		try (MavenRepoBuilder maven = new MavenRepoBuilder(dirMavenRoot())) {
-			for (File plugin : FileMisc.list(new File(dirP2(), "plugins"))) {
-				if (plugin.isFile() && plugin.getName().endsWith(".jar")) {
-					maven.install(def.group, plugin);
-				}
+	/**
+	 * Returns the IUs of the previous successful mirror, if it can be updated
+	 * incrementally.  That is only possible if everything except the IUs is unchanged.
+	 */
+	private Optional<Set<String>> previousIUs() throws Exception {
+		if (!def.incremental || !dirP2().isDirectory()) {
+			return Optional.empty();
+		}
+		Optional<String> previous = FileMisc.readToken(p2asmaven, iusFile().getName());
+		int split = previous.map(str -> str.indexOf(IUS_HEADER)).orElse(-1);
+		if (split == -1 || !previous.get().substring(0, split).equals(baseState())) {
+			return Optional.empty();
+		}
+		Set<String> ius = new LinkedHashSet<>();
+		for (String iu : previous.get().substring(split + IUS_HEADER.length()).split("\n")) {
+			if (!iu.isEmpty()) {
+				ius.add(iu);
 			}
 		}
+		return Optional.of(ius);
+	}
 
-		// write out the staleness token to indicate that everything is good
-		FileMisc.writeTokenFile(tokenFile(), state);
-		project.getLogger().lifecycle("p2AsMaven " + def.group + " is complete.");
+	private static final String IUS_HEADER = "\nius:\n";
+
+	/** Records the given IUs along with the rest of the state, so that the next run can diff against them. */
+	private String iusState(Set<String> ius) {
+		return baseState() + IUS_HEADER + String.join("\n", ius);
+	}
+
+	/**
+	 * Opens a session against the p2 bootstrapper, or returns null if another framework is already
+	 * open in this JVM (e.g. another project under `--parallel`), in which case each app forks a JVM instead.
+	 */
+	@Nullable
+	private EclipseSession trySession() throws Exception {
+		EclipseSession session = P2BootstrapInstallation.latest().session();
+		if (session.tryOpen()) {
+			return session;
+		}
+		project.getLogger().info("p2AsMaven " + def.group + " can't use a session, because another one is open in this JVM");
+		return null;
+	}
+
+	/** Runs the given app using the p2 bootstrapper, within this group's session if it has one, buffering its output if necessary. */
+	private void runUsingBootstrapper(EclipseApp app) throws Exception {
+		if (session != null) {
+			app.runUsing(session);
+			return;
+		}
+		if (!bufferOutput) {
+			app.runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project));
+			return;
+		}
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			app.runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project, output));
+		} finally {
+			String content = FileMisc.toUnixNewline(new String(output.toByteArray(), StandardCharsets.UTF_8));
+			for (String line : content.split("\n")) {
+				if (!line.isEmpty()) {
+					project.getLogger().lifecycle("p2AsMaven " + def.group + " | " + line);
+				}
+			}
+		}
 	}
 
 	/** The args passed to p2 director represent the full state. */
-	private String state() {
-		return "mirrorApp: " + getApp().completeState() + "\nmavenGroup: " + def.group + "\ngoomph:" + GOOMPH_VERSION + "\nrepo2runnable:" + def.repo2runnable;
+	String state() {
+		return state(def.model);
+	}
+
+	/** The state of everything except the IUs, which must be unchanged for an incremental update. */
+	private String baseState() {
+		P2Model withoutIUs = def.model.copy();
+		withoutIUs.getIUs().clear();
+		return state(withoutIUs);
+	}
+
+	private String state(P2Model model) {
+		String state = "mirrorApp: " + mirrorApp(model, dirP2()).completeState() + "\nmavenGroup: " + def.group + "\ngoomph:" + GOOMPH_VERSION + "\nrepo2runnable:" + def.repo2runnable;
+		if (def.pomRequireBundle) {
+			state += "\npom: requireBundle=true importPackage=" + def.pomImportPackage;
+		}
+		// the output doesn't depend on where the project or bundle pool are, so leave them out
+		// of the state, which lets the result be reused when the project moves
+		return state.replace(FileMisc.asUrl(p2asmaven), "${p2asmaven}")
+				.replace(FileMisc.asUrl(GoomphCacheLocations.bundlePool()), "${bundlePool}");
 	}
 
 	/** Bump this if we need to force people's deps to reload. */
@@ -72,14 +72,65 @@ import com.diffplug.gradle.ProjectPlugin;
  *         eclipse-deps-4.4/
  *         eclipse-deps-4.5/
  *         eclipse-deps-4.6/
+ *     store/
+ *         (jars keyed by their SHA-256, hard-linked into p2/ and maven/)
  * ```
  * 
- * The maven repository does not contain any dependency information,
+ * The repository is populated lazily, right before the first configuration of
+ * any project in the build is resolved, so tasks which don't need it (`clean`, `tasks`, etc.)
+ * don't pay for it.  You can also populate it explicitly with `gradlew p2AsMavenMirror`,
+ * which is handy for warming up CI machines.  To reuse finished groups across
+ * checkouts, use `sharedCache()` rather than the build cache.
+ * 
+ * By default the groups are populated one at a time.  Since each group runs
+ * p2 in its own JVM, independent groups can be populated concurrently:
+ * 
+ * ```groovy
+ * p2AsMaven {
+ *     // populate at most 3 groups at the same time
+ *     parallelism 3
+ *     ...
+ * }
+ * ```
+ * 
+ * While groups are running in parallel, the console output of each p2 run
+ * is buffered and logged with its group as a prefix.
+ * 
+ * If only the IUs of a group have changed, the group is updated incrementally:
+ * added IUs are appended to the existing mirror, bundles which are no longer
+ * reachable are removed, and only the affected maven coordinates are rewritten.
+ * This can be turned off with `incremental false` within the group.
+ * 
+ * If you have several checkouts of the same project, or a CI machine with lots
+ * of workspaces, `sharedCache()` lets them share finished groups.  A group whose
+ * inputs match one that was already built anywhere on the machine is hard-linked
+ * from {@link com.diffplug.gradle.GoomphCacheLocations#p2AsMaven()} instead of
+ * running p2.  The cache is capped at 8GB by default, or `sharedCache <maxSizeMb>`.
+ * 
+ * By default, the maven repository does not contain any dependency information,
  * just the raw jars.  In the example above, when p2 downloads
  * `org.eclipse.jdt.core`, it also downloads all of its dependencies.
  * But none of these dependencies are added automatically - you have to
  * add them yourself.
  * 
+ * If you'd rather have gradle pull in the dependencies, you can have
+ * p2AsMaven write POMs whose dependencies come from the bundle manifests.
+ * Only bundles within the same group are used, optional requirements are
+ * skipped, and each dependency is pinned to the highest matching version.
+ * 
+ * ```groovy
+ * p2AsMaven {
+ *     group 'eclipse-deps', {
+ *         repoEclipse '4.5.2'
+ *         iu          'org.eclipse.jdt.core'
+ *         // dependencies from Require-Bundle
+ *         dependenciesFromRequireBundle()
+ *         // or, dependencies from Require-Bundle and Import-Package
+ *         dependenciesFromImportPackage()
+ *     }
+ * }
+ * ```
+ * 
  * ## Example projects
  * 
  * * [spotless](https://github.com/diffplug/spotless)
@@ -184,9 +235,20 @@ public class AsMavenPlugin extends ProjectPlugin {
 	@Override
 	protected void applyOnce(Project project) {
 		extension = project.getExtensions().create(AsMavenExtension.NAME, AsMavenExtension.class, project);
+		project.getTasks().create(AsMavenExtension.TASK, AsMavenTask.class, task -> {
+			task.extension = extension;
+			task.setDescription("Mirrors the p2AsMaven groups into a local maven repository.");
+		});
+		BundlePoolGcTask.register(project);
+		// populate the repo only once something actually needs it, which might be any project which uses the repo
+		project.getGradle().allprojects(anyProject -> {
+			anyProject.getConfigurations().all(configuration -> {
+				configuration.getIncoming().beforeResolve(unused -> {
+					Errors.rethrow().run(extension::runOnce);
+				});
+			});
+		});
 		project.afterEvaluate(proj -> {
-			// reload
-			Errors.rethrow().run(extension::run);
 			// set maven repo
 			project.getRepositories().maven(maven -> {
 				maven.setUrl(extension.mavenDir(proj));
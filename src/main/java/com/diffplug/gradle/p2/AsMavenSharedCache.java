@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * A machine-wide cache of finished p2AsMaven groups, which is
+ * shared by every checkout on the machine.  Each entry is keyed
+ * by a hash of the group's state, which doesn't include any
+ * paths which are specific to the checkout.
+ *
+ * - Entries are populated in a temporary folder and then renamed into place, so other processes never see a partial entry.
+ * - Bundles are hard-linked between the cache and the build, but repository metadata and maven metadata are
+ *   copied, because incremental runs rewrite them in place, which would otherwise corrupt the shared entry.
+ * - Once the cache grows past its size cap, the least-recently-used entries are evicted.
+ */
+class AsMavenSharedCache {
+	final File root;
+	final long maxSize;
+
+	AsMavenSharedCache(File root, long maxSize) {
+		this.root = Objects.requireNonNull(root);
+		this.maxSize = maxSize;
+	}
+
+	/** Returns the key for the given group state, which doesn't depend on where the checkout is. */
+	static String key(String state) {
+		return Digests.of(state.getBytes(StandardCharsets.UTF_8)).sha256;
+	}
+
+	/** Links the entry for the given key into the given group, and returns true if there was such an entry. */
+	boolean materialize(String key, AsMavenGroupImpl impl) {
+		File entry = new File(root, key);
+		if (!entry.isDirectory()) {
+			return false;
+		}
+		try {
+			link(new File(entry, AsMavenGroupImpl.SUBDIR_P2), impl.dirP2());
+			link(new File(entry, AsMavenGroupImpl.SUBDIR_P2_RUNNABLE), impl.dirP2Runnable());
+			link(new File(entry, AsMavenGroupImpl.SUBDIR_MAVEN), impl.dirMavenGroup());
+			touch(entry);
+			return true;
+		} catch (Exception e) {
+			// the entry might have been evicted out from under us, in which case we'll just build it ourselves
+			logger.info("Unable to materialize " + entry, e);
+			return false;
+		}
+	}
+
+	/** Copies the given group into the cache under the given key, then evicts entries if the cache is too big. */
+	void publish(String key, AsMavenGroupImpl impl) throws IOException {
+		File entry = new File(root, key);
+		if (!entry.isDirectory()) {
+			File temp = new File(root, key + TEMP + UUID.randomUUID());
+			try {
+				long size = 0;
+				size += link(impl.dirP2(), new File(temp, AsMavenGroupImpl.SUBDIR_P2));
+				size += link(impl.dirP2Runnable(), new File(temp, AsMavenGroupImpl.SUBDIR_P2_RUNNABLE));
+				size += link(impl.dirMavenGroup(), new File(temp, AsMavenGroupImpl.SUBDIR_MAVEN));
+				FileMisc.writeToken(temp, SIZE, Long.toString(size));
+				touch(temp);
+				try {
+					Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (FileSystemException e) {
+					// if another process beat us to it, that's fine
+					if (!entry.isDirectory()) {
+						throw e;
+					}
+				}
+			} finally {
+				FileMisc.forceDelete(temp);
+			}
+		} else {
+			touch(entry);
+		}
+		evict();
+	}
+
+	/** Evicts the least-recently-used entries until the cache fits within its size cap, and removes abandoned temporary folders. */
+	void evict() throws IOException {
+		List<File> entries = new ArrayList<>();
+		long totalSize = 0;
+		long abandoned = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+		for (File file : FileMisc.list(root)) {
+			if (file.getName().contains(TEMP) || file.getName().contains(EVICTING)) {
+				if (file.lastModified() < abandoned) {
+					FileMisc.forceDelete(file);
+				}
+			} else if (file.isDirectory()) {
+				entries.add(file);
+				totalSize += size(file);
+			}
+		}
+		entries.sort(Comparator.comparing(AsMavenSharedCache::lastUsed));
+		for (File entry : entries) {
+			if (totalSize <= maxSize) {
+				break;
+			}
+			totalSize -= size(entry);
+			// rename it first, so that nobody tries to materialize a half-deleted entry
+			File evicting = new File(root, entry.getName() + EVICTING + UUID.randomUUID());
+			try {
+				Files.move(entry.toPath(), evicting.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (FileSystemException e) {
+				// another process is evicting it
+				continue;
+			}
+			FileMisc.forceDelete(evicting);
+		}
+	}
+
+	/** Places every file in src into dst, which is cleaned first, and returns the total size of the files. */
+	private static long link(File src, File dst) throws IOException {
+		FileMisc.cleanDir(dst);
+		if (!src.isDirectory()) {
+			return 0;
+		}
+		Path srcRoot = src.toPath();
+		Path dstRoot = dst.toPath();
+		List<Path> paths;
+		try (Stream<Path> stream = Files.walk(srcRoot)) {
+			paths = stream.collect(Collectors.toList());
+		}
+		long size = 0;
+		for (Path path : paths) {
+			Path target = dstRoot.resolve(srcRoot.relativize(path));
+			if (Files.isDirectory(path)) {
+				FileMisc.mkdirs(target.toFile());
+			} else {
+				if (isImmutable(srcRoot.relativize(path))) {
+					FileMisc.linkOrCopy(path.toFile(), target.toFile());
+				} else {
+					Files.copy(path, target);
+				}
+				size += Files.size(path);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns true for the jars of bundles and features, which are never rewritten once they're placed.
+	 * The jars at the root of a p2 repository (`content.jar`, `artifacts.jar`) are metadata, so they don't count.
+	 */
+	static boolean isImmutable(Path relative) {
+		return relative.getNameCount() > 1 && relative.getFileName().toString().endsWith(".jar");
+	}
+
+	private static void touch(File entry) throws IOException {
+		File lastUsed = new File(entry, LAST_USED);
+		if (!lastUsed.exists()) {
+			FileMisc.writeToken(entry, LAST_USED);
+		}
+		Files.setLastModifiedTime(lastUsed.toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+	}
+
+	private static long lastUsed(File entry) {
+		return new File(entry, LAST_USED).lastModified();
+	}
+
+	private static long size(File entry) {
+		try {
+			return FileMisc.readToken(entry, SIZE).map(Long::parseLong).orElse(0L);
+		} catch (IOException | NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	private static final String TEMP = ".tmp-";
+	private static final String EVICTING = ".evicting-";
+	private static final String SIZE = "size";
+	private static final String LAST_USED = "lastUsed";
+
+	private static final Logger logger = LoggerFactory.getLogger(AsMavenSharedCache.class);
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.util.Map;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Populates the maven repository described by {@link AsMavenExtension}.
+ *
+ * You don't usually need to call this task directly: the repository
+ * is populated automatically the first time that any configuration
+ * of the project is resolved.  But it can be handy for warming up
+ * CI machines.
+ *
+ * It isn't cacheable, because its output includes the raw p2 mirrors,
+ * which are much too big to be worth storing in the build cache.  Finished
+ * groups can be shared across checkouts with {@link AsMavenExtension#sharedCache()}.
+ */
+public class AsMavenTask extends DefaultTask {
+	AsMavenExtension extension;
+
+	/** The state of every group, which is independent of where the project is. */
+	@Input
+	public Map<String, String> getGroupStates() {
+		return extension.states();
+	}
+
+	@OutputDirectory
+	public File getDestination() {
+		return getProject().file(extension.destination);
+	}
+
+	@TaskAction
+	public void mirror() {
+		extension.runOnce();
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.Parameters;
+
+import com.diffplug.gradle.p2.MavenRepoBuilder.Artifact;
+import com.diffplug.gradle.p2.MavenRepoBuilder.Coordinate;
+
+/**
+ * Resolves the dependencies of the bundles in a maven repo
+ * against the other bundles in the same group, using
+ * `Require-Bundle` and optionally `Import-Package`.
+ *
+ * Each dependency is pinned to the highest version in the
+ * group which satisfies the requirement.  Optional requirements,
+ * and requirements which can't be satisfied within the group,
+ * are skipped.
+ */
+class BundleDependencies {
+	private final Map<Coordinate, List<Artifact>> bundles = new HashMap<>();
+	private final Map<String, List<Export>> exports = new HashMap<>();
+	private final boolean importPackage;
+
+	BundleDependencies(Map<Coordinate, ? extends Iterable<Artifact>> artifacts, boolean importPackage) {
+		this.importPackage = importPackage;
+		artifacts.forEach((coord, coordArtifacts) -> {
+			for (Artifact artifact : coordArtifacts) {
+				if (artifact.isSources) {
+					continue;
+				}
+				bundles.computeIfAbsent(coord, unused -> new ArrayList<>()).add(artifact);
+				if (importPackage) {
+					header(artifact.manifest.getExportPackage()).forEach((pkg, attrs) -> {
+						String version = Optional.ofNullable(attrs.get(VERSION)).orElse(attrs.get(SPECIFICATION_VERSION));
+						exports.computeIfAbsent(removeDuplicateMarker(pkg), unused -> new ArrayList<>())
+								.add(new Export(coord, artifact, version == null ? Version.emptyVersion : Version.parseVersion(version)));
+					});
+				}
+			}
+		});
+	}
+
+	/** Returns the dependencies of the given binary artifact, in the order they were declared. */
+	Map<Coordinate, Version> dependenciesOf(Coordinate coord, Artifact artifact) {
+		Map<Coordinate, Version> dependencies = new LinkedHashMap<>();
+		header(artifact.manifest.getRequireBundle()).forEach((bundle, attrs) -> {
+			if (isOptional(attrs)) {
+				return;
+			}
+			Coordinate required = new Coordinate(coord.group, removeDuplicateMarker(bundle));
+			VersionRange range = range(attrs.get(BUNDLE_VERSION));
+			bundles.getOrDefault(required, new ArrayList<>()).stream()
+					.filter(candidate -> range.includes(candidate.version))
+					.max(Comparator.comparing(candidate -> candidate.version))
+					.ifPresent(candidate -> dependencies.putIfAbsent(required, candidate.version));
+		});
+		if (importPackage) {
+			Map<String, Attrs> ownExports = header(artifact.manifest.getExportPackage());
+			header(artifact.manifest.getImportPackage()).forEach((pkg, attrs) -> {
+				String name = removeDuplicateMarker(pkg);
+				if (isOptional(attrs) || ownExports.containsKey(name)) {
+					return;
+				}
+				VersionRange range = range(Optional.ofNullable(attrs.get(VERSION)).orElse(attrs.get(SPECIFICATION_VERSION)));
+				exports.getOrDefault(name, new ArrayList<>()).stream()
+						.filter(export -> !export.coord.equals(coord) && range.includes(export.packageVersion))
+						.max(Comparator.<Export, Version> comparing(export -> export.packageVersion)
+								.thenComparing(export -> export.artifact.version)
+								.thenComparing(export -> export.coord.artifactId))
+						.ifPresent(export -> dependencies.putIfAbsent(export.coord, export.artifact.version));
+			});
+		}
+		dependencies.remove(coord);
+		return dependencies;
+	}
+
+	private static final String VERSION = "version";
+	private static final String SPECIFICATION_VERSION = "specification-version";
+	private static final String BUNDLE_VERSION = "bundle-version";
+	private static final String RESOLUTION = "resolution:";
+
+	private static Parameters header(@Nullable String header) {
+		return header == null ? new Parameters() : new Parameters(header);
+	}
+
+	private static boolean isOptional(Attrs attrs) {
+		return "optional".equals(attrs.get(RESOLUTION));
+	}
+
+	private static VersionRange range(@Nullable String range) {
+		return new VersionRange(range == null ? "0.0.0" : range);
+	}
+
+	/** bnd marks repeated keys with a trailing `~`. */
+	private static String removeDuplicateMarker(String key) {
+		int end = key.length();
+		while (end > 0 && key.charAt(end - 1) == '~') {
+			--end;
+		}
+		return key.substring(0, end);
+	}
+
+	/** A package exported by a specific bundle. */
+	private static class Export {
+		final Coordinate coord;
+		final Artifact artifact;
+		final Version packageVersion;
+
+		Export(Coordinate coord, Artifact artifact, Version packageVersion) {
+			this.coord = coord;
+			this.artifact = artifact;
+			this.packageVersion = packageVersion;
+		}
+	}
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.diffplug.common.base.Box;
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.base.StringPrinter;
+import com.diffplug.common.base.Throwing;
+import com.diffplug.gradle.CacheLock;
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GoomphCacheLocations;
+import com.diffplug.gradle.ZipMisc;
+
+/**
+ * A p2 bundle pool, such as {@link GoomphCacheLocations#bundlePool()},
+ * along with a record of which installations use which of its artifacts.
+ *
+ * - IDE and PDE installations which were installed into the pool, and `p2AsMaven` groups which mirror out of it, record a reference to the artifacts they use.
+ * - {@link #gc(long)} shrinks the pool down to a size cap, by evicting artifacts which nobody uses, and then the artifacts of the least-recently-used references.
+ * - When a reference is evicted, its token file is deleted, so that the installation will be reprovisioned the next time it is needed.
+ * - {@link #contains(Artifact)} answers whether an artifact is already pooled in constant time, using a compact index of the pool's metadata.
+ *
+ * Every build on the machine shares the pool, so it is guarded by a {@link CacheLock} on its root:
+ *
+ * - Readers hold it shared: p2 apps which mirror out of the pool, and parsing its metadata for the index.
+ * - Writers hold it exclusively: installs into the pool along with recording their reference (see {@link #installReferenced}),
+ *   prefetched artifacts being added to it, creating an empty pool, and {@link #gc(long)}.
+ * - The references are guarded by a separate lock, so that recording a reference doesn't wait for p2.
+ */
+public class BundlePool {
+	/** Returns the pool at {@link GoomphCacheLocations#bundlePool()}. */
+	public static BundlePool shared() {
+		return new BundlePool(GoomphCacheLocations.bundlePool());
+	}
+
+	final File root;
+
+	public BundlePool(File root) {
+		this.root = Objects.requireNonNull(root);
+	}
+
+	/** The folder which contains the pool. */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Makes sure that the pool has an artifacts.xml, creating an empty one if necessary,
+	 * so that it can be used as an artifact repository before anything has been installed into it.
+	 */
+	public void createIfNecessary() throws IOException {
+		try (CacheLock lock = CacheLock.shared(root)) {
+			if (isBundlePool(root)) {
+				return;
+			}
+		}
+		// several p2AsMaven groups and builds might be running at once, so only one of them should create the pool
+		try (CacheLock lock = CacheLock.exclusive(root)) {
+			if (isBundlePool(root)) {
+				return;
+			}
+			// otherwise, we need to make an empty artifacts repo there
+			// http://stackoverflow.com/questions/11954898/eclipse-empty-testing-update-site
+			// clean the folder
+			FileMisc.cleanDir(root);
+			// create some token content
+			FileMisc.writeToken(root, "artifacts.xml", StringPrinter.buildStringFromLines(
+					"<?xml version='1.0' encoding='UTF-8'?>",
+					"<?artifactRepository version='1.1.0'?>",
+					"<repository name='${p2.artifact.repo.name}' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>",
+					"  <properties size='2'>",
+					"    <property name='p2.timestamp' value='1305295295102'/>",
+					"    <property name='p2.system' value='true'/>",
+					"  </properties>",
+					"  <mappings size='3'>",
+					"    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>",
+					"    <rule filter='(&amp; (classifier=binary))' output='${repoUrl}/binary/${id}_${version}'/>",
+					"    <rule filter='(&amp; (classifier=org.eclipse.update.feature))' output='${repoUrl}/features/${id}_${version}.jar'/>",
+					"  </mappings>",
+					"  <artifacts size='0'>",
+					"  </artifacts>",
+					"</repository>"));
+		}
+	}
+
+	/** Returns true if the pool already has an artifacts.jar/xml. */
+	private static boolean isBundlePool(File folder) {
+		return new File(folder, ARTIFACTS_XML).isFile() || new File(folder, ARTIFACTS_JAR).isFile();
+	}
+
+	/** The folder which contains a record for every reference to the pool. */
+	File referencesDir() {
+		return new File(root, REFERENCES);
+	}
+
+	static final String REFERENCES = ".references";
+	private static final String OWNER = "owner ";
+	private static final String TOKEN = "token ";
+
+	/** The classifiers of the artifacts which can be evicted, and the folder in the pool where they live. */
+	private static final Map<String, String> FOLDERS = new HashMap<>();
+
+	static {
+		FOLDERS.put("osgi.bundle", "plugins");
+		FOLDERS.put("org.eclipse.update.feature", "features");
+		FOLDERS.put("binary", "binary");
+	}
+
+	/** Artifacts which were added to the pool more recently than this might belong to an install which hasn't been recorded yet, so they are never evicted. */
+	static final long GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	/** A p2 artifact key. */
+	public static final class Artifact {
+		final String classifier, id, version;
+
+		public Artifact(String classifier, String id, String version) {
+			this.classifier = Objects.requireNonNull(classifier);
+			this.id = Objects.requireNonNull(id);
+			this.version = Objects.requireNonNull(version);
+		}
+
+		/** Returns the artifact which is installed by the given IU, e.g. the feature `x` for `x.feature.group`. */
+		public static Artifact ofIU(String id, String version) {
+			for (String suffix : FEATURE_SUFFIXES) {
+				if (id.endsWith(suffix)) {
+					return new Artifact("org.eclipse.update.feature", id.substring(0, id.length() - suffix.length()), version);
+				}
+			}
+			return new Artifact("osgi.bundle", id, version);
+		}
+
+		private static final String[] FEATURE_SUFFIXES = {".feature.group", ".feature.jar"};
+
+		/** Parses the result of {@link #toString()}. */
+		public static Artifact parse(String string) {
+			String[] pieces = string.split("/");
+			if (pieces.length != 3) {
+				throw new IllegalArgumentException("Expected classifier/id/version, was " + string);
+			}
+			return new Artifact(pieces[0], pieces[1], pieces[2]);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other instanceof Artifact) {
+				Artifact o = (Artifact) other;
+				return classifier.equals(o.classifier) && id.equals(o.id) && version.equals(o.version);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(classifier, id, version);
+		}
+
+		/** Returns `classifier/id/version`. */
+		@Override
+		public String toString() {
+			return classifier + "/" + id + "/" + version;
+		}
+	}
+
+	///////////
+	// INDEX //
+	///////////
+	/** Returns true if the given artifact is already in the pool. */
+	public boolean contains(Artifact artifact) throws IOException {
+		return index().contains(artifact);
+	}
+
+	/** Returns the artifacts from the given collection which aren't in the pool yet. */
+	public Set<Artifact> missing(Collection<Artifact> artifacts) throws IOException {
+		BundlePoolIndex index = index();
+		return artifacts.stream().filter(artifact -> !index.contains(artifact)).collect(Collectors.toCollection(LinkedHashSet::new));
+	}
+
+	/** Returns an up-to-date index of the pool. */
+	BundlePoolIndex index() throws IOException {
+		return BundlePoolIndex.of(this);
+	}
+
+	/////////////////////////
+	// READING P2 METADATA //
+	/////////////////////////
+	/** Returns every artifact listed in the given `artifacts.xml` content, or in a p2 profile. */
+	static Set<Artifact> parseArtifacts(InputStream input) throws Exception {
+		Set<Artifact> artifacts = new LinkedHashSet<>();
+		SAXParserFactory.newInstance().newSAXParser().parse(input, new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName, String qName, Attributes attributes) {
+				if (qName.equals("artifact")) {
+					String classifier = attributes.getValue("classifier");
+					String id = attributes.getValue("id");
+					String version = attributes.getValue("version");
+					if (classifier != null && id != null && version != null) {
+						artifacts.add(new Artifact(classifier, id, version));
+					}
+				}
+			}
+		});
+		return artifacts;
+	}
+
+	/** Returns every artifact in the given p2 repository, which may have an `artifacts.jar` or an `artifacts.xml`. */
+	public static Set<Artifact> artifactsOfRepo(File repo) throws IOException {
+		File jar = new File(repo, ARTIFACTS_JAR);
+		File xml = new File(repo, ARTIFACTS_XML);
+		if (jar.isFile()) {
+			Box.Nullable<Set<Artifact>> result = Box.Nullable.ofNull();
+			ZipMisc.read(jar, ARTIFACTS_XML, input -> result.set(Errors.rethrow().get(() -> parseArtifacts(input))));
+			return result.get();
+		} else if (xml.isFile()) {
+			try (InputStream input = new FileInputStream(xml)) {
+				return Errors.rethrow().get(() -> parseArtifacts(input));
+			}
+		} else {
+			return new LinkedHashSet<>();
+		}
+	}
+
+	/** Returns every artifact in the most recent p2 profiles of the given installation. */
+	public static Set<Artifact> artifactsOfInstall(File installDir) throws IOException {
+		Set<Artifact> artifacts = new LinkedHashSet<>();
+		if (!installDir.isDirectory()) {
+			return artifacts;
+		}
+		List<Path> profileDirs;
+		try (Stream<Path> stream = Files.walk(installDir.toPath())) {
+			profileDirs = stream.filter(path -> path.getFileName().toString().endsWith(".profile")
+					&& Files.isDirectory(path)
+					&& path.getParent().getFileName().toString().equals("profileRegistry"))
+					.collect(Collectors.toList());
+		}
+		for (Path profileDir : profileDirs) {
+			// each profile folder contains a snapshot per change, and the newest has the longest timestamp
+			File newest = FileMisc.list(profileDir.toFile()).stream()
+					.filter(file -> file.getName().endsWith(".profile") || file.getName().endsWith(".profile.gz"))
+					.max(Comparator.comparing(File::getName))
+					.orElse(null);
+			if (newest != null) {
+				try (InputStream raw = new FileInputStream(newest);
+						InputStream input = newest.getName().endsWith(".gz") ? new GZIPInputStream(raw) : raw) {
+					artifacts.addAll(Errors.rethrow().get(() -> parseArtifacts(input)));
+				}
+			}
+		}
+		return artifacts;
+	}
+
+	static final String ARTIFACTS_JAR = "artifacts.jar";
+	static final String ARTIFACTS_XML = "artifacts.xml";
+
+	////////////////
+	// REFERENCES //
+	////////////////
+	/**
+	 * Records that the given owner uses the given artifacts, replacing any previous record for the owner.
+	 *
+	 * @param owner the folder of the installation, which is forgotten once it is deleted
+	 * @param token a file which is deleted if this reference is evicted, so that the owner knows to reprovision itself
+	 */
+	public void addReference(File owner, @Nullable File token, Set<Artifact> artifacts) throws IOException {
+		List<String> lines = new ArrayList<>(artifacts.size() + 2);
+		lines.add(OWNER + owner.getAbsolutePath());
+		if (token != null) {
+			lines.add(TOKEN + token.getAbsolutePath());
+		}
+		artifacts.forEach(artifact -> lines.add(artifact.toString()));
+		File record = recordFile(owner);
+		try (CacheLock lock = CacheLock.exclusive(referencesDir())) {
+			FileMisc.mkdirs(referencesDir());
+			File temp = new File(referencesDir(), record.getName() + ".tmp-" + UUID.randomUUID());
+			Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+			Files.move(temp.toPath(), record.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Runs an install which puts its artifacts into the pool, and then records its reference, all while
+	 * holding the pool exclusively.  Otherwise {@link #gc(long)} could evict the install's artifacts in between.
+	 *
+	 * @param installDir the folder of the installation, whose artifacts are found by {@link #artifactsOfInstall(File)}
+	 * @param token see {@link #addReference(File, File, Set)}
+	 */
+	public <E extends Exception> void installReferenced(File installDir, @Nullable File token, Throwing.Specific.Runnable<E> install) throws E, IOException {
+		try (CacheLock lock = CacheLock.exclusive(root)) {
+			install.run();
+			addReference(installDir, token, artifactsOfInstall(installDir));
+		}
+	}
+
+	/** Marks the given owner's reference as recently used, if there is one. */
+	public void touchReference(File owner) {
+		File record = recordFile(owner);
+		if (record.isFile()) {
+			record.setLastModified(System.currentTimeMillis());
+		}
+	}
+
+	private File recordFile(File owner) {
+		return new File(referencesDir(), Digests.of(owner.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).sha256.substring(0, 16));
+	}
+
+	/** A parsed record file. */
+	static class Reference {
+		final File record;
+		final File owner;
+		@Nullable
+		final File token;
+		final Set<Artifact> artifacts;
+		final long lastUsed;
+
+		Reference(File record) throws IOException {
+			this.record = record;
+			this.lastUsed = record.lastModified();
+			List<String> lines = Files.readAllLines(record.toPath(), StandardCharsets.UTF_8);
+			if (lines.isEmpty() || !lines.get(0).startsWith(OWNER)) {
+				throw new IOException("Corrupt reference " + record);
+			}
+			owner = new File(lines.get(0).substring(OWNER.length()));
+			int start = 1;
+			if (lines.size() > 1 && lines.get(1).startsWith(TOKEN)) {
+				token = new File(lines.get(1).substring(TOKEN.length()));
+				start = 2;
+			} else {
+				token = null;
+			}
+			artifacts = new HashSet<>(lines.size() - start);
+			for (String line : lines.subList(start, lines.size())) {
+				artifacts.add(Artifact.parse(line));
+			}
+		}
+	}
+
+	/** Returns every reference whose owner still exists, deleting the records of the owners which don't. */
+	List<Reference> references() throws IOException {
+		List<Reference> references = new ArrayList<>();
+		if (!referencesDir().isDirectory()) {
+			return references;
+		}
+		for (File file : FileMisc.list(referencesDir())) {
+			if (!file.isFile() || file.getName().contains(".tmp-")) {
+				continue;
+			}
+			try {
+				Reference reference = new Reference(file);
+				if (reference.owner.exists()) {
+					references.add(reference);
+				} else {
+					FileMisc.forceDelete(file);
+				}
+			} catch (IOException | IllegalArgumentException e) {
+				logger.warn("Dropping unreadable bundle pool reference " + file, e);
+				FileMisc.forceDelete(file);
+			}
+		}
+		return references;
+	}
+
+	////////
+	// GC //
+	////////
+	/**
+	 * Evicts artifacts from the pool until it is no larger than `maxSize` bytes, and
+	 * returns the artifacts which were evicted.
+	 *
+	 * - Artifacts which aren't used by any reference are evicted first, oldest first.
+	 * - If that isn't enough, the least-recently-used references are evicted along with every artifact that only they use.
+	 * - The pool's `artifacts.xml` is rewritten before any file is deleted, so p2 never sees an artifact which is missing.
+	 */
+	public List<Artifact> gc(long maxSize) throws IOException {
+		try (CacheLock poolLock = CacheLock.exclusive(root);
+				CacheLock referencesLock = CacheLock.exclusive(referencesDir())) {
+			Set<Artifact> all = artifactsOfRepo(root);
+			Map<Artifact, File> locations = new HashMap<>();
+			Map<Artifact, Long> sizes = new HashMap<>();
+			long total = 0;
+			for (Artifact artifact : all) {
+				File location = locate(artifact);
+				if (location != null) {
+					long size = size(location);
+					locations.put(artifact, location);
+					sizes.put(artifact, size);
+					total += size;
+				}
+			}
+			List<Reference> references = references();
+			references.sort(Comparator.comparing(reference -> reference.lastUsed));
+
+			long graceStart = System.currentTimeMillis() - GRACE_MILLIS;
+			Set<Artifact> evicted = new LinkedHashSet<>();
+			while (total > maxSize) {
+				Set<Artifact> inUse = new HashSet<>();
+				references.forEach(reference -> inUse.addAll(reference.artifacts));
+				List<Artifact> unused = locations.keySet().stream()
+						.filter(artifact -> !inUse.contains(artifact) && !evicted.contains(artifact))
+						.filter(artifact -> locations.get(artifact).lastModified() < graceStart)
+						.sorted(Comparator.comparing(artifact -> locations.get(artifact).lastModified()))
+						.collect(Collectors.toList());
+				for (Artifact artifact : unused) {
+					if (total <= maxSize) {
+						break;
+					}
+					evicted.add(artifact);
+					total -= sizes.get(artifact);
+				}
+				if (total <= maxSize || references.isEmpty()) {
+					break;
+				}
+				// evict the least-recently-used reference, so that its artifacts become unused
+				Reference lru = references.remove(0);
+				logger.warn("Evicting " + lru.owner + " from the bundle pool, it will be reprovisioned the next time it is needed.");
+				if (lru.token != null) {
+					FileMisc.forceDelete(lru.token);
+				}
+				FileMisc.forceDelete(lru.record);
+			}
+			if (!evicted.isEmpty()) {
+				removeFromMetadata(evicted);
+				for (Artifact artifact : evicted) {
+					FileMisc.forceDelete(locations.get(artifact));
+				}
+			}
+			logger.info("Evicted " + evicted.size() + " artifacts from " + root + ", which is now " + (total / MB) + "MB");
+			return new ArrayList<>(evicted);
+		}
+	}
+
+	private static final long MB = 1024 * 1024;
+
+	/** Returns the file or folder which holds the given artifact, or null if it isn't in the pool. */
+	@Nullable
+	File locate(Artifact artifact) {
+		String folder = FOLDERS.get(artifact.classifier);
+		if (folder == null) {
+			return null;
+		}
+		String base = folder + "/" + artifact.id + "_" + artifact.version;
+		File jar = new File(root, base + ".jar");
+		if (jar.exists()) {
+			return jar;
+		}
+		File unpacked = new File(root, base);
+		return unpacked.exists() ? unpacked : null;
+	}
+
+	private static long size(File location) throws IOException {
+		if (location.isFile()) {
+			return location.length();
+		}
+		try (Stream<Path> stream = Files.walk(location.toPath())) {
+			return stream.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+		}
+	}
+
+	/** Rewrites the pool's artifacts.jar or artifacts.xml without the given artifacts. */
+	private void removeFromMetadata(Set<Artifact> toRemove) throws IOException {
+		modifyMetadata(artifactsNode -> {
+			for (Element element : children(artifactsNode)) {
+				if (toRemove.contains(artifactOf(element))) {
+					artifactsNode.removeChild(element);
+				}
+			}
+		});
+	}
+
+	/** Adds the given `<artifact>` elements, which may belong to another document, to the pool's metadata.  Must be called with an exclusive lock on the pool. */
+	void addToMetadata(List<Element> toAdd) throws IOException {
+		modifyMetadata(artifactsNode -> {
+			Set<Artifact> present = children(artifactsNode).stream().map(BundlePool::artifactOf).collect(Collectors.toSet());
+			for (Element element : toAdd) {
+				if (present.add(artifactOf(element))) {
+					artifactsNode.appendChild(artifactsNode.getOwnerDocument().importNode(element, true));
+				}
+			}
+		});
+	}
+
+	private static List<Element> children(Element artifactsNode) {
+		NodeList children = artifactsNode.getElementsByTagName("artifact");
+		List<Element> elements = new ArrayList<>(children.getLength());
+		for (int i = 0; i < children.getLength(); ++i) {
+			elements.add((Element) children.item(i));
+		}
+		return elements;
+	}
+
+	static Artifact artifactOf(Element element) {
+		return new Artifact(element.getAttribute("classifier"), element.getAttribute("id"), element.getAttribute("version"));
+	}
+
+	/** Applies the given modification to the `<artifacts>` element of the pool's artifacts.jar or artifacts.xml, and then updates its size and the index. */
+	private void modifyMetadata(Consumer<Element> modification) throws IOException {
+		File jar = new File(root, ARTIFACTS_JAR);
+		boolean isJar = jar.isFile();
+		File metadata = isJar ? jar : new File(root, ARTIFACTS_XML);
+		Document doc = Errors.rethrow().get(() -> {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			if (isJar) {
+				Box.Nullable<Document> result = Box.Nullable.ofNull();
+				ZipMisc.read(jar, ARTIFACTS_XML, input -> result.set(Errors.rethrow().get(() -> factory.newDocumentBuilder().parse(input))));
+				return result.get();
+			} else {
+				return factory.newDocumentBuilder().parse(metadata);
+			}
+		});
+		List<Artifact> result = new ArrayList<>();
+		NodeList artifactsNodes = doc.getElementsByTagName("artifacts");
+		if (artifactsNodes.getLength() > 0) {
+			Element artifactsNode = (Element) artifactsNodes.item(0);
+			modification.accept(artifactsNode);
+			List<Element> remaining = children(artifactsNode);
+			artifactsNode.setAttribute("size", Integer.toString(remaining.size()));
+			remaining.forEach(element -> result.add(artifactOf(element)));
+		}
+		// write to a temp file and then move it into place, so that p2 never sees a half-written file
+		File temp = new File(root, metadata.getName() + ".tmp-" + UUID.randomUUID());
+		try (OutputStream output = new FileOutputStream(temp)) {
+			if (isJar) {
+				ZipOutputStream zip = new ZipOutputStream(output);
+				zip.putNextEntry(new ZipEntry(ARTIFACTS_XML));
+				writeXml(doc, zip);
+				zip.closeEntry();
+				zip.finish();
+			} else {
+				writeXml(doc, output);
+			}
+		}
+		Files.move(temp.toPath(), metadata.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// we already know what's in the new metadata, so there's no need to parse it again
+		BundlePoolIndex.update(this, result);
+	}
+
+	private static void writeXml(Document doc, OutputStream output) {
+		Errors.rethrow().run(() -> {
+			Transformer transformer = TransformerFactory.newInstance().newTransformer();
+			transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+			transformer.transform(new DOMSource(doc), new StreamResult(output));
+		});
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(BundlePool.class);
+}
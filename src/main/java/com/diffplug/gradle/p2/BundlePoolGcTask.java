@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskAction;
+
+import com.diffplug.common.base.Preconditions;
+import com.diffplug.gradle.GoomphCacheLocations;
+
+/**
+ * Shrinks the shared {@link GoomphCacheLocations#bundlePool()} down to
+ * a size cap, using {@link BundlePool#gc(long)}.
+ *
+ * The `p2AsMaven` and `oomphIde` plugins add this task as `goomphCacheGc`.
+ * The cap is 10GB by default, which you can change with `goomphCacheGc.maxSizeMb = 20000`,
+ * or for every build on the machine with the project property `goomph_bundlePoolMaxMb`.
+ */
+public class BundlePoolGcTask extends DefaultTask {
+	public static final String NAME = "goomphCacheGc";
+	static final String MAX_MB_PROPERTY = "goomph_bundlePoolMaxMb";
+	static final long DEFAULT_MAX_MB = 10 * 1024;
+
+	/** Adds the `goomphCacheGc` task to the given project, unless it already has one. */
+	public static void register(Project project) {
+		if (project.getTasks().findByName(NAME) == null) {
+			project.getTasks().create(NAME, BundlePoolGcTask.class, task -> {
+				task.setDescription("Evicts unused and least-recently-used artifacts from the shared bundle pool.");
+				Object maxMb = project.findProperty(MAX_MB_PROPERTY);
+				if (maxMb != null) {
+					task.setMaxSizeMb(Long.parseLong(maxMb.toString()));
+				}
+			});
+		}
+	}
+
+	private long maxSizeMb = DEFAULT_MAX_MB;
+
+	public long getMaxSizeMb() {
+		return maxSizeMb;
+	}
+
+	public void setMaxSizeMb(long maxSizeMb) {
+		Preconditions.checkArgument(maxSizeMb > 0, "maxSizeMb must be positive, was %s", maxSizeMb);
+		this.maxSizeMb = maxSizeMb;
+	}
+
+	@TaskAction
+	public void gc() throws IOException {
+		List<BundlePool.Artifact> evicted = BundlePool.shared().gc(maxSizeMb * 1024 * 1024);
+		getLogger().lifecycle("Evicted " + evicted.size() + " artifacts from " + GoomphCacheLocations.bundlePool());
+	}
+}
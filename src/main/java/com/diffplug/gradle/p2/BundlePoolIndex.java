@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import com.diffplug.gradle.CacheLock;
+import com.diffplug.gradle.p2.BundlePool.Artifact;
+
+/**
+ * An index of the artifacts in a {@link BundlePool}.
+ *
+ * The pool's `artifacts.xml` can be tens of megabytes, so
+ * we only parse it when it has changed, and save the result
+ * as a sorted list of artifact keys in `<pool>/.index`.  The
+ * first line of the index is a stamp of the metadata it was
+ * built from, so a stale index is detected with a single stat.
+ * Every JVM keeps the most recent index in memory.
+ */
+class BundlePoolIndex {
+	static final String INDEX = ".index";
+
+	/** The most recent index for each pool in this JVM. */
+	private static final Map<File, BundlePoolIndex> cache = new ConcurrentHashMap<>();
+
+	final String stamp;
+	private final Set<Artifact> artifacts;
+
+	private BundlePoolIndex(String stamp, Set<Artifact> artifacts) {
+		this.stamp = stamp;
+		this.artifacts = artifacts;
+	}
+
+	/** Returns true if the given artifact is in the pool. */
+	boolean contains(Artifact artifact) {
+		return artifacts.contains(artifact);
+	}
+
+	/** Returns the number of artifacts in the pool. */
+	int size() {
+		return artifacts.size();
+	}
+
+	/** Returns the up-to-date index for the given pool, from memory, from disk, or by parsing the pool's metadata, in that order. */
+	static BundlePoolIndex of(BundlePool pool) throws IOException {
+		String stamp = stamp(pool);
+		BundlePoolIndex inMemory = cache.get(pool.root);
+		if (inMemory != null && inMemory.stamp.equals(stamp)) {
+			return inMemory;
+		}
+		BundlePoolIndex index = read(pool, stamp);
+		if (index == null) {
+			// a writer might be halfway through rewriting the metadata, so we parse it under the pool's read lock
+			try (CacheLock lock = CacheLock.shared(pool.root)) {
+				String lockedStamp = stamp(pool);
+				// another build might have indexed it while we waited
+				index = read(pool, lockedStamp);
+				if (index == null) {
+					index = new BundlePoolIndex(lockedStamp, BundlePool.artifactsOfRepo(pool.root));
+					write(pool, index);
+				}
+			}
+		}
+		cache.put(pool.root, index);
+		return index;
+	}
+
+	/** Saves an index of the given artifacts, which must match the pool's current metadata. */
+	static void update(BundlePool pool, Collection<Artifact> artifacts) throws IOException {
+		BundlePoolIndex index = new BundlePoolIndex(stamp(pool), new HashSet<>(artifacts));
+		write(pool, index);
+		cache.put(pool.root, index);
+	}
+
+	/** Returns a stamp which changes whenever the pool's metadata changes. */
+	static String stamp(BundlePool pool) {
+		for (String name : new String[]{BundlePool.ARTIFACTS_JAR, BundlePool.ARTIFACTS_XML}) {
+			File metadata = new File(pool.root, name);
+			if (metadata.isFile()) {
+				return name + " " + metadata.length() + " " + metadata.lastModified();
+			}
+		}
+		return "empty";
+	}
+
+	@Nullable
+	private static BundlePoolIndex read(BundlePool pool, String stamp) throws IOException {
+		File file = new File(pool.root, INDEX);
+		if (!file.isFile()) {
+			return null;
+		}
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		if (lines.isEmpty() || !lines.get(0).equals(stamp)) {
+			return null;
+		}
+		Set<Artifact> artifacts = new HashSet<>(lines.size());
+		try {
+			for (String line : lines.subList(1, lines.size())) {
+				artifacts.add(Artifact.parse(line));
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return new BundlePoolIndex(stamp, artifacts);
+	}
+
+	private static void write(BundlePool pool, BundlePoolIndex index) throws IOException {
+		if (!pool.root.isDirectory()) {
+			return;
+		}
+		List<String> lines = new ArrayList<>(index.artifacts.size() + 1);
+		lines.add(index.stamp);
+		index.artifacts.stream().map(Artifact::toString).sorted().forEach(lines::add);
+		// other builds might be reading the index, so we replace it atomically
+		File temp = new File(pool.root, INDEX + ".tmp-" + UUID.randomUUID());
+		Files.write(temp.toPath(), lines, StandardCharsets.UTF_8);
+		Files.move(temp.toPath(), new File(pool.root, INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * Stores files by the SHA-256 of their content, and places
+ * them elsewhere using hard links, so that a jar which appears
+ * in the p2 repo and the maven repo of several groups is only
+ * stored on disk once.
+ *
+ * If the filesystem doesn't support hard links, files are
+ * copied instead, and the store itself is left empty.
+ */
+class ContentAddressedStore {
+	final File root;
+	/** Set once we find out that the filesystem can't hard link, after which every file is copied in a single pass. */
+	private volatile boolean copyOnly;
+
+	ContentAddressedStore(File root) {
+		this.root = Objects.requireNonNull(root);
+	}
+
+	/** Places a file with the same content as `src` at `dst`, which must not exist, and returns the digests of that content. */
+	public Digests place(File src, File dst) throws IOException {
+		if (copyOnly) {
+			return Digests.copy(src, dst);
+		}
+		Digests digests = Digests.copy(src, null);
+		String hash = digests.sha256;
+		File stored = new File(root, hash.substring(0, 2) + "/" + hash);
+		if (!stored.isFile()) {
+			FileMisc.mkdirs(stored.getParentFile());
+			try {
+				Files.createLink(stored.toPath(), src.toPath());
+			} catch (FileAlreadyExistsException e) {
+				// someone else stored it first, which is fine
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				// no hard links here, so the store would just be another copy
+				copyOnly = true;
+				Files.copy(src.toPath(), dst.toPath());
+				return digests;
+			}
+		}
+		FileMisc.linkOrCopy(stored, dst);
+		return digests;
+	}
+
+	/**
+	 * Deletes every stored file which is no longer linked from anywhere else.
+	 * Does nothing on filesystems which don't report their link count.
+	 */
+	public void prune() throws IOException {
+		if (!root.isDirectory()) {
+			return;
+		}
+		for (File prefix : FileMisc.list(root)) {
+			for (File stored : FileMisc.list(prefix)) {
+				Object linkCount;
+				try {
+					linkCount = Files.getAttribute(stored.toPath(), "unix:nlink");
+				} catch (UnsupportedOperationException | IllegalArgumentException e) {
+					return;
+				}
+				if (linkCount instanceof Integer && (Integer) linkCount <= 1) {
+					FileMisc.forceDelete(stored);
+				}
+			}
+		}
+		FileMisc.deleteEmptyFolders(root);
+	}
+}
@@ -23,6 +23,7 @@ import org.gradle.api.Project;
 import com.diffplug.common.swt.os.SwtPlatform;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.eclipserunner.EclipseApp;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 
 /**
  * Models the FeaturesAndBundlesPublisher application ([eclipse docs](https://wiki.eclipse.org/Equinox/p2/Publisher#Features_And_Bundles_Publisher_Application)).
@@ -91,4 +92,9 @@ public class FeaturesAndBundlesPublisher extends EclipseApp {
 	public void runUsingBootstrapper(Project project) throws Exception {
 		runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project));
 	}
+
+	/** Runs this application within the given session, which should be opened by {@link P2Model#openBootstrapSession()}. */
+	public void runUsingBootstrapper(EclipseSession session) throws Exception {
+		runUsing(session);
+	}
 }
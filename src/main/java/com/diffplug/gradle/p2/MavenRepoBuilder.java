@@ -19,28 +19,64 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import org.osgi.framework.Version;
 
 import groovy.util.Node;
 import groovy.xml.XmlUtil;
 
+import com.diffplug.common.base.Errors;
 import com.diffplug.common.collect.HashMultimap;
+import com.diffplug.common.collect.Maps;
 import com.diffplug.common.collect.Multimap;
+import com.diffplug.gradle.Digests;
 import com.diffplug.gradle.FileMisc;
 
 /** Builds a maven repo out of a p2 repository. */
 class MavenRepoBuilder implements AutoCloseable {
 	final File root;
+	final boolean incremental;
+	@Nullable
+	final ContentAddressedStore store;
 	final Multimap<Coordinate, Artifact> artifactMap = HashMultimap.create();
+	/** Every group which was installed into, even if it ended up without any artifacts. */
+	final Set<String> groups = new HashSet<>();
+	/** Whether jars are parsed and placed on multiple cores.  The output is identical either way. */
+	boolean parallel = true;
+	/** Whether POMs are written, with dependencies from `Require-Bundle`. */
+	boolean pomRequireBundle = false;
+	/** Whether POMs are written, with dependencies from `Require-Bundle` and from `Import-Package` matched against `Export-Package` within the group. */
+	boolean pomImportPackage = false;
+	/** Every coordinate gets the same timestamp, so that the output doesn't depend on the order it was written in. */
+	long lastUpdated = System.currentTimeMillis();
 
 	MavenRepoBuilder(File root) throws Exception {
+		this(root, false, null);
+	}
+
+	/**
+	 * @param incremental if true, coordinates whose artifacts are already in place are left untouched,
+	 * and coordinates within the installed groups which were not installed are deleted.
+	 * @param store if non-null, artifacts are placed by hard-linking them through this store rather than copying them.
+	 */
+	MavenRepoBuilder(File root, boolean incremental, @Nullable ContentAddressedStore store) throws Exception {
 		this.root = Objects.requireNonNull(root);
+		this.incremental = incremental;
+		this.store = store;
 	}
 
 	/**
@@ -50,23 +86,156 @@ class MavenRepoBuilder implements AutoCloseable {
 	 * from Bundle-Version, and the source for Eclipse-SourceBundle.
 	 */
 	public void install(String group, File osgiJar) throws Exception {
+		groups.add(group);
+		Map.Entry<Coordinate, Artifact> parsed = parse(group, osgiJar);
+		artifactMap.put(parsed.getKey(), parsed.getValue());
+	}
+
+	/** Installs all of the given OSGi jars into the given group, parsing their manifests in parallel. */
+	public void installAll(String group, Collection<File> osgiJars) throws Exception {
+		groups.add(group);
+		List<Map.Entry<Coordinate, Artifact>> parsed = stream(osgiJars)
+				.map(osgiJar -> Errors.rethrow().get(() -> parse(group, osgiJar)))
+				.collect(Collectors.toList());
+		for (Map.Entry<Coordinate, Artifact> entry : parsed) {
+			artifactMap.put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static Map.Entry<Coordinate, Artifact> parse(String group, File osgiJar) throws Exception {
 		ParsedJar parsed = ParsedJar.parse(osgiJar);
-		artifactMap.put(new Coordinate(group, parsed.getSymbolicName()),
-				new Artifact(Version.parseVersion(parsed.getVersion()), parsed.isSource(), osgiJar));
+		return Maps.immutableEntry(new Coordinate(group, parsed.getSymbolicName()),
+				new Artifact(Version.parseVersion(parsed.getVersion()), parsed.isSource(), osgiJar, parsed));
+	}
+
+	private <T> Stream<T> stream(Collection<T> collection) {
+		return parallel ? collection.parallelStream() : collection.stream();
 	}
 
 	@Override
 	public void close() throws Exception {
-		for (Coordinate coord : artifactMap.keySet()) {
+		BundleDependencies dependencies = pomRequireBundle || pomImportPackage ? new BundleDependencies(artifactMap.asMap(), pomImportPackage) : null;
+		// each coordinate is written to its own folder, so they can all be written at once
+		stream(artifactMap.keySet()).forEach(coord -> Errors.rethrow().run(() -> {
 			File groupFolder = new File(root, coord.group);
 			File artifactFolder = new File(groupFolder, coord.artifactId);
-			FileMisc.mkdirs(artifactFolder);
 			Collection<Artifact> values = artifactMap.get(coord);
-			install(artifactFolder, coord, values);
+			Map<String, String> poms = dependencies == null ? Collections.emptyMap() : poms(coord, values, dependencies);
+			if (incremental) {
+				if (isUpToDate(artifactFolder, coord, values, poms)) {
+					return;
+				}
+				FileMisc.forceDelete(artifactFolder);
+			}
+			FileMisc.mkdirs(artifactFolder);
+			install(artifactFolder, coord, values, poms);
+		}));
+		if (incremental) {
+			// remove the coordinates which are no longer present, including every coordinate of a group which is now empty
+			for (String group : groups) {
+				for (File artifactFolder : FileMisc.list(new File(root, group))) {
+					if (!artifactMap.containsKey(new Coordinate(group, artifactFolder.getName()))) {
+						FileMisc.forceDelete(artifactFolder);
+					}
+				}
+			}
+		}
+	}
+
+	/** Returns true if the given artifact folder contains exactly the given artifacts, poms, and its metadata. */
+	private static boolean isUpToDate(File artifactFolder, Coordinate coord, Collection<Artifact> artifacts, Map<String, String> poms) throws IOException {
+		if (!new File(artifactFolder, MAVEN_METADATA).isFile()) {
+			return false;
+		}
+		Set<String> expected = new HashSet<>();
+		expected.add(MAVEN_METADATA);
+		Collections.addAll(expected, Digests.sidecars(MAVEN_METADATA));
+		for (Map.Entry<String, String> pom : poms.entrySet()) {
+			File file = new File(artifactFolder, pom.getKey());
+			if (!file.isFile() || !Arrays.equals(Files.readAllBytes(file.toPath()), pom.getValue().getBytes(StandardCharsets.UTF_8))) {
+				return false;
+			}
+			expected.add(pom.getKey());
+			Collections.addAll(expected, Digests.sidecars(pom.getKey()));
+		}
+		for (Artifact artifact : artifacts) {
+			String path = artifact.version.toString() + "/" + fileName(coord, artifact);
+			File file = new File(artifactFolder, path);
+			if (!file.isFile() || file.length() != artifact.jar.length()) {
+				return false;
+			}
+			// a rebuilt bundle can have the same version and size, so compare content
+			if (!Digests.copy(artifact.jar, null).sha256.equals(Digests.readSha256(file))) {
+				return false;
+			}
+			expected.add(path);
+			Collections.addAll(expected, Digests.sidecars(path));
+		}
+		Set<String> actual = new HashSet<>();
+		for (File child : FileMisc.list(artifactFolder)) {
+			if (child.isDirectory()) {
+				for (File versioned : FileMisc.list(child)) {
+					actual.add(child.getName() + "/" + versioned.getName());
+				}
+			} else {
+				actual.add(child.getName());
+			}
+		}
+		return expected.equals(actual);
+	}
+
+	private static final String MAVEN_METADATA = "maven-metadata.xml";
+
+	/** Returns the filename of the given artifact within its version folder. */
+	private static String fileName(Coordinate coord, Artifact artifact) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(coord.artifactId);
+		builder.append('-');
+		builder.append(artifact.version.toString());
+		if (artifact.isSources) {
+			builder.append("-sources");
+		}
+		builder.append(".jar");
+		return builder.toString();
+	}
+
+	/** Returns the content of the POM for every version of the given coordinate, keyed by its path within the artifact folder. */
+	private static Map<String, String> poms(Coordinate coord, Collection<Artifact> artifacts, BundleDependencies dependencies) {
+		Map<String, String> poms = new HashMap<>();
+		for (Artifact artifact : artifacts) {
+			String path = artifact.version.toString() + "/" + coord.artifactId + "-" + artifact.version.toString() + ".pom";
+			if (artifact.isSources) {
+				poms.putIfAbsent(path, pom(coord, artifact.version, Collections.emptyMap()));
+			} else {
+				poms.put(path, pom(coord, artifact.version, dependencies.dependenciesOf(coord, artifact)));
+			}
 		}
+		return poms;
 	}
 
-	private void install(File artifactFolder, Coordinate coord, Collection<Artifact> artifacts) throws IOException {
+	@SuppressWarnings("unchecked")
+	private static String pom(Coordinate coord, Version version, Map<Coordinate, Version> dependencies) {
+		Node project = new Node(null, "project");
+		project.attributes().put("xmlns", "http://maven.apache.org/POM/4.0.0");
+		project.attributes().put("xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+		project.attributes().put("xsi:schemaLocation", "http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd");
+		new Node(project, "modelVersion").setValue("4.0.0");
+		new Node(project, "groupId").setValue(coord.group);
+		new Node(project, "artifactId").setValue(coord.artifactId);
+		new Node(project, "version").setValue(version.toString());
+		if (!dependencies.isEmpty()) {
+			Node dependenciesNode = new Node(project, "dependencies");
+			dependencies.forEach((dependency, dependencyVersion) -> {
+				Node dependencyNode = new Node(dependenciesNode, "dependency");
+				new Node(dependencyNode, "groupId").setValue(dependency.group);
+				new Node(dependencyNode, "artifactId").setValue(dependency.artifactId);
+				new Node(dependencyNode, "version").setValue(dependencyVersion.toString());
+			});
+		}
+		return FileMisc.toUnixNewline(XmlUtil.serialize(project));
+	}
+
+	private void install(File artifactFolder, Coordinate coord, Collection<Artifact> artifacts, Map<String, String> poms) throws IOException {
 		List<Version> allVersions = artifacts.stream()
 				.map(artifact -> artifact.version)
 				.distinct().sorted().collect(Collectors.toList());
@@ -81,27 +250,38 @@ class MavenRepoBuilder implements AutoCloseable {
 		for (Version version : allVersions) {
 			new Node(versions, "version").setValue(version.toString());
 		}
-		new Node(versioning, "lastUpdated").setValue(System.currentTimeMillis());
+		new Node(versioning, "lastUpdated").setValue(lastUpdated);
 		// create the metadata file
 		String mavenMetadataContent = FileMisc.toUnixNewline(XmlUtil.serialize(metadata));
-		File mavenMetadata = new File(artifactFolder, "maven-metadata.xml");
-		Files.write(mavenMetadata.toPath(), mavenMetadataContent.getBytes(StandardCharsets.UTF_8));
-		// write out the artifacts
+		write(new File(artifactFolder, MAVEN_METADATA), mavenMetadataContent);
+		// write out the poms
+		for (Map.Entry<String, String> pom : poms.entrySet()) {
+			File pomFile = new File(artifactFolder, pom.getKey());
+			FileMisc.mkdirs(pomFile.getParentFile());
+			write(pomFile, pom.getValue());
+		}
+		// write out the artifacts, hashing them as they're placed
 		for (Artifact artifact : artifacts) {
-			StringBuilder builder = new StringBuilder();
-			builder.append(coord.artifactId);
-			builder.append('-');
-			builder.append(artifact.version.toString());
-			if (artifact.isSources) {
-				builder.append("-sources");
-			}
-			builder.append(".jar");
 			File versionFolder = new File(artifactFolder, artifact.version.toString());
 			FileMisc.mkdirs(versionFolder);
-			Files.copy(artifact.jar.toPath(), new File(versionFolder, builder.toString()).toPath());
+			File dst = new File(versionFolder, fileName(coord, artifact));
+			Digests digests;
+			if (store == null) {
+				digests = Digests.copy(artifact.jar, dst);
+			} else {
+				digests = store.place(artifact.jar, dst);
+			}
+			digests.writeSidecars(dst);
 		}
 	}
 
+	/** Writes the given content and its checksum sidecars. */
+	private static void write(File file, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		Files.write(file.toPath(), bytes);
+		Digests.of(bytes).writeSidecars(file);
+	}
+
 	static class Coordinate {
 		final String group;
 		final String artifactId;
@@ -131,11 +311,13 @@ class MavenRepoBuilder implements AutoCloseable {
 		final Version version;
 		final boolean isSources;
 		final File jar;
+		final ParsedJar manifest;
 
-		public Artifact(Version version, boolean isSources, File jar) {
+		public Artifact(Version version, boolean isSources, File jar, ParsedJar manifest) {
 			this.version = Objects.requireNonNull(version);
 			this.isSources = isSources;
 			this.jar = Objects.requireNonNull(jar);
+			this.manifest = Objects.requireNonNull(manifest);
 		}
 
 		// Comparison and equality based on version and classifier, but not jar
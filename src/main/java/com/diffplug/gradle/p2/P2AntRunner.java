@@ -15,12 +15,18 @@
  */
 package com.diffplug.gradle.p2;
 
+import java.io.File;
+
+import javax.annotation.Nullable;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
 
 import groovy.util.Node;
 
 import com.diffplug.gradle.eclipserunner.EclipseApp;
+import com.diffplug.gradle.eclipserunner.EclipseRunner;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 import com.diffplug.gradle.pde.EclipseRelease;
 import com.diffplug.gradle.pde.PdeInstallation;
 
@@ -45,6 +51,15 @@ public class P2AntRunner extends EclipseApp.AntRunner {
 
 	protected P2AntRunner() {}
 
+	/** The bundle pool which this task reads from, which is locked while it runs. */
+	@Nullable
+	File readsBundlePool;
+
+	@Override
+	public void runUsing(EclipseRunner runner) throws Exception {
+		P2Model.lockBundlePools(readsBundlePool, null, () -> super.runUsing(runner));
+	}
+
 	/** Runs this application, downloading a small bootstrapper if necessary. */
 	public void runUsingBootstrapper() throws Exception {
 		runUsing(P2BootstrapInstallation.latest().outsideJvmRunner());
@@ -55,6 +70,11 @@ public class P2AntRunner extends EclipseApp.AntRunner {
 		runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project));
 	}
 
+	/** Runs this application within the given session, which should be opened by {@link P2Model#openBootstrapSession()}. */
+	public void runUsingBootstrapper(EclipseSession session) throws Exception {
+		runUsing(session);
+	}
+
 	/** Runs this application, using PDE as specified by {@link PdeInstallation#fromProject(Project)}. */
 	public void runUsingPDE(Project project) throws Exception {
 		runUsing(PdeInstallation.fromProject(project));
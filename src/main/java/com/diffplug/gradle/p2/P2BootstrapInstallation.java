@@ -16,21 +16,26 @@
 package com.diffplug.gradle.p2;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URL;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 
-import org.apache.commons.io.FileUtils;
+import javax.annotation.Nullable;
+
 import org.gradle.api.Project;
 
 import com.diffplug.common.base.Preconditions;
 import com.diffplug.common.collect.ImmutableSet;
+import com.diffplug.gradle.CacheLock;
+import com.diffplug.gradle.DownloadMisc;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
-import com.diffplug.gradle.ZipMisc;
+import com.diffplug.gradle.GoomphProperties;
 import com.diffplug.gradle.eclipserunner.EclipseRunner;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 import com.diffplug.gradle.eclipserunner.JarFolderRunner;
+import com.diffplug.gradle.eclipserunner.JarFolderRunnerDaemon;
 import com.diffplug.gradle.eclipserunner.JarFolderRunnerExternalJvm;
 import com.diffplug.gradle.pde.EclipseRelease;
 
@@ -65,8 +70,16 @@ class P2BootstrapInstallation {
 
 	/** Makes sure that the installation is prepared. */
 	void ensureInstalled() throws IOException {
-		if (!isInstalled()) {
-			install();
+		try (CacheLock lock = CacheLock.shared(getRootFolder())) {
+			if (isInstalled()) {
+				return;
+			}
+		}
+		// p2AsMaven groups and other builds may be running in parallel, so only one of them should install
+		try (CacheLock lock = CacheLock.exclusive(getRootFolder())) {
+			if (!isInstalled()) {
+				install();
+			}
 		}
 	}
 
@@ -80,29 +93,17 @@ class P2BootstrapInstallation {
 	/** Installs the bootstrap installation. */
 	private void install() throws IOException {
 		System.out.print("Installing p2 bootstrap " + release + "... ");
-		// clean the install folder
-		FileMisc.cleanDir(getRootFolder());
-		// download the URL
-		File target = new File(getRootFolder(), DOWNLOAD_FILE);
-		try {
-			obtainBootstrap(GoomphCacheLocations.p2bootstrapUrl().orElse(DOWNLOAD_ROOT) + release.version() + DOWNLOAD_FILE, target);
-		} catch (FileNotFoundException ex) {
-			//try versioned artifact - Common when boostrap is on a maven type(sonatype nexus, etc.) repository.
-			obtainBootstrap(GoomphCacheLocations.p2bootstrapUrl().orElse(DOWNLOAD_ROOT) + release.version() + String.format(VERSIONED_DOWNLOAD_FILE, release.version()), target);
-		}
-		// unzip it
-		ZipMisc.unzip(target, target.getParentFile());
-		// delete the zip
-		FileMisc.forceDelete(target);
-		FileMisc.writeToken(getRootFolder(), TOKEN);
+		String root = GoomphCacheLocations.p2bootstrapUrl().orElse(DOWNLOAD_ROOT) + release.version();
+		FileMisc.installAtomically(getRootFolder(), folder -> {
+			DownloadMisc.downloadAndUnzip(Arrays.asList(
+					root + DOWNLOAD_FILE,
+					//try versioned artifact - Common when boostrap is on a maven type(sonatype nexus, etc.) repository.
+					root + String.format(VERSIONED_DOWNLOAD_FILE, release.version())), folder);
+			FileMisc.writeToken(folder, TOKEN);
+		});
 		System.out.print("Success.");
 	}
 
-	private void obtainBootstrap(String bootstrapUrl, File target) throws IOException {
-		URL url = new URL(bootstrapUrl);
-		FileUtils.copyURLToFile(url, target);
-	}
-
 	/**
 	 * Creates a model containing p2-director for the given {@link EclipseRelease}.
 	 *
@@ -138,6 +139,12 @@ class P2BootstrapInstallation {
 		};
 	}
 
+	/** Returns a session which runs apps within this JVM, using a single framework for all of them. */
+	public EclipseSession session() throws IOException {
+		ensureInstalled();
+		return new EclipseSession(getRootFolder());
+	}
+
 	/** Returns an EclipseArgsBuilder.Runner which runs outside this JVM. */
 	public EclipseRunner outsideJvmRunner() throws IOException {
 		return args -> {
@@ -148,12 +155,44 @@ class P2BootstrapInstallation {
 
 	/** Returns an EclipseArgsBuilder.Runner which runs outside this JVM. */
 	public EclipseRunner outsideJvmRunner(Project project) throws IOException {
+		return outsideJvmRunner(project, null);
+	}
+
+	/**
+	 * Returns an EclipseArgsBuilder.Runner which runs outside this JVM, with its console output
+	 * redirected to the given stream (or the console if it is null).
+	 *
+	 * If the project sets `goomph_p2daemon=true`, the runner reuses a {@link JarFolderRunnerDaemon}
+	 * which keeps this installation warm between calls, rather than starting a new JVM every time.
+	 */
+	public EclipseRunner outsideJvmRunner(Project project, @Nullable OutputStream output) throws IOException {
 		return args -> {
 			ensureInstalled();
-			new JarFolderRunnerExternalJvm(getRootFolder(), project).run(args);
+			if (useDaemon(project)) {
+				JarFolderRunnerDaemon runner = new JarFolderRunnerDaemon(getRootFolder(), project);
+				runner.setOutput(output);
+				runner.run(args);
+			} else {
+				JarFolderRunnerExternalJvm runner = new JarFolderRunnerExternalJvm(getRootFolder(), project);
+				runner.setOutput(output);
+				runner.run(args);
+			}
 		};
 	}
 
+	static final String DAEMON_PROPERTY = "goomph_p2daemon";
+
+	private static boolean useDaemon(Project project) {
+		return GoomphProperties.isOptedIn(project, DAEMON_PROPERTY);
+	}
+
+	static final String SESSION_PROPERTY = "goomph_p2session";
+
+	/** Returns true if the project sets `goomph_p2session=true`, which runs a sequence of apps in a single {@link EclipseSession} within this JVM. */
+	static boolean useSession(Project project) {
+		return GoomphProperties.isOptedIn(project, SESSION_PROPERTY);
+	}
+
 	/* Exception if you run two P2 tasks back to back.
 	!SESSION 2016-06-16 15:52:15.882 -----------------------------------------------
 	eclipse.buildId=unknown
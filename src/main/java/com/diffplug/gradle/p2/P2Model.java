@@ -16,12 +16,16 @@
 package com.diffplug.gradle.p2;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
@@ -32,11 +36,14 @@ import com.diffplug.common.base.Consumers;
 import com.diffplug.common.base.Errors;
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.common.base.Throwing;
+import com.diffplug.common.collect.Iterables;
 import com.diffplug.common.swt.os.SwtPlatform;
+import com.diffplug.gradle.CacheLock;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
 import com.diffplug.gradle.eclipserunner.EclipseApp;
 import com.diffplug.gradle.eclipserunner.EclipseRunner;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 import com.diffplug.gradle.pde.EclipseRelease;
 
 /**
@@ -45,6 +52,7 @@ import com.diffplug.gradle.pde.EclipseRelease;
  * 
  * - Install with p2 director using {@link #directorApp(File, String)}.
  * - Mirror with the ant p2 mirror task using {@link #mirrorApp(File)}.
+ * - Run several apps against a single OSGi framework using {@link #openBootstrapSession()}.
  */
 public class P2Model implements Serializable {
 	private static final long serialVersionUID = 6458767795698285906L;
@@ -129,10 +137,26 @@ public class P2Model implements Serializable {
 		addIU(feature + FEATURE_GROUP, version);
 	}
 
+	public Set<String> getIUs() {
+		return ius;
+	}
+
 	public Set<String> getRepos() {
 		return repos;
 	}
 
+	public Set<String> getMetadataRepos() {
+		return metadataRepos;
+	}
+
+	public Set<String> getArtifactRepos() {
+		return artifactRepos;
+	}
+
+	public Map<String, String> getSlicingOptions() {
+		return slicingOptions;
+	}
+
 	public void addRepoEclipse(String release) {
 		addRepo(EclipseRelease.official(release).updateSite());
 	}
@@ -161,6 +185,58 @@ public class P2Model implements Serializable {
 		addArtifactRepo(FileMisc.asUrl(repo));
 	}
 
+	/**
+	 * Returns a copy of this model which never touches the network.  Remote
+	 * repositories are served only from what {@link P2RepoProxy#shared()} has
+	 * already cached, and the bundle pool is added as an artifact repository.
+	 *
+	 * Fails right away, with a list of the IUs which can't be found in the cached metadata,
+	 * rather than letting p2 find out the hard way.
+	 */
+	public P2Model offline() throws IOException {
+		return offline(P2RepoProxy.sharedOffline());
+	}
+
+	/** Returns a copy of this model which is served only from what the given offline proxy has cached. */
+	P2Model offline(P2RepoProxy proxy) throws IOException {
+		Set<String> available = new HashSet<>();
+		for (String repo : Iterables.concat(repos, metadataRepos)) {
+			Set<String> units = proxy.cachedUnits(repo);
+			if (units == null) {
+				// we can't tell what's in this repo, so p2 will have to find out
+				available = null;
+				break;
+			}
+			available.addAll(units);
+		}
+		if (available != null) {
+			Set<String> availableIds = available.stream().map(unit -> unit.substring(0, unit.indexOf('/'))).collect(Collectors.toSet());
+			List<String> missing = new ArrayList<>();
+			for (String iu : ius) {
+				if (!(iu.indexOf('/') == -1 ? availableIds.contains(iu) : available.contains(iu))) {
+					missing.add(iu);
+				}
+			}
+			if (!missing.isEmpty()) {
+				throw new IllegalStateException("Gradle is offline, and these IUs aren't in the cached p2 metadata: " + missing);
+			}
+		}
+		P2Model offline = proxiedBy(proxy);
+		offline.addArtifactRepoBundlePool();
+		return offline;
+	}
+
+	/** Returns a copy of this model whose remote repositories are fetched through the given caching proxy. */
+	public P2Model proxiedBy(P2RepoProxy proxy) {
+		P2Model copy = copy();
+		for (Set<String> urls : Arrays.asList(copy.repos, copy.metadataRepos, copy.artifactRepos)) {
+			List<String> proxied = urls.stream().map(proxy::url).collect(Collectors.toList());
+			urls.clear();
+			urls.addAll(proxied);
+		}
+		return copy;
+	}
+
 	public void addArtifactRepoBundlePool() {
 		addArtifactRepo(GoomphCacheLocations.bundlePool());
 	}
@@ -197,46 +273,52 @@ public class P2Model implements Serializable {
 	 * If the bundle pool is listed as a dependency and doesn't exist, then we'll make sure it's created.
 	 */
 	private void createBundlePoolIfNecessary() {
-		File cacheFile = GoomphCacheLocations.bundlePool();
-		String url = FileMisc.asUrl(cacheFile);
-		if (!repos.contains(url) && !metadataRepos.contains(url) && !artifactRepos.contains(url)) {
+		File cacheFile = readsBundlePool();
+		if (cacheFile == null) {
 			// if nobody wants the local cache, then we can bail
 			return;
 		}
 
-		// if the cache already exists and has an artifacts.jar/xml, then we're fine and there's nothing to do
-		if (cacheFile.isDirectory()) {
-			for (File child : FileMisc.list(cacheFile)) {
-				if (child.isFile()) {
-					if (child.getName().startsWith("artifacts.")) {
-						return;
-					}
-				}
+		Errors.rethrow().run(() -> new BundlePool(cacheFile).createIfNecessary());
+	}
+
+	/**
+	 * Returns true if every IU in this model is pinned to a version, and its artifact is already in the given pool.
+	 *
+	 * This only consults the pool's index, so it's quick enough to call before fetching any
+	 * metadata.  Note that it doesn't know about the dependencies of the IUs, only the IUs themselves.
+	 */
+	public boolean isSatisfiedBy(BundlePool pool) throws IOException {
+		List<BundlePool.Artifact> artifacts = new ArrayList<>(ius.size());
+		for (String iu : ius) {
+			int slash = iu.indexOf('/');
+			if (slash == -1) {
+				// an unpinned IU might resolve to a newer version than the one we have
+				return false;
+			}
+			artifacts.add(BundlePool.Artifact.ofIU(iu.substring(0, slash), iu.substring(slash + 1)));
+		}
+		return pool.missing(artifacts).isEmpty();
+	}
+
+	/** Returns the local bundle pool if this model reads from it. */
+	@Nullable
+	private File readsBundlePool() {
+		File bundlePool = GoomphCacheLocations.bundlePool();
+		String url = FileMisc.asUrl(bundlePool);
+		return repos.contains(url) || metadataRepos.contains(url) || artifactRepos.contains(url) ? bundlePool : null;
+	}
+
+	/** Locks the bundle pools which are read or written by an app for the duration of its run. */
+	static void lockBundlePools(@Nullable File reads, @Nullable File writes, Throwing.Specific.Runnable<Exception> run) throws Exception {
+		try (CacheLock reading = reads == null || reads.equals(writes) ? null : CacheLock.shared(reads);
+				CacheLock writing = writes == null ? null : CacheLock.exclusive(writes)) {
+			run.run();
+			if (writes != null) {
+				// refresh the index while we still have the lock, so that nobody else has to parse the metadata
+				new BundlePool(writes).index();
 			}
 		}
-		// otherwise, we need to make an empty artifacts repo there
-		// http://stackoverflow.com/questions/11954898/eclipse-empty-testing-update-site
-		Errors.rethrow().run(() -> {
-			// clean the folder
-			FileMisc.cleanDir(cacheFile);
-			// create some token content
-			FileMisc.writeToken(cacheFile, "artifacts.xml", StringPrinter.buildStringFromLines(
-					"<?xml version='1.0' encoding='UTF-8'?>",
-					"<?artifactRepository version='1.1.0'?>",
-					"<repository name='${p2.artifact.repo.name}' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>",
-					"  <properties size='2'>",
-					"    <property name='p2.timestamp' value='1305295295102'/>",
-					"    <property name='p2.system' value='true'/>",
-					"  </properties>",
-					"  <mappings size='3'>",
-					"    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>",
-					"    <rule filter='(&amp; (classifier=binary))' output='${repoUrl}/binary/${id}_${version}'/>",
-					"    <rule filter='(&amp; (classifier=org.eclipse.update.feature))' output='${repoUrl}/features/${id}_${version}.jar'/>",
-					"  </mappings>",
-					"  <artifacts size='0'>",
-					"  </artifacts>",
-					"</repository>"));
-		});
 	}
 
 	///////////////////////
@@ -251,7 +333,7 @@ public class P2Model implements Serializable {
 	@SuppressWarnings("unchecked")
 	public P2AntRunner mirrorApp(File dstFolder) {
 		return performWithoutMissingBundlePool(() -> {
-			return P2AntRunner.create("p2.mirror", taskNode -> {
+			P2AntRunner antTask = P2AntRunner.create("p2.mirror", taskNode -> {
 				sourceNode(taskNode);
 				Node destination = new Node(taskNode, "destination");
 				destination.attributes().put("location", FileMisc.asUrl(dstFolder));
@@ -273,6 +355,8 @@ public class P2Model implements Serializable {
 					slicingOptionsNode(taskNode);
 				}
 			});
+			antTask.readsBundlePool = readsBundlePool();
+			return antTask;
 		});
 	}
 
@@ -304,6 +388,26 @@ public class P2Model implements Serializable {
 		return slicingOptionsNode;
 	}
 
+	///////////////////////
+	// BOOTSTRAP SESSION //
+	///////////////////////
+	/**
+	 * Opens an {@link EclipseSession} against the p2 bootstrapper, downloading it
+	 * if necessary.  The session runs apps within this JVM, and only starts
+	 * the OSGi framework once for all of them.  Only one framework can be open
+	 * in a JVM, so this waits for any other session to be closed.
+	 *
+	 * ```java
+	 * try (EclipseSession session = P2Model.openBootstrapSession()) {
+	 *     model.mirrorApp(mirrorFolder).runUsing(session);
+	 *     repo2runnable.runUsing(session);
+	 * }
+	 * ```
+	 */
+	public static EclipseSession openBootstrapSession() throws Exception {
+		return P2BootstrapInstallation.latest().session().open();
+	}
+
 	////////////////
 	// P2DIRECTOR //
 	////////////////
@@ -314,6 +418,7 @@ public class P2Model implements Serializable {
 	public DirectorApp directorApp(File dstFolder, String profile) {
 		return performWithoutMissingBundlePool(() -> {
 			DirectorApp builder = new DirectorApp();
+			// ignored by a runner which keeps a warm configuration area, see EquinoxLauncher.setWarmConfiguration()
 			builder.clean();
 			builder.consolelog();
 			repos.forEach(repo -> builder.addArg("repository", repo));
@@ -322,6 +427,7 @@ public class P2Model implements Serializable {
 			ius.forEach(iu -> builder.addArg("installIU", iu));
 			builder.addArg("profile", profile);
 			builder.addArg("destination", FileMisc.asUrl(dstFolder));
+			builder.readsBundlePool = readsBundlePool();
 			// deletes cached repository information, which will often include local paths
 			builder.doLast.add(() -> {
 				Path path = dstFolder.toPath().resolve("p2/org.eclipse.equinox.p2.engine/.settings");
@@ -351,6 +457,7 @@ public class P2Model implements Serializable {
 		 */
 		public void bundlepool(File bundlePool) {
 			addArg("bundlepool", bundlePool.getAbsolutePath());
+			writesBundlePool = bundlePool;
 		}
 
 		/** Adds `p2.os`, `p2.ws`, and `p2.arch` arguments. */
@@ -412,11 +519,19 @@ public class P2Model implements Serializable {
 			runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project));
 		}
 
+		/** Runs this application within the given session, which should be opened by {@link P2Model#openBootstrapSession()}. */
+		public void runUsingBootstrapper(EclipseSession session) throws Exception {
+			runUsing(session);
+		}
+
 		final List<Throwing.Runnable> doLast = new ArrayList<>();
+		@Nullable
+		File readsBundlePool, writesBundlePool;
 
 		@Override
 		public void runUsing(EclipseRunner runner) throws Exception {
-			super.runUsing(runner);
+			// other builds may be reading or writing the same bundle pool
+			lockBundlePools(readsBundlePool, writesBundlePool, () -> super.runUsing(runner));
 			for (Throwing.Runnable toRun : doLast) {
 				Errors.constrainTo(Exception.class).run(toRun);
 			}
@@ -0,0 +1,527 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.common.io.ByteStreams;
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GoomphCacheLocations;
+import com.diffplug.gradle.GoomphProperties;
+
+/**
+ * A caching proxy for remote p2 repositories, which runs on the loopback
+ * interface of this JVM and stores everything in {@link GoomphCacheLocations#p2Proxy()}.
+ *
+ * Route a model through it with {@link P2Model#proxiedBy(P2RepoProxy)}, which rewrites
+ * every `http` and `https` repository to a URL like `http://127.0.0.1:<port>/https/download.eclipse.org/releases/photon/`.
+ *
+ * - Repository metadata (`content.*`, `artifacts.*`, `composite*`, `p2.index`) is reused for {@link #setMaxAge(Duration) a while},
+ *   and then revalidated with `ETag` and `Last-Modified`.  Missing metadata is remembered for the same amount of time, since p2 probes for many files which don't exist.
+ * - Everything else is an artifact, which never changes once it has been published, so it is downloaded once and kept forever.
+ * - If the remote server can't be reached, the cached copy is served no matter how old it is.
+ * - Absolute children of composite repositories are rewritten to go through the proxy, and the `p2.mirrorsURL`
+ *   of artifact repositories is disabled, so that artifacts aren't fetched from a mirror behind the proxy's back.
+ *
+ * It is enabled for `p2AsMaven` and `oomphIde` by setting the project property `goomph_p2proxy=true`.
+ * When gradle runs with `--offline`, they use an {@link #setOffline(boolean) offline} proxy instead,
+ * via {@link P2Model#offline()}.
+ */
+public class P2RepoProxy implements AutoCloseable {
+	static final String PROPERTY = "goomph_p2proxy";
+
+	/** Returns true if the given project has opted into the proxy. */
+	public static boolean isEnabled(Project project) {
+		return GoomphProperties.isOptedIn(project, PROPERTY);
+	}
+
+	/**
+	 * Returns the model which the given project should actually run: an {@link P2Model#offline() offline}
+	 * copy if gradle is running with `--offline`, a {@link P2Model#proxiedBy(P2RepoProxy) proxied}
+	 * copy if the project has opted into the proxy, or else the model itself.
+	 */
+	public static P2Model route(Project project, P2Model model) throws IOException {
+		if (project.getGradle().getStartParameter().isOffline()) {
+			return model.offline();
+		} else if (isEnabled(project)) {
+			return model.proxiedBy(shared());
+		} else {
+			return model;
+		}
+	}
+
+	private static P2RepoProxy shared, sharedOffline;
+
+	/** Returns a proxy which caches into {@link GoomphCacheLocations#p2Proxy()}, starting it if necessary.  It lives as long as the JVM. */
+	public static synchronized P2RepoProxy shared() throws IOException {
+		if (shared == null) {
+			shared = new P2RepoProxy(GoomphCacheLocations.p2Proxy());
+			shared.start();
+		}
+		return shared;
+	}
+
+	/** Returns an offline proxy which only serves what {@link #shared()} has already cached. */
+	public static synchronized P2RepoProxy sharedOffline() throws IOException {
+		if (sharedOffline == null) {
+			sharedOffline = new P2RepoProxy(GoomphCacheLocations.p2Proxy());
+			sharedOffline.setOffline(true);
+			sharedOffline.start();
+		}
+		return sharedOffline;
+	}
+
+	final File cacheDir;
+	private long maxAgeMillis = TimeUnit.HOURS.toMillis(1);
+	@Nullable
+	private HttpServer server;
+	@Nullable
+	private ExecutorService executor;
+
+	public P2RepoProxy(File cacheDir) {
+		this.cacheDir = Objects.requireNonNull(cacheDir);
+	}
+
+	/** Sets how long metadata is used before it is revalidated with the remote server.  Defaults to one hour. */
+	public void setMaxAge(Duration maxAge) {
+		this.maxAgeMillis = maxAge.toMillis();
+	}
+
+	/** In offline mode, the proxy serves whatever it has cached, no matter how old, and never touches the network. */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	private volatile boolean offline = false;
+
+	/** Starts listening on an ephemeral port of the loopback interface. */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "goomph-p2-proxy");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	private static final int THREADS = 8;
+
+	/** Returns the URL which proxies the given remote repository, or the URL itself if it isn't `http` or `https`. */
+	public String url(String remote) {
+		Matcher matcher = REMOTE.matcher(remote);
+		if (!matcher.matches()) {
+			return remote;
+		}
+		Objects.requireNonNull(server, "Proxy has not been started");
+		return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/" + matcher.group(1) + "/" + matcher.group(2);
+	}
+
+	private static final Pattern REMOTE = Pattern.compile("(https?)://(.*)");
+
+	@Override
+	public synchronized void close() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+
+	/////////////
+	// SERVING //
+	/////////////
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+			int slash = path.indexOf('/', 1);
+			String scheme = slash == -1 ? "" : path.substring(1, slash);
+			if (!(method.equals("GET") || method.equals("HEAD")) || !(scheme.equals("http") || scheme.equals("https")) || path.contains("/../") || path.endsWith("/")) {
+				exchange.sendResponseHeaders(HTTP_NOT_FOUND, -1);
+				return;
+			}
+			String remote = scheme + "://" + path.substring(slash + 1);
+			File cached = fetch(remote, cacheFile(remote));
+			if (cached == null) {
+				exchange.sendResponseHeaders(HTTP_NOT_FOUND, -1);
+				return;
+			}
+			byte[] rewritten = isComposite(cached.getName()) ? rewriteComposite(cached) : null;
+			long length = rewritten != null ? rewritten.length : cached.length();
+			exchange.getResponseHeaders().set("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(cached.lastModified()).atZone(ZoneOffset.UTC)));
+			if (method.equals("HEAD")) {
+				exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+				exchange.sendResponseHeaders(HTTP_OK, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(HTTP_OK, length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				if (rewritten != null) {
+					output.write(rewritten);
+				} else {
+					Files.copy(cached.toPath(), output);
+				}
+			}
+		} catch (Exception e) {
+			logger.warn("p2 proxy failed to serve " + exchange.getRequestURI(), e);
+			exchange.sendResponseHeaders(HTTP_BAD_GATEWAY, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_NOT_MODIFIED = 304;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_BAD_GATEWAY = 502;
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	/////////////
+	// CACHING //
+	/////////////
+	/** Files which describe a repository, and which can change over time. */
+	static boolean isMetadata(String name) {
+		return name.startsWith("content.") || name.startsWith("artifacts.") || isComposite(name) || name.equals(P2_INDEX);
+	}
+
+	static boolean isComposite(String name) {
+		return name.startsWith("compositeContent.") || name.startsWith("compositeArtifacts.");
+	}
+
+	private static final String P2_INDEX = "p2.index";
+	private static final String META = ".meta";
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String MISSING = "missing";
+
+	/** Returns the file where the given remote url is cached. */
+	File cacheFile(String remote) {
+		Matcher matcher = REMOTE.matcher(remote);
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Not an http or https url: " + remote);
+		}
+		return new File(cacheDir, (matcher.group(1) + "/" + matcher.group(2)).replace(':', '_'));
+	}
+
+	/** Returns the cached copy of the given remote file, fetching or revalidating it if necessary, or null if it doesn't exist. */
+	@Nullable
+	File fetch(String remote, File cached) throws IOException {
+		if (offline) {
+			return cached.isFile() ? cached : null;
+		}
+		boolean metadata = isMetadata(cached.getName());
+		File metaFile = new File(cached.getPath() + META);
+		Properties meta = new Properties();
+		if (metaFile.isFile()) {
+			try (InputStream input = new FileInputStream(metaFile)) {
+				meta.load(input);
+			}
+		}
+		boolean isMissing = Boolean.parseBoolean(meta.getProperty(MISSING));
+		boolean haveCopy = metaFile.isFile() && (isMissing || cached.isFile());
+		if (haveCopy && (!metadata || System.currentTimeMillis() - metaFile.lastModified() < maxAgeMillis)) {
+			return isMissing ? null : cached;
+		}
+
+		try {
+			Properties conditions = isMissing ? new Properties() : meta;
+			HttpURLConnection connection = open(remote, request -> {
+				if (conditions.getProperty(ETAG) != null) {
+					request.setRequestProperty("If-None-Match", conditions.getProperty(ETAG));
+				}
+				if (conditions.getProperty(LAST_MODIFIED) != null) {
+					request.setRequestProperty("If-Modified-Since", conditions.getProperty(LAST_MODIFIED));
+				}
+			});
+			int code = connection.getResponseCode();
+			if (code == HTTP_NOT_MODIFIED && haveCopy) {
+				connection.disconnect();
+				metaFile.setLastModified(System.currentTimeMillis());
+				return cached;
+			} else if (code == HTTP_NOT_FOUND || code == 410) {
+				connection.disconnect();
+				Properties missing = new Properties();
+				missing.setProperty(MISSING, "true");
+				FileMisc.forceDelete(cached);
+				writeMeta(metaFile, missing);
+				return null;
+			} else if (code != HTTP_OK) {
+				connection.disconnect();
+				throw new IOException("HTTP " + code + " for " + remote);
+			}
+			FileMisc.mkdirs(cached.getParentFile());
+			File temp = new File(cached.getParentFile(), cached.getName() + ".tmp-" + UUID.randomUUID());
+			try {
+				try (InputStream input = connection.getInputStream();
+						OutputStream output = new FileOutputStream(temp)) {
+					if (cached.getName().startsWith("artifacts.") || cached.getName().equals(P2_INDEX)) {
+						output.write(rewriteArtifacts(cached.getName(), ByteStreams.toByteArray(input)));
+					} else {
+						ByteStreams.copy(input, output);
+					}
+				}
+				long lastModified = connection.getLastModified();
+				if (lastModified > 0) {
+					temp.setLastModified(lastModified);
+				}
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				FileMisc.forceDelete(temp);
+			}
+			Properties fresh = new Properties();
+			if (connection.getHeaderField("ETag") != null) {
+				fresh.setProperty(ETAG, connection.getHeaderField("ETag"));
+			}
+			if (connection.getHeaderField("Last-Modified") != null) {
+				fresh.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+			}
+			writeMeta(metaFile, fresh);
+			return cached;
+		} catch (IOException e) {
+			if (haveCopy) {
+				// the server is unreachable, so a stale copy is better than nothing
+				logger.info("Using stale " + cached + " because " + remote + " is unavailable", e);
+				return isMissing ? null : cached;
+			}
+			throw e;
+		}
+	}
+
+	/** Opens a GET with the given request headers, following redirects between http and https (which HttpURLConnection won't do on its own). */
+	static HttpURLConnection open(String remote, Consumer<HttpURLConnection> headers) throws IOException {
+		URL url = new URL(remote);
+		for (int i = 0; i < MAX_REDIRECTS; ++i) {
+			URLConnection raw = url.openConnection();
+			if (!(raw instanceof HttpURLConnection)) {
+				throw new FileNotFoundException("Not an http url: " + url);
+			}
+			HttpURLConnection connection = (HttpURLConnection) raw;
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			headers.accept(connection);
+			int code = connection.getResponseCode();
+			String location = connection.getHeaderField("Location");
+			if (code / 100 == 3 && code != HTTP_NOT_MODIFIED && location != null) {
+				connection.disconnect();
+				url = new URL(url, location);
+			} else {
+				return connection;
+			}
+		}
+		throw new IOException("Too many redirects for " + remote);
+	}
+
+	private static final int MAX_REDIRECTS = 5;
+	static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+	private static void writeMeta(File metaFile, Properties meta) throws IOException {
+		FileMisc.mkdirs(metaFile.getParentFile());
+		try (OutputStream output = new FileOutputStream(metaFile)) {
+			meta.store(output, null);
+		}
+	}
+
+	///////////////
+	// REWRITING //
+	///////////////
+	/** Rewrites the absolute children of a composite repository to go through this proxy. */
+	private byte[] rewriteComposite(File cached) throws IOException {
+		return rewriteXml(cached.getName(), Files.readAllBytes(cached.toPath()), xml -> {
+			Matcher matcher = CHILD_LOCATION.matcher(xml);
+			StringBuffer result = new StringBuffer(xml.length());
+			while (matcher.find()) {
+				matcher.appendReplacement(result, Matcher.quoteReplacement(matcher.group(1) + url(matcher.group(2)) + matcher.group(3)));
+			}
+			matcher.appendTail(result);
+			return result.toString();
+		});
+	}
+
+	private static final Pattern CHILD_LOCATION = Pattern.compile("(<child\\s+location\\s*=\\s*['\"])(https?://[^'\"]*)(['\"])");
+
+	/**
+	 * Disables `p2.mirrorsURL` in artifact repositories, and stops `p2.index` from
+	 * preferring `artifacts.xml.xz` and `content.xml.xz`, which we can't rewrite or
+	 * read offline, over their `.jar` and `.xml` forms.
+	 */
+	static byte[] rewriteArtifacts(String name, byte[] content) throws IOException {
+		if (name.equals(P2_INDEX)) {
+			String index = new String(content, StandardCharsets.UTF_8);
+			return index.replace("artifacts.xml.xz,", "").replace("content.xml.xz,", "").getBytes(StandardCharsets.UTF_8);
+		} else if (name.endsWith(".xz")) {
+			return content;
+		} else {
+			return rewriteXml(name, content, xml -> xml.replace("'p2.mirrorsURL'", "'p2.mirrorsURL.disabled'").replace("\"p2.mirrorsURL\"", "\"p2.mirrorsURL.disabled\""));
+		}
+	}
+
+	/** Applies the given function to an xml file, or to every entry of a jar which contains xml. */
+	private static byte[] rewriteXml(String name, byte[] content, UnaryOperator<String> rewrite) throws IOException {
+		if (name.endsWith(".xml")) {
+			return rewrite.apply(new String(content, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+		} else if (name.endsWith(".jar")) {
+			ByteArrayOutputStream result = new ByteArrayOutputStream(content.length);
+			try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(content));
+					ZipOutputStream output = new ZipOutputStream(result)) {
+				ZipEntry entry;
+				while ((entry = input.getNextEntry()) != null) {
+					byte[] entryContent = ByteStreams.toByteArray(input);
+					if (entry.getName().endsWith(".xml")) {
+						entryContent = rewrite.apply(new String(entryContent, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+					}
+					output.putNextEntry(new ZipEntry(entry.getName()));
+					output.write(entryContent);
+					output.closeEntry();
+				}
+			}
+			return result.toByteArray();
+		} else {
+			return content;
+		}
+	}
+
+	/////////////
+	// OFFLINE //
+	/////////////
+	/**
+	 * Returns every IU (as `id/version`) in the given repository, using only
+	 * local files and what this proxy has cached.  Composite repositories are
+	 * followed.  Returns null if some metadata is only cached in a format we
+	 * can't read (`.xz`), in which case we can't say what's missing.
+	 */
+	@Nullable
+	Set<String> cachedUnits(String repo) throws IOException {
+		Set<String> units = new HashSet<>();
+		return collectUnits(repo, units, new HashSet<>()) ? units : null;
+	}
+
+	private boolean collectUnits(String repo, Set<String> units, Set<String> visited) throws IOException {
+		String url = repo.endsWith("/") ? repo : repo + "/";
+		if (!visited.add(url)) {
+			return true;
+		}
+		File dir;
+		if (REMOTE.matcher(url).matches()) {
+			dir = cacheFile(url);
+		} else if (url.startsWith("file:")) {
+			dir = Errors.rethrow().get(() -> new File(new URI(url)));
+		} else {
+			return false;
+		}
+		boolean readable = true;
+		List<String> children = new ArrayList<>();
+		if (parseMetadata(dir, "compositeContent", "child", attributes -> children.add(attributes.getValue("location")))) {
+			for (String child : children) {
+				readable &= collectUnits(new URL(new URL(url), child).toString(), units, visited);
+			}
+		} else if (!parseMetadata(dir, "content", "unit", attributes -> units.add(attributes.getValue("id") + "/" + attributes.getValue("version")))) {
+			readable = !new File(dir, "content.xml.xz").isFile();
+		}
+		return readable;
+	}
+
+	/** Parses `<name>.jar` or `<name>.xml`, calling the consumer for every element with the given name, and returns false if neither exists. */
+	private static boolean parseMetadata(File dir, String name, String element, Consumer<Attributes> consumer) throws IOException {
+		File jar = new File(dir, name + ".jar");
+		File xml = new File(dir, name + ".xml");
+		if (!jar.isFile() && !xml.isFile()) {
+			return false;
+		}
+		try (InputStream raw = new FileInputStream(jar.isFile() ? jar : xml)) {
+			InputStream input = raw;
+			if (jar.isFile()) {
+				ZipInputStream zip = new ZipInputStream(raw);
+				ZipEntry entry;
+				while ((entry = zip.getNextEntry()) != null && !entry.getName().endsWith(".xml")) {}
+				if (entry == null) {
+					return false;
+				}
+				input = zip;
+			}
+			InputStream toParse = input;
+			Errors.rethrow().run(() -> SAXParserFactory.newInstance().newSAXParser().parse(toParse, new DefaultHandler() {
+				@Override
+				public void startElement(String uri, String localName, String qName, Attributes attributes) {
+					if (qName.equals(element)) {
+						consumer.accept(attributes);
+					}
+				}
+			}));
+		}
+		return true;
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(P2RepoProxy.class);
+}
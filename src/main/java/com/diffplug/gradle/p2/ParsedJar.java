@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 
+import javax.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +33,12 @@ public class ParsedJar {
 	private String symbolicName;
 	private String version;
 	private boolean isSource;
+	@Nullable
+	private String requireBundle;
+	@Nullable
+	private String importPackage;
+	@Nullable
+	private String exportPackage;
 
 	public String getSymbolicName() {
 		return symbolicName;
@@ -44,6 +52,24 @@ public class ParsedJar {
 		return isSource;
 	}
 
+	/** The raw `Require-Bundle` header, or null if there isn't one. */
+	@Nullable
+	public String getRequireBundle() {
+		return requireBundle;
+	}
+
+	/** The raw `Import-Package` header, or null if there isn't one. */
+	@Nullable
+	public String getImportPackage() {
+		return importPackage;
+	}
+
+	/** The raw `Export-Package` header, or null if there isn't one. */
+	@Nullable
+	public String getExportPackage() {
+		return exportPackage;
+	}
+
 	public static ParsedJar parse(File file) {
 		try {
 			return new ParsedJar(file);
@@ -72,6 +98,9 @@ public class ParsedJar {
 				} else {
 					isSource = false;
 				}
+				requireBundle = attr.getValue("Require-Bundle");
+				importPackage = attr.getValue("Import-Package");
+				exportPackage = attr.getValue("Export-Package");
 			} else {
 				String name = osgiJar.getName();
 				int lastUnderscore = name.lastIndexOf("_");
@@ -21,6 +21,7 @@ import org.gradle.api.Project;
 
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.eclipserunner.EclipseApp;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 
 /** Models the repo2runnable application. */
 public class Repo2Runnable extends EclipseApp {
@@ -47,4 +48,9 @@ public class Repo2Runnable extends EclipseApp {
 	public void runUsingBootstrapper(Project project) throws Exception {
 		runUsing(P2BootstrapInstallation.latest().outsideJvmRunner(project));
 	}
+
+	/** Runs this application within the given session, which should be opened by {@link P2Model#openBootstrapSession()}. */
+	public void runUsingBootstrapper(EclipseSession session) throws Exception {
+		runUsing(session);
+	}
 }
@@ -16,11 +16,10 @@
 package com.diffplug.gradle.pde;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -34,12 +33,15 @@ import com.diffplug.common.base.Preconditions;
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.common.swt.os.OS;
 import com.diffplug.common.swt.os.SwtPlatform;
+import com.diffplug.gradle.AppCds;
+import com.diffplug.gradle.CacheLock;
+import com.diffplug.gradle.DownloadMisc;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
-import com.diffplug.gradle.ZipMisc;
 import com.diffplug.gradle.eclipserunner.EclipseApp;
 import com.diffplug.gradle.eclipserunner.EclipseRunner;
 import com.diffplug.gradle.eclipserunner.NativeRunner;
+import com.diffplug.gradle.p2.BundlePool;
 import com.diffplug.gradle.p2.P2Model;
 
 /** Wraps a PDE installation for the given eclipse release.*/
@@ -61,8 +63,17 @@ public class PdeInstallation implements EclipseRunner {
 	 *
 	 * You must do one or the other, specify only `VER` for Option #1,
 	 * or specify `VER`, `UPDATE_SITE`, and `ID` for Option #2.
+	 *
+	 * If the project sets `goomph_appCds=true`, PDE's JVM uses a
+	 * class-data-sharing archive (see {@link AppCds}).
 	 */
 	public static PdeInstallation fromProject(Project project) {
+		PdeInstallation installation = fromProjectProperties(project);
+		installation.appCds = AppCds.isEnabled(project);
+		return installation;
+	}
+
+	private static PdeInstallation fromProjectProperties(Project project) {
 		String version = (String) project.getProperties().get("GOOMPH_PDE_VER");
 
 		String deprecatedUpdateSite = (String) project.getProperties().get("GOOMPH_PDE_UDPATE_SITE");
@@ -110,6 +121,7 @@ public class PdeInstallation implements EclipseRunner {
 	}
 
 	final EclipseRelease release;
+	boolean appCds = false;
 
 	public PdeInstallation(EclipseRelease release) {
 		this.release = Objects.requireNonNull(release);
@@ -159,8 +171,16 @@ public class PdeInstallation implements EclipseRunner {
 
 	/** Makes sure that the installation is prepared. */
 	private void ensureInstalled() throws Exception {
-		if (!isInstalled()) {
-			install();
+		try (CacheLock lock = CacheLock.shared(getRootFolder())) {
+			if (isInstalled()) {
+				BundlePool.shared().touchReference(getRootFolder());
+				return;
+			}
+		}
+		try (CacheLock lock = CacheLock.exclusive(getRootFolder())) {
+			if (!isInstalled()) {
+				install();
+			}
 		}
 	}
 
@@ -173,46 +193,37 @@ public class PdeInstallation implements EclipseRunner {
 
 	/** Installs the bootstrap installation. */
 	private void install() throws Exception {
+		// make sure that goomphCacheGc doesn't evict our bundles from the pool
+		BundlePool.shared().installReferenced(getRootFolder(), new File(getRootFolder(), TOKEN), () -> {
+			FileMisc.installAtomically(getRootFolder(), root -> {
+				if (GoomphCacheLocations.pdeBootstrapUrl().isPresent()) {
+					String url = GoomphCacheLocations.pdeBootstrapUrl().get();
+					System.out.print("Installing pde " + release + " from " + url + "... ");
+					DownloadMisc.downloadAndUnzip(Arrays.asList(
+							url + release.version() + DOWNLOAD_FILE,
+							//try versioned artifact - Common when bootstrap is on a maven type(sonatype nexus, etc.) repository.
+							url + release.version() + String.format(VERSIONED_DOWNLOAD_FILE, release.version())), root);
+				} else {
+					System.out.print("Installing pde " + release + "... ");
+					obtainBootstrap(release, root);
+				}
 
-		if (GoomphCacheLocations.pdeBootstrapUrl().isPresent()) {
-			String url = GoomphCacheLocations.pdeBootstrapUrl().get();
-			System.out.print("Installing pde " + release + " from " + url + "... ");
-			File target = new File(getRootFolder(), DOWNLOAD_FILE);
-			try {
-				obtainBootstrap(url + release.version() + DOWNLOAD_FILE, target);
-			} catch (FileNotFoundException ex) {
-				//try versioned artifact - Common when bootstrap is on a maven type(sonatype nexus, etc.) repository.
-				obtainBootstrap(url + release.version() + String.format(VERSIONED_DOWNLOAD_FILE, release.version()), target);
-			}
-			// unzip it
-			ZipMisc.unzip(target, target.getParentFile());
-			// delete the zip
-			FileMisc.forceDelete(target);
-		} else {
-			System.out.print("Installing pde " + release + "... ");
-			obtainBootstrap(release);
-		}
-
-		// parse out the pde.build version
-		File bundleInfo = new File(getContentsEclipse(), "configuration/org.eclipse.equinox.simpleconfigurator/bundles.info");
-		Preconditions.checkArgument(bundleInfo.isFile(), "Needed to find the pde.build folder: %s", bundleInfo);
-		String pdeBuildLine = Files.readAllLines(bundleInfo.toPath()).stream().filter(line -> line.startsWith("org.eclipse.pde.build,")).findFirst().get();
-		String pdeBuildVersion = pdeBuildLine.split(",")[1];
-		// find the plugins folder
-		pdeBuildFolder = new File(GoomphCacheLocations.bundlePool(), "plugins/org.eclipse.pde.build_" + pdeBuildVersion);
-		FileMisc.writeToken(getRootFolder(), TOKEN, pdeBuildFolder.getAbsolutePath());
+				// parse out the pde.build version
+				File bundleInfo = new File(getContentsEclipse(root), "configuration/org.eclipse.equinox.simpleconfigurator/bundles.info");
+				Preconditions.checkArgument(bundleInfo.isFile(), "Needed to find the pde.build folder: %s", bundleInfo);
+				String pdeBuildLine = Files.readAllLines(bundleInfo.toPath()).stream().filter(line -> line.startsWith("org.eclipse.pde.build,")).findFirst().get();
+				String pdeBuildVersion = pdeBuildLine.split(",")[1];
+				// find the plugins folder
+				pdeBuildFolder = new File(GoomphCacheLocations.bundlePool(), "plugins/org.eclipse.pde.build_" + pdeBuildVersion);
+				FileMisc.writeToken(root, TOKEN, pdeBuildFolder.getAbsolutePath());
+			});
+		});
 		System.out.println("Success.");
 	}
 
-	/** Obtain PDE Installation from custom file or url */
-	private void obtainBootstrap(String bootstrapUrl, File target) throws IOException {
-		URL url = new URL(bootstrapUrl);
-		FileUtils.copyURLToFile(url, target);
-	}
-
 	/** Obtain PDE Installation from remote p2 repository */
-	private void obtainBootstrap(EclipseRelease release) throws Exception {
-		P2Model.DirectorApp directorApp = p2model().directorApp(getRootFolder(), "goomph-pde-bootstrap-" + release);
+	private void obtainBootstrap(EclipseRelease release, File root) throws Exception {
+		P2Model.DirectorApp directorApp = p2model().directorApp(root, "goomph-pde-bootstrap-" + release);
 		// share the install for quickness
 		directorApp.bundlepool(GoomphCacheLocations.bundlePool());
 		// create a native launcher
@@ -221,11 +232,11 @@ public class PdeInstallation implements EclipseRunner {
 	}
 
 	/** Returns the Contents/Eclipse folder on mac, or just the root folder on other OSes. */
-	private File getContentsEclipse() {
+	private static File getContentsEclipse(File root) {
 		if (OS.getNative().isMac()) {
-			return new File(getRootFolder(), "Contents/Eclipse");
+			return new File(root, "Contents/Eclipse");
 		} else {
-			return getRootFolder();
+			return root;
 		}
 	}
 
@@ -261,12 +272,39 @@ public class PdeInstallation implements EclipseRunner {
 		actualArgs.add(workspace.getAbsolutePath());
 		// add the user's args
 		actualArgs.addAll(args);
-		// run the code
-		try {
-			new NativeRunner(new File(getRootFolder(), getEclipseConsoleExecutable())).run(actualArgs);
-		} finally {
-			// clean the workspace directory
-			FileUtils.deleteDirectory(workspace);
+		AppCds archive = appCds ? AppCds.forLaunch(getRootFolder().getAbsolutePath(), appCdsInputs()) : null;
+		if (archive != null) {
+			// the archive only works with the JVM which is running gradle
+			actualArgs.add("-vm");
+			actualArgs.add(new File(System.getProperty("java.home"), OS.getNative().isWindows() ? "bin/java.exe" : "bin/java").getAbsolutePath());
+			actualArgs.add("--launcher.appendVmargs");
+			actualArgs.add("-vmargs");
+			actualArgs.addAll(archive.jvmArgs());
+		}
+		// run the code, and make sure no other build is using the workspace
+		try (CacheLock lock = CacheLock.exclusive(workspace)) {
+			try {
+				new NativeRunner(new File(getRootFolder(), getEclipseConsoleExecutable())).run(actualArgs);
+			} finally {
+				if (archive != null) {
+					archive.finish();
+				}
+				// clean the workspace directory
+				FileUtils.deleteDirectory(workspace);
+			}
+		}
+	}
+
+	/** The files which decide the classpath of PDE's JVM: the ini, and the launcher jar which it points to. */
+	private List<File> appCdsInputs() throws IOException {
+		File ini = new File(getRootFolder(), FileMisc.macContentsEclipse() + "eclipse.ini");
+		List<String> lines = Files.readAllLines(ini.toPath());
+		List<File> inputs = new ArrayList<>();
+		inputs.add(ini);
+		int startup = lines.indexOf("-startup");
+		if (startup != -1 && startup + 1 < lines.size()) {
+			inputs.add(new File(ini.getParentFile(), lines.get(startup + 1).trim()));
 		}
+		return inputs;
 	}
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AppCdsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@After
+	public void resetOverride() {
+		GoomphCacheLocations.override_appCds = null;
+	}
+
+	@Test
+	public void trainThenUse() throws Exception {
+		Assume.assumeTrue(AppCds.isSupported());
+		GoomphCacheLocations.override_appCds = folder.newFolder("appcds");
+		File input = folder.newFile("input.jar");
+		List<File> inputs = Collections.singletonList(input);
+
+		// the first launch is a training run
+		AppCds training = AppCds.forLaunch("installation", inputs);
+		Assert.assertTrue(training.isTraining());
+		launch(training);
+		training.finish();
+		Assert.assertTrue(training.archive.isFile());
+
+		// and the next one uses its archive
+		AppCds trained = AppCds.forLaunch("installation", inputs);
+		Assert.assertFalse(trained.isTraining());
+		Assert.assertEquals(training.archive, trained.archive);
+		launch(trained);
+
+		// but a different installation, or a changed input, has to train again
+		Assert.assertTrue(AppCds.forLaunch("other", inputs).isTraining());
+		Assert.assertTrue(input.setLastModified(input.lastModified() - 10_000));
+		Assert.assertTrue(AppCds.forLaunch("installation", inputs).isTraining());
+
+		// and folders can't be archived
+		Assert.assertNull(AppCds.forLaunch("installation", Collections.singletonList(folder.getRoot())));
+	}
+
+	private static void launch(AppCds appCds) throws Exception {
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+		command.addAll(appCds.jvmArgs());
+		command.add("-version");
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		Assert.assertEquals(0, process.waitFor());
+	}
+}
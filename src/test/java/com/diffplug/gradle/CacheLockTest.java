@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CacheLockTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readersShareWritersWait() throws Exception {
+		File entry = new File(folder.getRoot(), "entry");
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			// two readers can hold the lock at once
+			CountDownLatch bothReading = new CountDownLatch(2);
+			CountDownLatch release = new CountDownLatch(1);
+			Runnable reader = () -> {
+				try (CacheLock lock = CacheLock.shared(entry)) {
+					bothReading.countDown();
+					release.await();
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			};
+			Future<?> readerA = executor.submit(reader);
+			Future<?> readerB = executor.submit(reader);
+			Assert.assertTrue(bothReading.await(10, TimeUnit.SECONDS));
+
+			// but a writer has to wait for them
+			Future<?> writer = executor.submit(() -> {
+				try (CacheLock lock = CacheLock.exclusive(entry)) {
+					return null;
+				}
+			});
+			try {
+				writer.get(500, TimeUnit.MILLISECONDS);
+				Assert.fail("Writer should have been blocked by the readers");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			release.countDown();
+			readerA.get(10, TimeUnit.SECONDS);
+			readerB.get(10, TimeUnit.SECONDS);
+			writer.get(10, TimeUnit.SECONDS);
+			Assert.assertTrue(CacheLock.lockFile(entry).isFile());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void staleLockIsBroken() throws IOException {
+		File entry = new File(folder.getRoot(), "entry");
+		File lockFile = CacheLock.lockFile(entry);
+		// simulates a dead build on a filesystem which didn't release its lock
+		try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				FileLock abandoned = channel.lock()) {
+			Assert.assertTrue(lockFile.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+			try (CacheLock lock = CacheLock.exclusive(entry)) {
+				Assert.assertTrue(lockFile.lastModified() > System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+			}
+		}
+	}
+
+	@Test
+	public void waitingDoesNotBlockHeartbeat() throws Exception {
+		File contended = new File(folder.getRoot(), "contended");
+		File held = new File(folder.getRoot(), "held");
+		File contendedLockFile = CacheLock.lockFile(contended);
+		File heldLockFile = CacheLock.lockFile(held);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		// simulates another build which holds the contended entry
+		try (FileChannel channel = FileChannel.open(contendedLockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				FileLock otherBuild = channel.lock();
+				CacheLock lock = CacheLock.exclusive(held)) {
+			Future<?> waiter = executor.submit(() -> {
+				try (CacheLock waiting = CacheLock.exclusive(contended)) {
+					return null;
+				}
+			});
+			try {
+				waiter.get(500, TimeUnit.MILLISECONDS);
+				Assert.fail("Waiter should have been blocked by the other build");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			// while the waiter polls, the lock we hold must keep its heartbeat
+			long old = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+			Assert.assertTrue(heldLockFile.setLastModified(old));
+			executor.submit(CacheLock::heartbeat).get(10, TimeUnit.SECONDS);
+			Assert.assertTrue(heldLockFile.lastModified() > old + TimeUnit.MINUTES.toMillis(30));
+
+			otherBuild.release();
+			waiter.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DigestsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final byte[] ABC = "abc".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void of() {
+		assertAbc(Digests.of(ABC));
+	}
+
+	@Test
+	public void copyAndSidecars() throws IOException {
+		File src = folder.newFile("src");
+		Files.write(src.toPath(), ABC);
+		File dst = new File(folder.getRoot(), "dst.jar");
+		Digests digests = Digests.copy(src, dst);
+		assertAbc(digests);
+		Assert.assertArrayEquals(ABC, Files.readAllBytes(dst.toPath()));
+
+		digests.writeSidecars(dst);
+		Assert.assertEquals(digests.md5, read("dst.jar.md5"));
+		Assert.assertEquals(digests.sha1, read("dst.jar.sha1"));
+		Assert.assertEquals(digests.sha256, read("dst.jar.sha256"));
+	}
+
+	private static void assertAbc(Digests digests) {
+		Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72", digests.md5);
+		Assert.assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", digests.sha1);
+		Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digests.sha256);
+	}
+
+	private String read(String name) throws IOException {
+		return new String(Files.readAllBytes(new File(folder.getRoot(), name).toPath()), StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import com.diffplug.common.io.Files;
+
+public class DownloadMiscTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void fallsBackToSecondUrl() throws IOException {
+		File zip = zip();
+		File dest = new File(folder.getRoot(), "dest");
+		FileMisc.installAtomically(dest, dir -> {
+			DownloadMisc.downloadAndUnzip(Arrays.asList(FileMisc.asUrl(new File(folder.getRoot(), "missing.zip")), FileMisc.asUrl(zip)), dir);
+		});
+		assertExtracted(dest);
+	}
+
+	@Test
+	public void checksumIsVerified() throws Exception {
+		File zip = zip();
+		File dest = new File(folder.getRoot(), "dest");
+		File sidecar = new File(zip.getPath() + ".sha256");
+
+		// a bad checksum fails, and leaves nothing behind
+		Files.write(hex("SHA-256", "other".getBytes(StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8), sidecar);
+		try {
+			FileMisc.installAtomically(dest, dir -> DownloadMisc.downloadAndUnzip(Arrays.asList(FileMisc.asUrl(zip)), dir));
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+		}
+		Assert.assertEquals(Arrays.asList("bootstrap.zip", "bootstrap.zip.sha256"), sortedNames(folder.getRoot()));
+
+		// the right one, in sha256sum format, succeeds
+		Files.write((hex("SHA-256", Files.toByteArray(zip)) + "  bootstrap.zip\n").getBytes(StandardCharsets.UTF_8), sidecar);
+		FileMisc.installAtomically(dest, dir -> DownloadMisc.downloadAndUnzip(Arrays.asList(FileMisc.asUrl(zip)), dir));
+		assertExtracted(dest);
+	}
+
+	@Test
+	public void overHttp() throws Exception {
+		byte[] zip = Files.toByteArray(zip());
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			byte[] body = null;
+			if (path.equals("/bootstrap.zip")) {
+				body = zip;
+			} else if (path.equals("/bootstrap.zip.sha256")) {
+				// repository managers often refuse, rather than 404
+				exchange.sendResponseHeaders(403, -1);
+				exchange.close();
+				return;
+			} else if (path.equals("/bootstrap.zip.sha1")) {
+				body = hex("SHA-1", zip).getBytes(StandardCharsets.UTF_8);
+			}
+			if (body == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else {
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			String root = "http://localhost:" + server.getAddress().getPort();
+			File dest = new File(folder.getRoot(), "dest");
+			FileMisc.installAtomically(dest, dir -> DownloadMisc.downloadAndUnzip(Arrays.asList(root + "/missing.zip", root + "/bootstrap.zip"), dir));
+			assertExtracted(dest);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void sidecarWhichIsNotADigestIsIgnored() throws Exception {
+		File zip = zip();
+		File dest = new File(folder.getRoot(), "dest");
+		// e.g. the login page of a repository manager
+		Files.write("<html><body>Please log in</body></html>".getBytes(StandardCharsets.UTF_8), new File(zip.getPath() + ".sha256"));
+		FileMisc.installAtomically(dest, dir -> DownloadMisc.downloadAndUnzip(Arrays.asList(FileMisc.asUrl(zip)), dir));
+		assertExtracted(dest);
+	}
+
+	@Test
+	public void installReplacesExisting() throws IOException {
+		File dest = folder.newFolder("dest");
+		FileMisc.writeToken(dest, "stale");
+		FileMisc.installAtomically(dest, dir -> FileMisc.writeToken(dir, "fresh"));
+		Assert.assertEquals(Arrays.asList("fresh"), sortedNames(dest));
+		Assert.assertEquals(Arrays.asList("dest"), sortedNames(folder.getRoot()));
+	}
+
+	private File zip() throws IOException {
+		File zip = new File(folder.getRoot(), "bootstrap.zip");
+		try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip))) {
+			output.putNextEntry(new ZipEntry("plugins/"));
+			output.putNextEntry(new ZipEntry("plugins/a.jar"));
+			output.write("a".getBytes(StandardCharsets.UTF_8));
+			output.putNextEntry(new ZipEntry("config.ini"));
+			output.write("b".getBytes(StandardCharsets.UTF_8));
+		}
+		return zip;
+	}
+
+	private void assertExtracted(File dest) throws IOException {
+		Assert.assertEquals("a", FileMisc.readToken(new File(dest, "plugins"), "a.jar").get());
+		Assert.assertEquals("b", FileMisc.readToken(dest, "config.ini").get());
+	}
+
+	private static List<String> sortedNames(File dir) {
+		String[] names = dir.list();
+		Arrays.sort(names);
+		return Arrays.asList(names);
+	}
+
+	private static String hex(String algorithm, byte[] content) throws IOException {
+		try {
+			StringBuilder builder = new StringBuilder();
+			for (byte b : MessageDigest.getInstance(algorithm).digest(content)) {
+				builder.append(String.format("%02x", b));
+			}
+			return builder.toString();
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.diffplug.gradle.eclipserunner.RunReport;
+
+/**
+ * Base class for benchmarks which drive the real plugins through
+ * {@link GradleIntegrationTest}, and record the wall time, the number of
+ * JVMs which were forked for eclipse apps, how long the apps took to start
+ * (the `fork` and `boot` phases), and the bytes which were moved.
+ *
+ * The eclipse apps are counted from the `eclipseApps.json` which
+ * `RunReports` writes at the end of every build.  The results are written
+ * as JSON to the folder in the `goomph.benchmark.reports` system property,
+ * which `gradlew benchmarkEndToEnd` sets to `build/reports/goomph-benchmark`.
+ */
+public class GradleBenchmark extends GradleIntegrationTest {
+	private static final String ECLIPSE_APPS = "build/reports/goomph/eclipseApps.json";
+
+	private final List<Measurement> measurements = new ArrayList<>();
+	private final Map<String, Long> results = new LinkedHashMap<>();
+
+	/** One build and what it cost. */
+	public static class Measurement {
+		public final String name;
+		public final long wallMillis;
+		public final int eclipseApps;
+		public final int forkedJvms;
+		public final long startupMillis;
+		public final long bytesServed;
+		public final long bytesRead;
+		public final long bytesWritten;
+
+		Measurement(String name, long wallMillis, int eclipseApps, int forkedJvms, long startupMillis, long bytesServed, long bytesRead, long bytesWritten) {
+			this.name = name;
+			this.wallMillis = wallMillis;
+			this.eclipseApps = eclipseApps;
+			this.forkedJvms = forkedJvms;
+			this.startupMillis = startupMillis;
+			this.bytesServed = bytesServed;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + wallMillis + "ms, " + eclipseApps + " eclipse apps (" + forkedJvms + " forked, " + startupMillis + "ms to start), " + bytesServed + " bytes served, " + bytesRead + " bytes read and " + bytesWritten + " written by the apps";
+		}
+	}
+
+	/** Runs a build with the given arguments, and records it under the given name. */
+	protected Measurement measure(String name, LongSupplier bytesServed, String... arguments) throws IOException {
+		File eclipseApps = file(ECLIPSE_APPS);
+		Files.deleteIfExists(eclipseApps.toPath());
+		long servedBefore = bytesServed.getAsLong();
+		long start = System.nanoTime();
+		gradleRunner().withArguments(arguments).build();
+		long wallMillis = (System.nanoTime() - start) / 1_000_000;
+		long served = bytesServed.getAsLong() - servedBefore;
+
+		String json = eclipseApps.isFile() ? read(ECLIPSE_APPS) : "";
+		Measurement measurement = new Measurement(name, wallMillis,
+				count(json, "\"runner\": "),
+				count(json, "\"runner\": \"externalJvm\""),
+				sum(json, RunReport.FORK) + sum(json, RunReport.BOOT),
+				served,
+				sum(json, "bytesRead"),
+				sum(json, "bytesWritten"));
+		measurements.add(measurement);
+		System.out.println(measurement);
+		return measurement;
+	}
+
+	/** Records a number which is derived from the measurements, e.g. the difference between two of them. */
+	protected void result(String name, long value) {
+		results.put(name, value);
+		System.out.println(name + ": " + value);
+	}
+
+	/** Writes every measurement and result so far to `<benchmark>.json`, if the reports folder was specified. */
+	protected void writeResults(String benchmark, String... parameters) throws IOException {
+		String reports = System.getProperty("goomph.benchmark.reports");
+		if (reports == null) {
+			return;
+		}
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\n");
+		builder.append("  \"benchmark\": \"").append(benchmark).append("\",\n");
+		builder.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+		builder.append("  \"parameters\": {");
+		for (int i = 0; i + 1 < parameters.length; i += 2) {
+			builder.append(i == 0 ? "" : ", ").append('"').append(parameters[i]).append("\": \"").append(parameters[i + 1]).append('"');
+		}
+		builder.append("},\n");
+		builder.append("  \"results\": {");
+		boolean first = true;
+		for (Map.Entry<String, Long> result : results.entrySet()) {
+			builder.append(first ? "" : ", ").append('"').append(result.getKey()).append("\": ").append(result.getValue());
+			first = false;
+		}
+		builder.append("},\n");
+		builder.append("  \"runs\": [");
+		for (int i = 0; i < measurements.size(); ++i) {
+			Measurement m = measurements.get(i);
+			builder.append(i == 0 ? "\n" : ",\n");
+			builder.append("    {\"name\": \"").append(m.name).append('"');
+			builder.append(", \"wallMillis\": ").append(m.wallMillis);
+			builder.append(", \"eclipseApps\": ").append(m.eclipseApps);
+			builder.append(", \"forkedJvms\": ").append(m.forkedJvms);
+			builder.append(", \"startupMillis\": ").append(m.startupMillis);
+			builder.append(", \"bytesServed\": ").append(m.bytesServed);
+			builder.append(", \"bytesRead\": ").append(m.bytesRead);
+			builder.append(", \"bytesWritten\": ").append(m.bytesWritten);
+			builder.append('}');
+		}
+		builder.append(measurements.isEmpty() ? "]\n" : "\n  ]\n");
+		builder.append("}\n");
+
+		File output = new File(reports, benchmark + ".json");
+		FileMisc.mkdirs(output.getParentFile());
+		Files.write(output.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static int count(String json, String literal) {
+		int count = 0;
+		for (int idx = json.indexOf(literal); idx != -1; idx = json.indexOf(literal, idx + literal.length())) {
+			++count;
+		}
+		return count;
+	}
+
+	private static long sum(String json, String field) {
+		long sum = 0;
+		Matcher matcher = Pattern.compile("\"" + field + "\": (\\d+)").matcher(json);
+		while (matcher.find()) {
+			sum += Long.parseLong(matcher.group(1));
+		}
+		return sum;
+	}
+}
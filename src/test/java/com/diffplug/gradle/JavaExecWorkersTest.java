@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JavaExecWorkersTest {
+	static class Counter implements JavaExecable {
+		private static final long serialVersionUID = 7436918262049521123L;
+
+		static int runs;
+
+		String property;
+		int runsBefore;
+
+		@Override
+		public void run() throws Throwable {
+			System.out.println("hello");
+			property = System.getProperty("counter");
+			System.setProperty("counter", "dirty");
+			runsBefore = runs++;
+		}
+	}
+
+	static class Leaker implements JavaExecable {
+		private static final long serialVersionUID = -2201417398093128742L;
+
+		@Override
+		public void run() throws Throwable {
+			new Thread(() -> {
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				} catch (InterruptedException e) {}
+			}).start();
+		}
+	}
+
+	static class Thrower implements JavaExecable {
+		private static final long serialVersionUID = 2913742260712301784L;
+
+		@Override
+		public void run() throws Throwable {
+			throw new IllegalArgumentException("thrown");
+		}
+	}
+
+	@Test
+	public void reuseResetAndRecycle() throws Throwable {
+		List<File> classpath = Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+				.map(File::new)
+				.collect(Collectors.toList());
+		JavaExecWorkers.Key key = new JavaExecWorkers.Key(classpath, Collections.emptyList(), null);
+		JavaExecWorkers pool = new JavaExecWorkers();
+		try {
+			// the second run happens in the same JVM, with the system properties put back, and the output is forwarded
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			Counter first = pool.exec(key, new Counter(), output);
+			Counter second = pool.exec(key, new Counter(), output);
+			Assert.assertEquals(0, first.runsBefore);
+			Assert.assertEquals(1, second.runsBefore);
+			Assert.assertNull(second.property);
+			Assert.assertEquals(1, pool.started);
+			Assert.assertEquals("hello\nhello\n", new String(output.toByteArray(), StandardCharsets.UTF_8).replace("\r", ""));
+
+			// exceptions come back, and the worker is still good
+			try {
+				pool.exec(key, new Thrower(), output);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+				Assert.assertEquals("thrown", e.getMessage());
+			}
+			Assert.assertEquals(2, pool.exec(key, new Counter(), output).runsBefore);
+			Assert.assertEquals(1, pool.started);
+
+			// a worker which leaks a thread is replaced
+			pool.exec(key, new Leaker(), output);
+			Assert.assertEquals(0, pool.exec(key, new Counter(), output).runsBefore);
+			Assert.assertEquals(2, pool.started);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void classpathJarIsReused() throws Exception {
+		List<File> classpath = Arrays.asList(new File("a.jar"), new File("b.jar"));
+		File jar = JavaExecWinFriendly.reusableJarWithClasspath(classpath);
+		Assert.assertTrue(jar.isFile());
+		Assert.assertEquals(jar, JavaExecWinFriendly.reusableJarWithClasspath(classpath));
+		Assert.assertFalse(jar.equals(JavaExecWinFriendly.reusableJarWithClasspath(Arrays.asList(new File("a.jar")))));
+	}
+}
@@ -15,9 +15,13 @@
  */
 package com.diffplug.gradle;
 
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.diffplug.common.base.Errors;
+
 public class JavaExecableTest {
 	static class Incrementer implements JavaExecable {
 		private static final long serialVersionUID = -5728572785844814830L;
@@ -79,4 +83,29 @@ public class JavaExecableTest {
 		Thrower example = new Thrower();
 		JavaExecable.execWithoutGradle(example);
 	}
+
+	@Test
+	public void testChannel() throws Throwable {
+		// plays the part of the child JVM on another thread
+		try (ExecChannel channel = new ExecChannel(new Incrementer(5))) {
+			List<String> args = channel.args();
+			Thread child = new Thread(Errors.rethrow().wrap(() -> JavaExecable.main(args.toArray(new String[0]))));
+			child.start();
+			child.join();
+			Incrementer result = (Incrementer) channel.result();
+			Assert.assertEquals(6, result.output);
+		}
+		try (ExecChannel channel = new ExecChannel(new Thrower())) {
+			List<String> args = channel.args();
+			ExecChannel.child(Integer.parseInt(args.get(1)), args.get(2));
+			Assert.assertTrue(channel.result() instanceof SpecialException);
+		}
+		// a child which never connects doesn't block forever
+		try (ExecChannel channel = new ExecChannel(new Incrementer(5))) {
+			channel.result();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("The JVM exited without returning a result", e.getMessage());
+		}
+	}
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.diffplug.gradle.FileMisc;
+
+public class ConfigurationAreaTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void frameworkArgs() {
+		List<String> args = Arrays.asList("-clean", "-consolelog", "-os", "linux", "-application", "org.eclipse.equinox.p2.director", "-repository", "http://example.com", "-noExit");
+		Assert.assertEquals(Arrays.asList("-os", "linux", "-noExit"), ConfigurationArea.frameworkArgs(args));
+	}
+
+	@Test
+	public void warmUntilPluginsChange() throws IOException {
+		File installation = folder.newFolder("installation");
+		File plugins = new File(installation, "plugins");
+		FileMisc.mkdirs(plugins);
+		FileMisc.writeToken(plugins, "org.eclipse.osgi_3.10.0.jar", "osgi");
+		List<String> args = Arrays.asList("-clean", "-application", "first");
+		Map<String, String> props = Collections.singletonMap("osgi.install.area", installation.getAbsolutePath());
+
+		// the first area starts cold, and a parallel framework gets an area of its own
+		File dir;
+		try (ConfigurationArea first = ConfigurationArea.lock(installation, args, props)) {
+			Assert.assertFalse(first.isWarm());
+			try (ConfigurationArea parallel = ConfigurationArea.lock(installation, args, props)) {
+				Assert.assertFalse(first.dir.equals(parallel.dir));
+			}
+			FileMisc.writeToken(first.dir, "state", "resolved");
+			first.markWarm();
+			dir = first.dir;
+		}
+
+		// a different application uses the same warm area
+		try (ConfigurationArea second = ConfigurationArea.lock(installation, Arrays.asList("-application", "second"), props)) {
+			Assert.assertTrue(second.isWarm());
+			Assert.assertEquals(dir, second.dir);
+			Assert.assertTrue(FileMisc.hasToken(second.dir, "state", "resolved"));
+			// but it doesn't shut down cleanly, so the next one starts cold
+		}
+		try (ConfigurationArea crashed = ConfigurationArea.lock(installation, args, props)) {
+			Assert.assertFalse(crashed.isWarm());
+			Assert.assertFalse(FileMisc.hasToken(crashed.dir, "state"));
+			crashed.markWarm();
+		}
+
+		// changing the plugins makes it cold again
+		FileMisc.writeToken(plugins, "org.eclipse.equinox.common_3.6.0.jar", "common");
+		try (ConfigurationArea changed = ConfigurationArea.lock(installation, args, props)) {
+			Assert.assertFalse(changed.isWarm());
+			Assert.assertEquals(dir, changed.dir);
+		}
+
+		// and so do different framework args
+		try (ConfigurationArea otherArgs = ConfigurationArea.lock(installation, Arrays.asList("-os", "win32"), props)) {
+			Assert.assertFalse(dir.equals(otherArgs.dir));
+		}
+	}
+
+	@Test
+	public void pluginsFingerprintIncludesFolderBundles() throws IOException {
+		File plugins = folder.newFolder("plugins");
+		File bundle = new File(plugins, "org.eclipse.pde.build_3.9.0");
+		FileMisc.mkdirs(new File(bundle, "META-INF"));
+		FileMisc.writeToken(new File(bundle, "META-INF"), "MANIFEST.MF", "Bundle-Version: 3.9.0");
+		String before = ConfigurationArea.pluginsFingerprint(plugins);
+		Assert.assertTrue(before, before.startsWith("org.eclipse.pde.build_3.9.0/META-INF/MANIFEST.MF:"));
+
+		// changing a file inside the folder bundle changes the fingerprint
+		FileMisc.writeToken(new File(bundle, "META-INF"), "MANIFEST.MF", "Bundle-Version: 3.9.1.qualifier");
+		Assert.assertFalse(before.equals(ConfigurationArea.pluginsFingerprint(plugins)));
+	}
+}
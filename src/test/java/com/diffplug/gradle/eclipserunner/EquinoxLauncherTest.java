@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EquinoxLauncherTest {
+	@Test
+	public void frameworkSystemPropertiesAreRestored() {
+		System.setProperty("osgi.goomph.test.changed", "before");
+		System.clearProperty("osgi.goomph.test.added");
+		try {
+			Map<String, String> before = EquinoxLauncher.frameworkSystemProperties();
+			// what a framework leaves behind
+			System.setProperty("osgi.goomph.test.changed", "after");
+			System.setProperty("osgi.goomph.test.added", "after");
+			EquinoxLauncher.restoreFrameworkSystemProperties(before);
+			Assert.assertEquals("before", System.getProperty("osgi.goomph.test.changed"));
+			Assert.assertNull(System.getProperty("osgi.goomph.test.added"));
+		} finally {
+			System.clearProperty("osgi.goomph.test.changed");
+			System.clearProperty("osgi.goomph.test.added");
+		}
+	}
+}
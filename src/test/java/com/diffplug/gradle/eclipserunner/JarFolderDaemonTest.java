@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.diffplug.common.base.Errors;
+
+public class JarFolderDaemonTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void protocol() throws Exception {
+		File infoFile = new File(folder.getRoot(), "daemon/key.properties");
+		CountDownLatch blocking = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		JarFolderDaemon.Forwarder output = new JarFolderDaemon.Forwarder(new ByteArrayOutputStream());
+		JarFolderDaemon daemon = new JarFolderDaemon(args -> {
+			if (args.contains("fail")) {
+				throw new IllegalArgumentException("failed on purpose");
+			} else if (args.contains("block")) {
+				blocking.countDown();
+				release.await();
+			}
+			output.write(("ran " + args).getBytes(StandardCharsets.UTF_8));
+		}, output, infoFile, 500);
+		CompletableFuture<Void> serving = CompletableFuture.runAsync(Errors.rethrow().wrap(daemon::serve));
+		Assert.assertTrue(JarFolderDaemon.isListening(infoFile));
+
+		// output is forwarded back to the client
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		Assert.assertEquals(JarFolderDaemon.Result.SUCCESS, JarFolderDaemon.request(infoFile, Arrays.asList("-application", "a"), console));
+		Assert.assertEquals("ran [-application, a]", new String(console.toByteArray(), StandardCharsets.UTF_8));
+
+		// failures are rethrown in the client
+		try {
+			JarFolderDaemon.request(infoFile, Arrays.asList("fail"), new ByteArrayOutputStream());
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getMessage().contains("failed on purpose"));
+		}
+
+		// a second client is turned away while the daemon is busy
+		CompletableFuture<JarFolderDaemon.Result> blocked = CompletableFuture.supplyAsync(() -> Errors.rethrow().get(() -> JarFolderDaemon.request(infoFile, Arrays.asList("block"), new ByteArrayOutputStream())));
+		Assert.assertTrue(blocking.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(JarFolderDaemon.Result.BUSY, JarFolderDaemon.request(infoFile, Arrays.asList("-application", "a"), new ByteArrayOutputStream()));
+		release.countDown();
+		Assert.assertEquals(JarFolderDaemon.Result.SUCCESS, blocked.get(10, TimeUnit.SECONDS));
+
+		// once idle, the daemon exits and stops advertising itself
+		serving.get(30, TimeUnit.SECONDS);
+		Assert.assertFalse(infoFile.exists());
+		Assert.assertEquals(JarFolderDaemon.Result.UNAVAILABLE, JarFolderDaemon.request(infoFile, Arrays.asList("-application", "a"), new ByteArrayOutputStream()));
+	}
+
+	@Test
+	public void canRunInOpenFramework() {
+		EclipseApp app = new EclipseApp("org.eclipse.equinox.p2.director");
+		app.clean();
+		app.consolelog();
+		app.addArg("repository", "http://somerepo");
+		Assert.assertTrue(EquinoxLauncher.canRunInOpenFramework(app.toArgList()));
+		Assert.assertEquals(Arrays.asList("-repository", "http://somerepo"), EquinoxLauncher.splitApplication(app.toArgList()).get().getValue());
+
+		app.addArg("data", "workspace");
+		Assert.assertFalse(EquinoxLauncher.canRunInOpenFramework(app.toArgList()));
+		Assert.assertFalse(EquinoxLauncher.canRunInOpenFramework(Arrays.asList("-consolelog")));
+	}
+}
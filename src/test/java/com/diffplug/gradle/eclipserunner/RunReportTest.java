@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.eclipserunner;
+
+import java.util.Arrays;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RunReportTest {
+	@Test
+	public void phases() {
+		RunReport report = RunReport.of(new EclipseApp("org.eclipse.equinox.p2.director").toArgList(), "test");
+		Assert.assertEquals("org.eclipse.equinox.p2.director", report.application());
+		report.addPhase(RunReport.FORK, 600);
+		report.addPhase(RunReport.BOOT, 1900);
+		report.addPhase(RunReport.APPLICATION, 70000);
+		report.addPhase(RunReport.APPLICATION, 1400);
+		report.bytesRead = 3 * 1024 * 1024;
+		report.finish(true);
+		report.totalMillis = 74200;
+		Assert.assertEquals(Arrays.asList(RunReport.FORK, RunReport.BOOT, RunReport.APPLICATION), Arrays.asList(report.phaseMillis().keySet().toArray()));
+		Assert.assertEquals("org.eclipse.equinox.p2.director 74.2s (fork 0.6s, boot 1.9s, application 71.4s), read 3.0MB", report.summary());
+
+		RunReport failed = new RunReport("org.eclipse.ant.core.antRunner", "test");
+		failed.finish(false);
+		failed.totalMillis = 1000;
+		Assert.assertEquals("org.eclipse.ant.core.antRunner 1.0s FAILED", failed.summary());
+		Assert.assertEquals("goomph ran 2 eclipse apps in 75.2s (1 failed), slowest was org.eclipse.equinox.p2.director 74.2s", RunReports.summary(Arrays.asList(report, failed)));
+	}
+
+	@Test
+	public void json() {
+		RunReport report = new RunReport("app \"quoted\"", "test");
+		report.addPhase(RunReport.BOOT, 5);
+		report.finish(true);
+		String json = RunReports.toJson(Arrays.asList(report));
+		Assert.assertTrue(json, json.contains("\"application\": \"app \\\"quoted\\\"\","));
+		Assert.assertTrue(json, json.contains("\"phaseMillis\": {\"boot\": 5},"));
+		Assert.assertTrue(json, json.contains("\"peakRssBytes\": null"));
+		Assert.assertTrue(json, json.contains("\"runs\": [\n    {\n"));
+	}
+
+	@Test
+	public void processStatistics() throws Exception {
+		RunReport report = new RunReport("app", "test");
+		RunReport.ProcessSnapshot before = RunReport.ProcessSnapshot.take(true);
+		report.time(RunReport.APPLICATION, () -> Thread.sleep(20));
+		report.recordProcess(before);
+		Assert.assertTrue(report.phaseMillis().get(RunReport.APPLICATION) >= 20);
+		Assert.assertTrue(report.peakHeapBytes > 0);
+
+		// within gradle's JVM, the heap belongs to gradle
+		RunReport withinJvm = new RunReport("app", "test");
+		withinJvm.recordProcess(RunReport.ProcessSnapshot.take(false));
+		Assert.assertEquals(RunReport.UNKNOWN, withinJvm.peakHeapBytes);
+		Assert.assertEquals(RunReport.UNKNOWN, withinJvm.peakRssBytes);
+	}
+
+	@Test
+	public void reportsArePerBuild() {
+		Project a = ProjectBuilder.builder().build();
+		Project b = ProjectBuilder.builder().build();
+		RunReports.register(a);
+		RunReports.register(b);
+		RunReport forA = new RunReport("a", "test");
+		RunReport forB = new RunReport("b", "test");
+		RunReports.record(a, forA);
+		RunReports.record(b, forB);
+		// two builds are running, so a report without a project can't be attributed
+		RunReports.record(new RunReport("unknown", "test"));
+		Assert.assertEquals(Arrays.asList(forA), RunReports.finish(a.getGradle()));
+		Assert.assertEquals(Arrays.asList(forB), RunReports.finish(b.getGradle()));
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import com.diffplug.common.base.StringPrinter;
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.p2.BundlePool.Artifact;
+
+public class ArtifactPrefetcherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void prefetch() throws Exception {
+		// a stand-in for a remote repository, which supports Range requests and records how many downloads run at once
+		Map<String, byte[]> files = new HashMap<>();
+		Map<String, String> ranges = new ConcurrentHashMap<>();
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		AtomicInteger downloads = new AtomicInteger();
+		AtomicInteger requests = new AtomicInteger();
+		HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		upstream.setExecutor(Executors.newCachedThreadPool());
+		String upstreamUrl = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + upstream.getAddress().getPort();
+		upstream.createContext("/", exchange -> {
+			requests.incrementAndGet();
+			String path = exchange.getRequestURI().getPath();
+			byte[] content = files.get(path);
+			if (content == null) {
+				exchange.sendResponseHeaders(404, -1);
+				exchange.close();
+				return;
+			}
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			int offset = 0;
+			if (range != null) {
+				ranges.put(path, range);
+				offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+			}
+			if (path.endsWith(".jar")) {
+				downloads.incrementAndGet();
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				sleep(100);
+				active.decrementAndGet();
+			}
+			exchange.sendResponseHeaders(range == null ? 200 : 206, content.length - offset);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(content, offset, content.length - offset);
+			}
+			exchange.close();
+		});
+		upstream.start();
+
+		// a composite repo with a feature which strictly includes a, b and d, loosely requires c, and includes the zipped z
+		files.put("/repo/compositeContent.xml", bytes("<repository><children size='1'><child location='child'/></children></repository>"));
+		files.put("/repo/compositeArtifacts.xml", bytes("<repository><children size='1'><child location='child'/></children></repository>"));
+		files.put("/repo/child/content.xml", bytes(StringPrinter.buildStringFromLines(
+				"<repository><units size='6'>",
+				"<unit id='f.feature.group' version='1.0.0'><requires size='4'>",
+				"  <required namespace='org.eclipse.equinox.p2.iu' name='a' range='[1.0.0,1.0.0]'/>",
+				"  <required namespace='org.eclipse.equinox.p2.iu' name='b' range='[1.0.0,1.0.0]'/>",
+				"  <required namespace='org.eclipse.equinox.p2.iu' name='c' range='[1.0.0,2.0.0)'/>",
+				"  <required namespace='org.eclipse.equinox.p2.iu' name='d' range='[1.0.0,1.0.0]'/>",
+				"  <required namespace='org.eclipse.equinox.p2.iu' name='z' range='[1.0.0,1.0.0]'/>",
+				"</requires></unit>",
+				unit("a"), unit("b"), unit("c"), unit("d"),
+				"<unit id='z' version='1.0.0'><artifacts size='1'><artifact classifier='osgi.bundle' id='z' version='1.0.0'/></artifacts>",
+				"  <touchpointData size='1'><instructions size='1'><instruction key='zipped'>true</instruction></instructions></touchpointData></unit>",
+				"</units></repository>")));
+		files.put("/repo/child/artifacts.xml", bytes(StringPrinter.buildStringFromLines(
+				"<repository><mappings size='2'>",
+				"  <rule filter='(&amp; (classifier=osgi.bundle) (format=packed))' output='${repoUrl}/plugins/${id}_${version}.jar.pack.gz'/>",
+				"  <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>",
+				"</mappings><artifacts size='5'>",
+				artifact("a", "download.size", "9"),
+				artifact("b", "download.checksum.sha-256", Digests.of(bytes("b content")).sha256),
+				artifact("c", "download.size", "9"),
+				artifact("d", "download.md5", "0123456789abcdef0123456789abcdef"),
+				artifact("z", "download.size", "9"),
+				"</artifacts></repository>")));
+		for (String id : Arrays.asList("a", "b", "c", "d", "z")) {
+			files.put("/repo/child/plugins/" + id + "_1.0.0.jar", bytes(id + " content"));
+		}
+
+		try {
+			BundlePool pool = new BundlePool(folder.newFolder("pool"));
+			ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(pool);
+			prefetcher.setConnectionsPerHost(1);
+			P2Model model = new P2Model();
+			model.addRepo(upstreamUrl + "/repo/");
+			model.addFeature("f");
+
+			// half of b was downloaded by a previous build
+			pool.createIfNecessary();
+			FileMisc.mkdirs(prefetcher.prefetchDir());
+			Files.write(new File(prefetcher.prefetchDir(), "b_1.0.0.jar.part").toPath(), bytes("b co"));
+
+			// a and b are prefetched, c isn't strictly included, d has the wrong checksum, and z is zipped
+			List<Artifact> prefetched = prefetcher.prefetch(model);
+			Assert.assertEquals(new HashSet<>(Arrays.asList(bundle("a"), bundle("b"))), new HashSet<>(prefetched));
+			Assert.assertEquals(1, maxActive.get());
+			Assert.assertEquals("bytes=4-", ranges.get("/repo/child/plugins/b_1.0.0.jar"));
+			Assert.assertEquals("a content", FileMisc.readToken(new File(pool.getRoot(), "plugins"), "a_1.0.0.jar").get());
+			Assert.assertEquals("b content", FileMisc.readToken(new File(pool.getRoot(), "plugins"), "b_1.0.0.jar").get());
+			Assert.assertTrue(pool.contains(bundle("a")));
+			Assert.assertTrue(pool.contains(bundle("b")));
+			Assert.assertFalse(pool.contains(bundle("d")));
+			Assert.assertFalse(new File(prefetcher.prefetchDir(), "d_1.0.0.jar.part").exists());
+			Assert.assertEquals(new HashSet<>(Arrays.asList(bundle("a"), bundle("b"))), BundlePool.artifactsOfRepo(pool.getRoot()));
+
+			// the second time around, only d is tried again
+			int downloadsBefore = downloads.get();
+			prefetcher.setConnections(2);
+			Assert.assertEquals(Arrays.asList(), prefetcher.prefetch(model));
+			Assert.assertEquals(downloadsBefore + 1, downloads.get());
+
+			// pinned IUs which are already pooled don't need any metadata
+			P2Model pinned = new P2Model();
+			pinned.addRepo(upstreamUrl + "/repo/");
+			pinned.addIU("a", "1.0.0");
+			pinned.addIU("b", "1.0.0");
+			Assert.assertTrue(pinned.isSatisfiedBy(pool));
+			int requestsBefore = requests.get();
+			Assert.assertEquals(Arrays.asList(), prefetcher.prefetch(pinned));
+			Assert.assertEquals(requestsBefore, requests.get());
+		} finally {
+			upstream.stop(0);
+		}
+	}
+
+	private static String unit(String id) {
+		return "<unit id='" + id + "' version='1.0.0'><artifacts size='1'><artifact classifier='osgi.bundle' id='" + id + "' version='1.0.0'/></artifacts></unit>";
+	}
+
+	private static String artifact(String id, String property, String value) {
+		return "<artifact classifier='osgi.bundle' id='" + id + "' version='1.0.0'><properties size='1'><property name='" + property + "' value='" + value + "'/></properties></artifact>";
+	}
+
+	private static Artifact bundle(String id) {
+		return new Artifact("osgi.bundle", id, "1.0.0");
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
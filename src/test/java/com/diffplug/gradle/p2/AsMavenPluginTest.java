@@ -75,4 +75,25 @@ public class AsMavenPluginTest extends GradleIntegrationTest {
 		Assert.assertTrue(file("build/p2asmaven/maven/eclipse-deps-4.5.0").isDirectory());
 		Assert.assertTrue(file("build/p2asmaven/maven/eclipse-deps-4.6.0").isDirectory());
 	}
+
+	@Test
+	public void parallelTestCase() throws IOException, InterruptedException {
+		write("build.gradle",
+				"plugins {",
+				"    id 'com.diffplug.gradle.p2.asmaven'",
+				"}",
+				"def SUPPORTED_VERSIONS = ['4.5.0', '4.6.0']",
+				"p2AsMaven {",
+				"    parallelism 2",
+				"    for (version in SUPPORTED_VERSIONS) {",
+				"        group 'eclipse-deps-' + version, {",
+				"            repoEclipse version",
+				"            iu 'javax.inject'",
+				"        }",
+				"    }",
+				"}");
+		gradleRunner().withArguments("p2AsMavenMirror").build();
+		Assert.assertTrue(file("build/p2asmaven/maven/eclipse-deps-4.5.0/javax.inject").isDirectory());
+		Assert.assertTrue(file("build/p2asmaven/maven/eclipse-deps-4.6.0/javax.inject").isDirectory());
+	}
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.diffplug.gradle.FileMisc;
+
+public class AsMavenSharedCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void publishMaterializeEvict() throws IOException {
+		Project project = ProjectBuilder.builder().withProjectDir(folder.newFolder("project")).build();
+		AsMavenSharedCache cache = new AsMavenSharedCache(folder.newFolder("cache"), 20);
+
+		// the key is the same for different checkouts
+		AsMavenGroupImpl checkoutA = impl(project, "checkoutA", "group");
+		AsMavenGroupImpl checkoutB = impl(project, "checkoutB", "group");
+		String key = AsMavenSharedCache.key(checkoutA.state());
+		Assert.assertEquals(key, AsMavenSharedCache.key(checkoutB.state()));
+
+		// publish from one, and materialize into the other
+		FileMisc.writeToken(new File(checkoutA.dirP2(), "plugins"), "a.jar", "0123456789");
+		FileMisc.writeToken(checkoutA.dirMavenGroup(), "maven-metadata.xml", "content");
+		Assert.assertFalse(cache.materialize(key, checkoutB));
+		cache.publish(key, checkoutA);
+		Assert.assertTrue(cache.materialize(key, checkoutB));
+		Assert.assertEquals("0123456789", FileMisc.readToken(new File(checkoutB.dirP2(), "plugins"), "a.jar").get());
+		Assert.assertEquals("content", FileMisc.readToken(checkoutB.dirMavenGroup(), "maven-metadata.xml").get());
+
+		// metadata which is rewritten in place by an incremental run doesn't leak into the cache
+		Files.write(new File(checkoutB.dirMavenGroup(), "maven-metadata.xml").toPath(), "rewritten".getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(checkoutA.dirMavenGroup(), "maven-metadata.xml").toPath(), "rewritten".getBytes(StandardCharsets.UTF_8));
+		Assert.assertEquals("content", FileMisc.readToken(new File(cache.root, key + "/" + AsMavenGroupImpl.SUBDIR_MAVEN), "maven-metadata.xml").get());
+		Assert.assertTrue(AsMavenSharedCache.isImmutable(Paths.get("plugins", "a.jar")));
+		Assert.assertFalse(AsMavenSharedCache.isImmutable(Paths.get("content.jar")));
+		Assert.assertFalse(AsMavenSharedCache.isImmutable(Paths.get("plugins", "a.pom")));
+
+		// once the cache is too big, the least-recently-used entry is evicted
+		AsMavenGroupImpl other = impl(project, "checkoutA", "other");
+		FileMisc.writeToken(new File(other.dirP2(), "plugins"), "b.jar", "0123456789");
+		String otherKey = AsMavenSharedCache.key("other");
+		new File(cache.root, key + "/lastUsed").setLastModified(0);
+		cache.publish(otherKey, other);
+		Assert.assertFalse(new File(cache.root, key).exists());
+		Assert.assertTrue(new File(cache.root, otherKey).exists());
+	}
+
+	private AsMavenGroupImpl impl(Project project, String checkout, String group) {
+		return new AsMavenGroupImpl(project, new File(folder.getRoot(), checkout), new AsMavenGroup(group));
+	}
+}
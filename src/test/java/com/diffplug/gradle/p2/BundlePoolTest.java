@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.diffplug.common.base.StringPrinter;
+import com.diffplug.gradle.FileMisc;
+
+public class BundlePoolTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final BundlePool.Artifact A = new BundlePool.Artifact("osgi.bundle", "a", "1.0.0");
+	private static final BundlePool.Artifact B = new BundlePool.Artifact("osgi.bundle", "b", "1.0.0");
+	private static final BundlePool.Artifact F = new BundlePool.Artifact("org.eclipse.update.feature", "f", "1.0.0");
+
+	@Test
+	public void gc() throws IOException {
+		BundlePool pool = new BundlePool(folder.newFolder("pool"));
+		FileMisc.writeToken(pool.getRoot(), BundlePool.ARTIFACTS_XML, StringPrinter.buildStringFromLines(
+				"<?xml version='1.0' encoding='UTF-8'?>",
+				"<?artifactRepository version='1.1.0'?>",
+				"<repository name='pool' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>",
+				"  <artifacts size='3'>",
+				"    <artifact classifier='osgi.bundle' id='a' version='1.0.0'/>",
+				"    <artifact classifier='osgi.bundle' id='b' version='1.0.0'/>",
+				"    <artifact classifier='org.eclipse.update.feature' id='f' version='1.0.0'>",
+				"      <properties size='1'>",
+				"        <property name='artifact.folder' value='true'/>",
+				"      </properties>",
+				"    </artifact>",
+				"  </artifacts>",
+				"</repository>"));
+		File a = artifact(pool, "plugins/a_1.0.0.jar");
+		File b = artifact(pool, "plugins/b_1.0.0.jar");
+		File f = artifact(pool, "features/f_1.0.0/feature.xml");
+		Assert.assertEquals(new HashSet<>(Arrays.asList(A, B, F)), BundlePool.artifactsOfRepo(pool.getRoot()));
+
+		// an IDE which uses b
+		File ide = folder.newFolder("ide");
+		File token = new File(ide, "token");
+		FileMisc.writeToken(ide, "token");
+		pool.addReference(ide, token, Collections.singleton(B));
+
+		// there's room for everything
+		Assert.assertEquals(Collections.emptyList(), pool.gc(30));
+
+		// unreferenced artifacts go first
+		Assert.assertEquals(new HashSet<>(Arrays.asList(A, F)), new HashSet<>(pool.gc(10)));
+		Assert.assertFalse(a.exists());
+		Assert.assertFalse(f.getParentFile().exists());
+		Assert.assertTrue(b.exists());
+		Assert.assertEquals(Collections.singleton(B), BundlePool.artifactsOfRepo(pool.getRoot()));
+		Assert.assertFalse(pool.contains(A));
+		Assert.assertTrue(pool.contains(B));
+		Assert.assertTrue(FileMisc.readToken(pool.getRoot(), BundlePool.ARTIFACTS_XML).get().contains("size=\"1\""));
+
+		// then the least-recently-used references, which get their token deleted
+		Assert.assertEquals(Collections.singletonList(B), pool.gc(0));
+		Assert.assertFalse(b.exists());
+		Assert.assertFalse(token.exists());
+		Assert.assertTrue(pool.references().isEmpty());
+		Assert.assertEquals(new LinkedHashSet<>(), BundlePool.artifactsOfRepo(pool.getRoot()));
+	}
+
+	@Test
+	public void index() throws IOException {
+		BundlePool pool = new BundlePool(folder.newFolder("pool"));
+		Assert.assertFalse(pool.contains(A));
+		writeMetadata(pool, "<artifact classifier='osgi.bundle' id='a' version='1.0.0'/>");
+		Assert.assertTrue(pool.contains(A));
+		Assert.assertFalse(pool.contains(B));
+		Assert.assertEquals(Collections.singleton(B), pool.missing(Arrays.asList(A, B)));
+
+		// the index is saved next to the metadata, stamped with the metadata's size and timestamp
+		File index = new File(pool.getRoot(), BundlePoolIndex.INDEX);
+		Assert.assertEquals(Arrays.asList(BundlePoolIndex.stamp(pool), A.toString()), Files.readAllLines(index.toPath()));
+
+		// once the metadata changes, the index is rebuilt
+		writeMetadata(pool, "<artifact classifier='osgi.bundle' id='b' version='1.0.0'/>");
+		new File(pool.getRoot(), BundlePool.ARTIFACTS_XML).setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+		Assert.assertFalse(pool.contains(A));
+		Assert.assertTrue(pool.contains(B));
+	}
+
+	@Test
+	public void artifactOfIU() {
+		Assert.assertEquals(A, BundlePool.Artifact.ofIU("a", "1.0.0"));
+		Assert.assertEquals(F, BundlePool.Artifact.ofIU("f.feature.group", "1.0.0"));
+		Assert.assertEquals(F, BundlePool.Artifact.ofIU("f.feature.jar", "1.0.0"));
+	}
+
+	private static void writeMetadata(BundlePool pool, String artifact) throws IOException {
+		FileMisc.writeToken(pool.getRoot(), BundlePool.ARTIFACTS_XML, StringPrinter.buildStringFromLines(
+				"<?xml version='1.0' encoding='UTF-8'?>",
+				"<repository name='pool' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>",
+				"  <artifacts size='1'>",
+				"    " + artifact,
+				"  </artifacts>",
+				"</repository>"));
+	}
+
+	@Test
+	public void deletedOwnersAreForgotten() throws IOException {
+		BundlePool pool = new BundlePool(folder.newFolder("pool"));
+		File ide = folder.newFolder("ide");
+		pool.addReference(ide, null, Collections.singleton(A));
+		Assert.assertEquals(1, pool.references().size());
+		Assert.assertEquals(Collections.singleton(A), pool.references().get(0).artifacts);
+		FileMisc.forceDelete(ide);
+		Assert.assertTrue(pool.references().isEmpty());
+	}
+
+	/** Writes a 10-byte artifact which is old enough to be evicted. */
+	private static File artifact(BundlePool pool, String path) throws IOException {
+		File file = new File(pool.getRoot(), path);
+		FileMisc.mkdirs(file.getParentFile());
+		FileMisc.writeToken(file.getParentFile(), file.getName(), "0123456789");
+		long old = System.currentTimeMillis() - 2 * BundlePool.GRACE_MILLIS - TimeUnit.MINUTES.toMillis(1);
+		file.setLastModified(old);
+		file.getParentFile().setLastModified(old);
+		return file;
+	}
+}
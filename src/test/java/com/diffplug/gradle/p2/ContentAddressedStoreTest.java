@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.diffplug.common.swt.os.OS;
+
+public class ContentAddressedStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void placeAndPrune() throws IOException {
+		ContentAddressedStore store = new ContentAddressedStore(folder.newFolder("store"));
+		File srcA = write("srcA", "content");
+		File srcB = write("srcB", "content");
+		File dstA = new File(folder.getRoot(), "dstA");
+		File dstB = new File(folder.getRoot(), "dstB");
+		Assert.assertEquals("ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73", store.place(srcA, dstA).sha256);
+		store.place(srcB, dstB);
+		Assert.assertEquals("content", read(dstA));
+		Assert.assertEquals("content", read(dstB));
+
+		// prune leaves the stored file alone while something links to it
+		File stored = new File(store.root, "ed/ed7002b439e9ac845f22357d822bac1444730fbdb6016d3ec9432297b9ec9f73");
+		Assert.assertTrue(stored.isFile());
+		store.prune();
+		Assert.assertTrue(stored.isFile());
+
+		// but once nothing links to it, it gets removed (on filesystems with hard links)
+		Files.delete(srcA.toPath());
+		Files.delete(dstA.toPath());
+		Files.delete(dstB.toPath());
+		store.prune();
+		if (!OS.getNative().isWindows()) {
+			Assert.assertFalse(stored.exists());
+		}
+		Assert.assertEquals("content", read(srcB));
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -16,12 +16,29 @@
 package com.diffplug.gradle.p2;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import com.diffplug.common.io.Files;
 import com.diffplug.common.io.Resources;
@@ -52,6 +69,162 @@ public class MavenRepoBuilderTest extends GradleIntegrationTest {
 		Assert.assertTrue(classpath.contains("org.eclipse.ecf.provider.filetransfer.ssl-1.0.0.v20151130-0157-sources.jar\""));
 	}
 
+	@Test
+	public void incremental() throws Exception {
+		File bin = copyIntoFolder("org.eclipse.ecf.provider.filetransfer.ssl_1.0.0.v20151130-0157.jar");
+		File source = copyIntoFolder("org.eclipse.ecf.provider.filetransfer.ssl.source_1.0.0.v20151130-0157.jar");
+
+		File mavenRoot = new File(folder.getRoot(), "maven");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot)) {
+			builder.install("p2group", bin);
+		}
+		File artifactFolder = new File(mavenRoot, "p2group/org.eclipse.ecf.provider.filetransfer.ssl");
+		File metadata = new File(artifactFolder, "maven-metadata.xml");
+		String initialMetadata = read("maven/p2group/org.eclipse.ecf.provider.filetransfer.ssl/maven-metadata.xml");
+		// a coordinate which is no longer present should be removed
+		File stale = new File(mavenRoot, "p2group/org.eclipse.stale");
+		FileMisc.mkdirs(stale);
+
+		// the same artifacts shouldn't be rewritten
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot, true, null)) {
+			builder.install("p2group", bin);
+		}
+		Assert.assertEquals(initialMetadata, read("maven/p2group/org.eclipse.ecf.provider.filetransfer.ssl/maven-metadata.xml"));
+		Assert.assertFalse(stale.exists());
+
+		// but adding the sources should update the coordinate
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot, true, null)) {
+			builder.install("p2group", bin);
+			builder.install("p2group", source);
+		}
+		Assert.assertTrue(metadata.isFile());
+		Assert.assertTrue(new File(artifactFolder, "1.0.0.v20151130-0157/org.eclipse.ecf.provider.filetransfer.ssl-1.0.0.v20151130-0157.jar").isFile());
+		Assert.assertTrue(new File(artifactFolder, "1.0.0.v20151130-0157/org.eclipse.ecf.provider.filetransfer.ssl-1.0.0.v20151130-0157-sources.jar").isFile());
+
+		// and if every bundle drops out of the group, so do all of its coordinates
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot, true, null)) {
+			builder.installAll("p2group", Collections.emptyList());
+		}
+		Assert.assertFalse(artifactFolder.exists());
+	}
+
+	@Test
+	public void incrementalDetectsRebuiltBundle() throws Exception {
+		File mavenRoot = new File(folder.getRoot(), "maven");
+		File jar = bundle("a", "1.0.0", "X-Build: one");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot)) {
+			builder.install("p2group", jar);
+		}
+		// same name, version and size, but different content
+		File rebuilt = bundle("a", "1.0.0", "X-Build: two");
+		Assert.assertEquals(jar, rebuilt);
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(mavenRoot, true, null)) {
+			builder.install("p2group", rebuilt);
+		}
+		File placed = new File(mavenRoot, "p2group/a/1.0.0/a-1.0.0.jar");
+		Assert.assertArrayEquals(java.nio.file.Files.readAllBytes(rebuilt.toPath()), java.nio.file.Files.readAllBytes(placed.toPath()));
+	}
+
+	@Test
+	public void parallelMatchesSerial() throws Exception {
+		List<File> jars = Arrays.asList(
+				copyIntoFolder("org.eclipse.ecf.provider.filetransfer.ssl_1.0.0.v20151130-0157.jar"),
+				copyIntoFolder("org.eclipse.ecf.provider.filetransfer.ssl.source_1.0.0.v20151130-0157.jar"));
+
+		File serial = new File(folder.getRoot(), "serial");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(serial)) {
+			builder.parallel = false;
+			builder.lastUpdated = 0;
+			for (File jar : jars) {
+				builder.install("p2group", jar);
+			}
+		}
+		File parallel = new File(folder.getRoot(), "parallel");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(parallel)) {
+			builder.lastUpdated = 0;
+			builder.installAll("p2group", jars);
+		}
+		Map<String, byte[]> serialContent = contentOf(serial);
+		Map<String, byte[]> parallelContent = contentOf(parallel);
+		Assert.assertEquals(serialContent.keySet(), parallelContent.keySet());
+		serialContent.forEach((path, content) -> {
+			Assert.assertArrayEquals(path, content, parallelContent.get(path));
+		});
+	}
+
+	@Test
+	public void pomDependencies() throws Exception {
+		List<File> jars = Arrays.asList(
+				bundle("a", "1.0.0",
+						"Require-Bundle: b;bundle-version=\"[1.0.0,2.0.0)\",c;resolution:=optional,notInGroup",
+						"Import-Package: pkg.d;version=\"[1.0,2.0)\",pkg.a"),
+				bundle("b", "1.0.0"),
+				bundle("b", "1.5.0"),
+				bundle("b", "2.0.0"),
+				bundle("c", "1.0.0"),
+				bundle("d", "3.0.0", "Export-Package: pkg.d;version=\"1.2.0\""),
+				bundle("e", "1.0.0", "Export-Package: pkg.d;version=\"2.5.0\""));
+
+		File requireBundle = new File(folder.getRoot(), "requireBundle");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(requireBundle)) {
+			builder.pomRequireBundle = true;
+			builder.installAll("p2group", jars);
+		}
+		Assert.assertEquals(Arrays.asList("p2group:b:1.5.0"), dependencies(new File(requireBundle, "p2group/a/1.0.0/a-1.0.0.pom")));
+		Assert.assertEquals(Arrays.asList(), dependencies(new File(requireBundle, "p2group/b/2.0.0/b-2.0.0.pom")));
+
+		File importPackage = new File(folder.getRoot(), "importPackage");
+		try (MavenRepoBuilder builder = new MavenRepoBuilder(importPackage)) {
+			builder.pomRequireBundle = true;
+			builder.pomImportPackage = true;
+			builder.installAll("p2group", jars);
+		}
+		Assert.assertEquals(Arrays.asList("p2group:b:1.5.0", "p2group:d:3.0.0"), dependencies(new File(importPackage, "p2group/a/1.0.0/a-1.0.0.pom")));
+	}
+
+	/** Returns the dependencies of the given pom as group:artifact:version. */
+	private static List<String> dependencies(File pom) throws Exception {
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(pom);
+		NodeList nodes = document.getElementsByTagName("dependency");
+		List<String> dependencies = new ArrayList<>();
+		for (int i = 0; i < nodes.getLength(); ++i) {
+			Element dependency = (Element) nodes.item(i);
+			dependencies.add(childText(dependency, "groupId") + ":" + childText(dependency, "artifactId") + ":" + childText(dependency, "version"));
+		}
+		return dependencies;
+	}
+
+	private static String childText(Element element, String name) {
+		return element.getElementsByTagName(name).item(0).getTextContent();
+	}
+
+	/** Creates a bundle jar with the given name, version, and extra manifest headers. */
+	private File bundle(String name, String version, String... headers) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", name);
+		manifest.getMainAttributes().putValue("Bundle-Version", version);
+		for (String header : headers) {
+			int colon = header.indexOf(':');
+			manifest.getMainAttributes().putValue(header.substring(0, colon), header.substring(colon + 1).trim());
+		}
+		File file = new File(folder.getRoot(), name + "_" + version + ".jar");
+		try (JarOutputStream output = new JarOutputStream(new FileOutputStream(file), manifest)) {}
+		return file;
+	}
+
+	private static Map<String, byte[]> contentOf(File root) throws IOException {
+		Map<String, byte[]> content = new TreeMap<>();
+		try (Stream<Path> paths = java.nio.file.Files.walk(root.toPath())) {
+			for (Path path : (Iterable<Path>) paths::iterator) {
+				if (java.nio.file.Files.isRegularFile(path)) {
+					content.put(root.toPath().relativize(path).toString(), java.nio.file.Files.readAllBytes(path));
+				}
+			}
+		}
+		return content;
+	}
+
 	private File copyIntoFolder(String jar) throws IOException {
 		URL url = MavenRepoBuilderTest.class.getResource(jar);
 		File file = folder.newFile();
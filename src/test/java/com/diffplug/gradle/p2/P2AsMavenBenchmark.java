@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.diffplug.gradle.FileMisc;
+import com.diffplug.gradle.GradleBenchmark;
+
+/**
+ * Mirrors a {@link SyntheticP2Repo} with `p2AsMaven`, cold, up-to-date,
+ * cold with `goomph_p2prefetch`, and cold with `goomph_appCds` (once to
+ * train the archive, and once to use it), and reports how much of the
+ * eclipse apps' startup time the archive saved.
+ *
+ * The size of the repo is set by the `goomph.benchmark.bundles` system
+ * property, which `gradlew benchmarkEndToEnd -PbenchmarkBundles=N` sets.
+ * The p2 bootstrap still has to be in the goomph cache (or downloadable)
+ * but everything else is served locally, and the bundle pool, p2 proxy,
+ * AppCDS archives and shared p2AsMaven cache are kept in temporary folders,
+ * so that a run neither reads nor pollutes the real `~/.goomph`.
+ */
+public class P2AsMavenBenchmark extends GradleBenchmark {
+	static final int BUNDLES = Integer.getInteger("goomph.benchmark.bundles", 500);
+
+	@Test
+	public void p2AsMaven() throws IOException {
+		SyntheticP2Repo synthetic = new SyntheticP2Repo(BUNDLES, Math.max(4, BUNDLES / 50), 4);
+		File repo = folder.newFolder("repo");
+		synthetic.writeTo(repo);
+		File bundlePool = folder.newFolder("bundlePool");
+		try (SyntheticP2Repo.Server server = SyntheticP2Repo.serve(repo)) {
+			List<String> lines = new ArrayList<>();
+			lines.add("plugins {");
+			lines.add("    id 'com.diffplug.gradle.p2.asmaven'");
+			lines.add("}");
+			// the overrides have to be Files, so they're set here rather than in gradle.properties
+			lines.add(override("bundlePool", bundlePool));
+			lines.add(override("p2Proxy", folder.newFolder("p2Proxy")));
+			lines.add(override("appCds", folder.newFolder("appCds")));
+			lines.add(override("p2AsMaven", folder.newFolder("p2AsMaven")));
+			lines.add("p2AsMaven {");
+			lines.add("    group 'synthetic', {");
+			lines.add("        repo '" + server.url() + "'");
+			for (String feature : synthetic.features()) {
+				lines.add("        feature '" + feature + "'");
+			}
+			lines.add("    }");
+			lines.add("}");
+			write("build.gradle", lines.toArray(new String[0]));
+
+			Measurement cold = measure("cold", server::bytesServed, AsMavenExtension.TASK);
+			measure("upToDate", server::bytesServed, AsMavenExtension.TASK);
+
+			coldStart(bundlePool);
+			write("gradle.properties", ArtifactPrefetcher.PROPERTY + "=true");
+			measure("coldPrefetch", server::bytesServed, AsMavenExtension.TASK);
+
+			write("gradle.properties", "goomph_appCds=true");
+			coldStart(bundlePool);
+			measure("coldAppCdsTraining", server::bytesServed, AsMavenExtension.TASK);
+			coldStart(bundlePool);
+			Measurement appCds = measure("coldAppCds", server::bytesServed, AsMavenExtension.TASK);
+			result("appCdsStartupSavedMillis", cold.startupMillis - appCds.startupMillis);
+		}
+		writeResults("p2AsMaven", "bundles", Integer.toString(BUNDLES));
+	}
+
+	/** Wipes the mirror and the bundle pool, so that the next build has to fetch every bundle again. */
+	private void coldStart(File bundlePool) throws IOException {
+		FileMisc.forceDelete(file("build/p2asmaven"));
+		FileMisc.cleanDir(bundlePool);
+	}
+
+	private static String override(String location, File dir) {
+		return "ext.goomph_override_" + location + " = file('" + dir.getAbsolutePath().replace("\\", "/") + "')";
+	}
+}
@@ -28,6 +28,7 @@ import com.diffplug.common.base.Joiner;
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.gradle.FileMisc;
 import com.diffplug.gradle.GoomphCacheLocations;
+import com.diffplug.gradle.eclipserunner.EclipseSession;
 
 public class P2BootstrapInstallationTest {
 	@Rule
@@ -68,4 +69,26 @@ public class P2BootstrapInstallationTest {
 			GoomphCacheLocations.override_p2bootstrap = null;
 		}
 	}
+
+	/** Runs two installs in a single framework, and makes sure that both were timed. */
+	@Test
+	public void session() throws Exception {
+		P2Model model = new P2Model();
+		model.addRepoEclipse("4.5.2");
+		model.addIU("org.eclipse.core.runtime");
+		File first = folder.newFolder("first");
+		File second = folder.newFolder("second");
+		try (EclipseSession session = P2Model.openBootstrapSession()) {
+			model.directorApp(first, "profile").runUsing(session);
+			model.directorApp(second, "profile").runUsing(session);
+
+			List<EclipseSession.Timing> timings = session.timings();
+			Assert.assertEquals(2, timings.size());
+			for (EclipseSession.Timing timing : timings) {
+				Assert.assertEquals("org.eclipse.equinox.p2.director", timing.application());
+				Assert.assertTrue(timing.succeeded());
+			}
+		}
+		Assert.assertEquals(FileMisc.list(new File(first, "plugins")).size(), FileMisc.list(new File(second, "plugins")).size());
+	}
 }
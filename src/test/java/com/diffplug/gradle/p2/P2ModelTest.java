@@ -16,14 +16,20 @@
 package com.diffplug.gradle.p2;
 
 import java.io.File;
+import java.io.IOException;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.gradle.FileMisc;
 
 public class P2ModelTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private P2Model testData() {
 		P2Model model = new P2Model();
 		model.addRepo("http://p2repo");
@@ -164,4 +170,33 @@ public class P2ModelTest {
 				"</project>");
 		Assert.assertEquals(expected, actual);
 	}
+
+	@Test
+	public void offline() throws IOException {
+		String remote = "https://download.example.com/releases/";
+		try (P2RepoProxy proxy = new P2RepoProxy(folder.newFolder("cache"))) {
+			proxy.setOffline(true);
+			proxy.start();
+			File cached = proxy.cacheFile(remote);
+			FileMisc.mkdirs(cached);
+			FileMisc.writeToken(cached, "content.xml", "<units><unit id='x' version='1.0.0'/><unit id='y' version='2.0.0'/></units>");
+
+			P2Model model = new P2Model();
+			model.addRepo(remote);
+			model.addIU("x");
+			model.addIU("y", "2.0.0");
+			P2Model offline = model.offline(proxy);
+			Assert.assertTrue(offline.getRepos().contains(proxy.url(remote)));
+
+			// IUs which aren't in the cached metadata fail right away
+			model.addIU("z");
+			model.addIU("y", "3.0.0");
+			try {
+				model.offline(proxy);
+				Assert.fail("Should have failed for the missing IUs");
+			} catch (IllegalStateException e) {
+				Assert.assertEquals("Gradle is offline, and these IUs aren't in the cached p2 metadata: [z, y/3.0.0]", e.getMessage());
+			}
+		}
+	}
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import com.diffplug.common.io.ByteStreams;
+import com.diffplug.gradle.FileMisc;
+
+public class P2RepoProxyTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void cachesAndRewrites() throws IOException {
+		// a stand-in for a remote repository, which counts how many times each file was downloaded
+		Map<String, String> files = new HashMap<>();
+		Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+		HttpServer upstream = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		String upstreamUrl = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + upstream.getAddress().getPort();
+		files.put("/repo/plugins/a_1.0.0.jar", "jar content");
+		files.put("/repo/compositeContent.xml", "<children size='2'><child location='" + upstreamUrl + "/other/'/><child location='relative'/></children>");
+		files.put("/repo/artifacts.xml", "<properties size='1'><property name='p2.mirrorsURL' value='http://mirrors/'/></properties>");
+		upstream.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			String content = files.get(path);
+			if (content == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				downloads.computeIfAbsent(path, unused -> new AtomicInteger()).incrementAndGet();
+				byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				exchange.sendResponseHeaders(200, bytes.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(bytes);
+				}
+			}
+			exchange.close();
+		});
+		upstream.start();
+
+		try (P2RepoProxy proxy = new P2RepoProxy(folder.newFolder("cache"))) {
+			proxy.start();
+			String repo = proxy.url(upstreamUrl + "/repo/");
+			Assert.assertTrue(repo.startsWith("http://" + InetAddress.getLoopbackAddress().getHostAddress()));
+			Assert.assertEquals("file:/local/", proxy.url("file:/local/"));
+
+			// artifacts are downloaded once
+			Assert.assertEquals("jar content", get(repo + "plugins/a_1.0.0.jar"));
+			Assert.assertEquals("jar content", get(repo + "plugins/a_1.0.0.jar"));
+			Assert.assertEquals(1, downloads.get("/repo/plugins/a_1.0.0.jar").get());
+
+			// composite children are routed through the proxy
+			String composite = get(repo + "compositeContent.xml");
+			Assert.assertTrue(composite.contains("location='" + proxy.url(upstreamUrl + "/other/") + "'"));
+			Assert.assertTrue(composite.contains("location='relative'"));
+
+			// missing files are remembered
+			Assert.assertNull(get(repo + "content.jar"));
+			Assert.assertNull(get(repo + "content.jar"));
+
+			// mirrors are disabled, and stale metadata is revalidated rather than downloaded again
+			proxy.setMaxAge(Duration.ZERO);
+			Assert.assertTrue(get(repo + "artifacts.xml").contains("'p2.mirrorsURL.disabled'"));
+			Assert.assertTrue(get(repo + "artifacts.xml").contains("'p2.mirrorsURL.disabled'"));
+			Assert.assertEquals(1, downloads.get("/repo/artifacts.xml").get());
+
+			// p2 is steered away from the .xz metadata, which we can't rewrite or read offline
+			String index = "version=1\nmetadata.repository.factory.order=content.xml.xz,content.xml,!\nartifact.repository.factory.order=artifacts.xml.xz,artifacts.xml,!\n";
+			Assert.assertEquals("version=1\nmetadata.repository.factory.order=content.xml,!\nartifact.repository.factory.order=artifacts.xml,!\n",
+					new String(P2RepoProxy.rewriteArtifacts("p2.index", index.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+			// if the server goes away, we still have the cached copy
+			upstream.stop(0);
+			Assert.assertTrue(get(repo + "artifacts.xml").contains("'p2.mirrorsURL.disabled'"));
+		} finally {
+			upstream.stop(0);
+		}
+	}
+
+	@Test
+	public void offline() throws IOException {
+		File cache = folder.newFolder("cache");
+		String remote = "https://download.example.com/releases/";
+		try (P2RepoProxy proxy = new P2RepoProxy(cache)) {
+			proxy.setOffline(true);
+			proxy.start();
+			// a composite whose children are cached, one relative and one absolute
+			File composite = proxy.cacheFile(remote);
+			FileMisc.mkdirs(composite);
+			FileMisc.writeToken(composite, "compositeContent.xml", "<children><child location='a'/><child location='https://mirror.example.com/b'/></children>");
+			FileMisc.mkdirs(new File(composite, "a"));
+			FileMisc.writeToken(new File(composite, "a"), "content.xml", "<units><unit id='x' version='1.0.0'/></units>");
+			File b = proxy.cacheFile("https://mirror.example.com/b/");
+			FileMisc.mkdirs(b);
+			FileMisc.writeToken(b, "content.xml", "<units><unit id='y' version='2.0.0'/></units>");
+			Assert.assertEquals(new HashSet<>(Arrays.asList("x/1.0.0", "y/2.0.0")), proxy.cachedUnits(remote));
+
+			// if only the .xz is cached, we can't tell what's in it
+			FileMisc.forceDelete(new File(b, "content.xml"));
+			FileMisc.writeToken(b, "content.xml.xz", "");
+			Assert.assertNull(proxy.cachedUnits(remote));
+
+			// cached files are served, and everything else is missing, without touching the network
+			Assert.assertEquals("<units><unit id='x' version='1.0.0'/></units>", get(proxy.url(remote) + "a/content.xml"));
+			Assert.assertNull(get(proxy.url(remote) + "a/content.jar"));
+		}
+	}
+
+	/** Returns the content at the given url, or null if it doesn't exist. */
+	private static String get(String url) throws IOException {
+		try (InputStream input = new URL(url).openStream()) {
+			return new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+}
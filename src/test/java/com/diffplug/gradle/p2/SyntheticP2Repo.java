@@ -0,0 +1,390 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import com.sun.net.httpserver.HttpServer;
+
+import com.diffplug.common.base.Preconditions;
+import com.diffplug.gradle.Digests;
+import com.diffplug.gradle.FileMisc;
+
+/**
+ * Writes a composite p2 repository full of generated bundles,
+ * fragments and features, and serves it over http, so that
+ * goomph can be exercised end-to-end without the network.
+ *
+ * Bundle `i` is `synthetic.bundle<i>`, and every tenth bundle is
+ * a fragment of the one before it.  The bundles are dealt out
+ * round-robin to the children, and each child's bundles are dealt
+ * out round-robin to the features in that child, so that feature
+ * `j` is `synthetic.feature<j>`.  Everything is version `1.0.0`,
+ * and the content is generated from a fixed seed, so two repos
+ * with the same parameters are identical.
+ */
+public class SyntheticP2Repo {
+	static final String VERSION = "1.0.0";
+	static final long TIMESTAMP = 1530403200000L;
+
+	private final int bundles;
+	private final int features;
+	private final int children;
+	private int bundleSize = 16 * 1024;
+
+	/** A repository with the given number of bundles, features, and composite children. */
+	public SyntheticP2Repo(int bundles, int features, int children) {
+		Preconditions.checkArgument(children > 0 && features >= children && bundles >= features, "Need bundles >= features >= children > 0");
+		this.bundles = bundles;
+		this.features = features;
+		this.children = children;
+	}
+
+	/** The approximate size of each bundle, defaults to 16KB. */
+	public SyntheticP2Repo bundleSize(int bundleSize) {
+		this.bundleSize = bundleSize;
+		return this;
+	}
+
+	public static String bundle(int i) {
+		return "synthetic.bundle" + i;
+	}
+
+	public static String feature(int i) {
+		return "synthetic.feature" + i;
+	}
+
+	/** Returns the ids of every feature. */
+	public List<String> features() {
+		List<String> ids = new ArrayList<>(features);
+		for (int i = 0; i < features; ++i) {
+			ids.add(feature(i));
+		}
+		return ids;
+	}
+
+	private static boolean isFragment(int i) {
+		return i % 10 == 9;
+	}
+
+	/** Writes the repository into the given directory, which must be empty or absent. */
+	public void writeTo(File root) throws IOException {
+		FileMisc.mkdirs(root);
+		Random random = new Random(0);
+		StringBuilder childList = new StringBuilder();
+		for (int c = 0; c < children; ++c) {
+			childList.append("    <child location='child").append(c).append("'/>\n");
+			writeChild(new File(root, "child" + c), c, random);
+		}
+		write(root, "compositeContent.xml", composite("compositeMetadataRepository", "org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository", childList));
+		write(root, "compositeArtifacts.xml", composite("compositeArtifactRepository", "org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository", childList));
+	}
+
+	private String composite(String instruction, String type, StringBuilder childList) {
+		return "<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<?" + instruction + " version='1.0.0'?>\n" +
+				"<repository name='synthetic' type='" + type + "' version='1.0.0'>\n" +
+				"  <properties size='1'>\n" +
+				"    <property name='p2.timestamp' value='" + TIMESTAMP + "'/>\n" +
+				"  </properties>\n" +
+				"  <children size='" + children + "'>\n" +
+				childList +
+				"  </children>\n" +
+				"</repository>\n";
+	}
+
+	private void writeChild(File child, int c, Random random) throws IOException {
+		File plugins = new File(child, "plugins");
+		File featuresDir = new File(child, "features");
+		FileMisc.mkdirs(plugins);
+		FileMisc.mkdirs(featuresDir);
+
+		StringBuilder units = new StringBuilder();
+		StringBuilder artifacts = new StringBuilder();
+		int unitCount = 0;
+		int artifactCount = 0;
+		List<List<Integer>> included = new ArrayList<>();
+		for (int f = c; f < features; f += children) {
+			included.add(new ArrayList<>());
+		}
+		int dealt = 0;
+		for (int i = c; i < bundles; i += children) {
+			included.get(dealt++ % included.size()).add(i);
+			byte[] jar = bundleJar(i, random);
+			Files.write(new File(plugins, bundle(i) + "_" + VERSION + ".jar").toPath(), jar);
+			units.append(bundleUnit(i));
+			artifacts.append(artifact("osgi.bundle", bundle(i), jar));
+			++unitCount;
+			++artifactCount;
+		}
+		int index = 0;
+		for (int f = c; f < features; f += children) {
+			byte[] jar = featureJar(f, included.get(index));
+			Files.write(new File(featuresDir, feature(f) + "_" + VERSION + ".jar").toPath(), jar);
+			units.append(featureGroupUnit(f, included.get(index)));
+			units.append(featureJarUnit(f));
+			artifacts.append(artifact("org.eclipse.update.feature", feature(f), jar));
+			unitCount += 2;
+			++artifactCount;
+			++index;
+		}
+
+		write(child, "content.xml", "<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<?metadataRepository version='1.1.0'?>\n" +
+				"<repository name='synthetic child" + c + "' type='org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository' version='1'>\n" +
+				"  <properties size='1'>\n" +
+				"    <property name='p2.timestamp' value='" + TIMESTAMP + "'/>\n" +
+				"  </properties>\n" +
+				"  <units size='" + unitCount + "'>\n" +
+				units +
+				"  </units>\n" +
+				"</repository>\n");
+		write(child, "artifacts.xml", "<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<?artifactRepository version='1.1.0'?>\n" +
+				"<repository name='synthetic child" + c + "' type='org.eclipse.equinox.p2.artifact.repository.simpleRepository' version='1'>\n" +
+				"  <properties size='2'>\n" +
+				"    <property name='p2.timestamp' value='" + TIMESTAMP + "'/>\n" +
+				"    <property name='p2.compressed' value='false'/>\n" +
+				"  </properties>\n" +
+				"  <mappings size='3'>\n" +
+				"    <rule filter='(&amp; (classifier=osgi.bundle))' output='${repoUrl}/plugins/${id}_${version}.jar'/>\n" +
+				"    <rule filter='(&amp; (classifier=binary))' output='${repoUrl}/binary/${id}_${version}'/>\n" +
+				"    <rule filter='(&amp; (classifier=org.eclipse.update.feature))' output='${repoUrl}/features/${id}_${version}.jar'/>\n" +
+				"  </mappings>\n" +
+				"  <artifacts size='" + artifactCount + "'>\n" +
+				artifacts +
+				"  </artifacts>\n" +
+				"</repository>\n");
+	}
+
+	private String bundleUnit(int i) {
+		String id = bundle(i);
+		StringBuilder unit = new StringBuilder();
+		unit.append("    <unit id='").append(id).append("' version='" + VERSION + "'>\n");
+		unit.append("      <update id='").append(id).append("' range='[0.0.0," + VERSION + ")' severity='0'/>\n");
+		unit.append("      <provides size='").append(isFragment(i) ? 4 : 3).append("'>\n");
+		unit.append("        <provided namespace='org.eclipse.equinox.p2.iu' name='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("        <provided namespace='osgi.bundle' name='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("        <provided namespace='org.eclipse.equinox.p2.eclipse.type' name='bundle' version='1.0.0'/>\n");
+		if (isFragment(i)) {
+			unit.append("        <provided namespace='osgi.fragment' name='").append(bundle(i - 1)).append("' version='" + VERSION + "'/>\n");
+			unit.append("      </provides>\n");
+			unit.append("      <requires size='1'>\n");
+			unit.append("        <required namespace='osgi.bundle' name='").append(bundle(i - 1)).append("' range='[" + VERSION + ",2.0.0)'/>\n");
+			unit.append("      </requires>\n");
+		} else {
+			unit.append("      </provides>\n");
+		}
+		unit.append("      <artifacts size='1'>\n");
+		unit.append("        <artifact classifier='osgi.bundle' id='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("      </artifacts>\n");
+		unit.append("      <touchpoint id='org.eclipse.equinox.p2.osgi' version='1.0.0'/>\n");
+		unit.append("      <touchpointData size='1'>\n");
+		unit.append("        <instructions size='1'>\n");
+		unit.append("          <instruction key='manifest'>Bundle-SymbolicName: ").append(id).append("&#xA;Bundle-Version: " + VERSION + "&#xA;</instruction>\n");
+		unit.append("        </instructions>\n");
+		unit.append("      </touchpointData>\n");
+		unit.append("    </unit>\n");
+		return unit.toString();
+	}
+
+	private String featureGroupUnit(int f, List<Integer> included) {
+		String id = feature(f) + ".feature.group";
+		StringBuilder unit = new StringBuilder();
+		unit.append("    <unit id='").append(id).append("' version='" + VERSION + "' singleton='false'>\n");
+		unit.append("      <properties size='1'>\n");
+		unit.append("        <property name='org.eclipse.equinox.p2.type.group' value='true'/>\n");
+		unit.append("      </properties>\n");
+		unit.append("      <provides size='1'>\n");
+		unit.append("        <provided namespace='org.eclipse.equinox.p2.iu' name='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("      </provides>\n");
+		unit.append("      <requires size='").append(included.size() + 1).append("'>\n");
+		for (int i : included) {
+			unit.append("        <required namespace='org.eclipse.equinox.p2.iu' name='").append(bundle(i)).append("' range='[" + VERSION + "," + VERSION + "]'/>\n");
+		}
+		unit.append("        <required namespace='org.eclipse.equinox.p2.iu' name='").append(feature(f)).append(".feature.jar' range='[" + VERSION + "," + VERSION + "]'>\n");
+		unit.append("          <filter>(org.eclipse.update.install.features=true)</filter>\n");
+		unit.append("        </required>\n");
+		unit.append("      </requires>\n");
+		unit.append("      <touchpoint id='null' version='0.0.0'/>\n");
+		unit.append("    </unit>\n");
+		return unit.toString();
+	}
+
+	private String featureJarUnit(int f) {
+		String id = feature(f);
+		StringBuilder unit = new StringBuilder();
+		unit.append("    <unit id='").append(id).append(".feature.jar' version='" + VERSION + "'>\n");
+		unit.append("      <provides size='3'>\n");
+		unit.append("        <provided namespace='org.eclipse.equinox.p2.iu' name='").append(id).append(".feature.jar' version='" + VERSION + "'/>\n");
+		unit.append("        <provided namespace='org.eclipse.equinox.p2.eclipse.type' name='feature' version='1.0.0'/>\n");
+		unit.append("        <provided namespace='org.eclipse.update.feature' name='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("      </provides>\n");
+		unit.append("      <filter>(org.eclipse.update.install.features=true)</filter>\n");
+		unit.append("      <artifacts size='1'>\n");
+		unit.append("        <artifact classifier='org.eclipse.update.feature' id='").append(id).append("' version='" + VERSION + "'/>\n");
+		unit.append("      </artifacts>\n");
+		unit.append("      <touchpoint id='org.eclipse.equinox.p2.osgi' version='1.0.0'/>\n");
+		unit.append("      <touchpointData size='1'>\n");
+		unit.append("        <instructions size='1'>\n");
+		unit.append("          <instruction key='zipped'>true</instruction>\n");
+		unit.append("        </instructions>\n");
+		unit.append("      </touchpointData>\n");
+		unit.append("    </unit>\n");
+		return unit.toString();
+	}
+
+	private static String artifact(String classifier, String id, byte[] content) {
+		Digests digests = Digests.of(content);
+		return "    <artifact classifier='" + classifier + "' id='" + id + "' version='" + VERSION + "'>\n" +
+				"      <properties size='4'>\n" +
+				"        <property name='artifact.size' value='" + content.length + "'/>\n" +
+				"        <property name='download.size' value='" + content.length + "'/>\n" +
+				"        <property name='download.md5' value='" + digests.md5 + "'/>\n" +
+				"        <property name='download.checksum.sha-256' value='" + digests.sha256 + "'/>\n" +
+				"      </properties>\n" +
+				"    </artifact>\n";
+	}
+
+	private byte[] bundleJar(int i, Random random) throws IOException {
+		Manifest manifest = manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Bundle-ManifestVersion", "2");
+		attributes.putValue("Bundle-SymbolicName", bundle(i));
+		attributes.putValue("Bundle-Version", VERSION);
+		attributes.putValue("Export-Package", bundle(i));
+		if (isFragment(i)) {
+			attributes.putValue("Fragment-Host", bundle(i - 1));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(bundleSize + 1024);
+		try (JarOutputStream jar = new JarOutputStream(bytes, manifest)) {
+			// random content doesn't compress, so the bundle is about bundleSize
+			byte[] content = new byte[bundleSize];
+			random.nextBytes(content);
+			jar.putNextEntry(new ZipEntry(bundle(i).replace('.', '/') + "/content.bin"));
+			jar.write(content);
+			jar.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] featureJar(int f, List<Integer> included) throws IOException {
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		xml.append("<feature id='").append(feature(f)).append("' version='" + VERSION + "'>\n");
+		for (int i : included) {
+			xml.append("  <plugin id='").append(bundle(i)).append("' version='" + VERSION + "'");
+			xml.append(isFragment(i) ? " fragment='true'" : "").append(" unpack='false'/>\n");
+		}
+		xml.append("</feature>\n");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JarOutputStream jar = new JarOutputStream(bytes, manifest())) {
+			jar.putNextEntry(new ZipEntry("feature.xml"));
+			jar.write(xml.toString().getBytes(StandardCharsets.UTF_8));
+			jar.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Manifest manifest() {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		return manifest;
+	}
+
+	private static void write(File dir, String name, String content) throws IOException {
+		Files.write(new File(dir, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Serves the given directory over http on the loopback interface. */
+	public static Server serve(File root) throws IOException {
+		return new Server(root);
+	}
+
+	/** A static file server which counts what it serves. */
+	public static class Server implements AutoCloseable {
+		private final HttpServer server;
+		private final ExecutorService executor = Executors.newCachedThreadPool();
+		private final AtomicLong bytesServed = new AtomicLong();
+		private final AtomicInteger requests = new AtomicInteger();
+		private final String url;
+
+		private Server(File root) throws IOException {
+			server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			server.setExecutor(executor);
+			url = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort() + "/";
+			server.createContext("/", exchange -> {
+				requests.incrementAndGet();
+				File file = new File(root, exchange.getRequestURI().getPath().substring(1));
+				if (!file.isFile() || !file.getCanonicalPath().startsWith(root.getCanonicalPath())) {
+					exchange.sendResponseHeaders(404, -1);
+					exchange.close();
+					return;
+				}
+				byte[] content = Files.readAllBytes(file.toPath());
+				boolean head = "HEAD".equals(exchange.getRequestMethod());
+				exchange.sendResponseHeaders(200, head ? -1 : content.length);
+				if (!head) {
+					try (OutputStream output = exchange.getResponseBody()) {
+						output.write(content);
+					}
+					bytesServed.addAndGet(content.length);
+				}
+				exchange.close();
+			});
+			server.start();
+		}
+
+		/** The url of the root of the repository, with a trailing slash. */
+		public String url() {
+			return url;
+		}
+
+		/** The number of bytes in all the response bodies so far. */
+		public long bytesServed() {
+			return bytesServed.get();
+		}
+
+		/** The number of requests so far, including 404s. */
+		public int requests() {
+			return requests.get();
+		}
+
+		@Override
+		public void close() {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.p2;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyntheticP2RepoTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void prefetchFeature() throws Exception {
+		File root = folder.newFolder("repo");
+		new SyntheticP2Repo(40, 4, 2).bundleSize(100).writeTo(root);
+		Assert.assertTrue(new File(root, "child1/plugins/synthetic.bundle39_1.0.0.jar").isFile());
+		Assert.assertTrue(new File(root, "child0/features/synthetic.feature2_1.0.0.jar").isFile());
+
+		try (SyntheticP2Repo.Server server = SyntheticP2Repo.serve(root)) {
+			P2Model model = new P2Model();
+			model.addRepo(server.url());
+			model.addFeature(SyntheticP2Repo.feature(1));
+
+			// feature1 is in child1, which has the odd bundles, and it gets every other one of those
+			BundlePool pool = new BundlePool(folder.newFolder("pool"));
+			Set<String> prefetched = new ArtifactPrefetcher(pool).prefetch(model).stream()
+					.map(artifact -> artifact.id)
+					.collect(Collectors.toSet());
+			Set<String> expected = new HashSet<>();
+			for (int i = 1; i < 40; i += 4) {
+				expected.add(SyntheticP2Repo.bundle(i));
+			}
+			Assert.assertEquals(expected, prefetched);
+			Assert.assertTrue(server.bytesServed() > 10 * 100);
+		}
+	}
+}